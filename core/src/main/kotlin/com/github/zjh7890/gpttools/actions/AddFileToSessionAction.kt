@@ -19,7 +19,7 @@ class AddFileToSessionAction : AnAction("Add File to Session") {
         }
 
         ChatUtils.activateToolWindowRun(project) { panel, service ->
-            SessionManager.getInstance(project).addFileToCurrentSession(virtualFile)
+            SessionManager.getInstance(project).addFilesToCurrentSession(listOf(virtualFile))
         }
     }
 }
\ No newline at end of file
@@ -7,7 +7,6 @@ import com.intellij.openapi.actionSystem.AnAction
 import com.intellij.openapi.actionSystem.AnActionEvent
 import com.intellij.openapi.actionSystem.CommonDataKeys
 import com.intellij.openapi.ui.Messages
-import com.intellij.openapi.vfs.VirtualFile
 
 class AddFilesToSessionBatchAction : AnAction("Add Files to Session") {
     override fun actionPerformed(e: AnActionEvent) {
@@ -19,30 +18,9 @@ class AddFilesToSessionBatchAction : AnAction("Add Files to Session") {
             return
         }
 
-        val filesToAdd = mutableListOf<VirtualFile>()
-        // 递归处理所选项目
-        for (file in virtualFiles) {
-            if (file.isDirectory) {
-                collectFiles(file, filesToAdd)
-            } else {
-                filesToAdd.add(file)
-            }
-        }
-
+        // 目录展开、文件分析都放到后台批量处理
         ChatUtils.activateToolWindowRun(project) { panel, service ->
-            filesToAdd.forEach {
-                SessionManager.getInstance(project).addFileToCurrentSession(it)
-            }
-        }
-    }
-
-    private fun collectFiles(directory: VirtualFile, files: MutableList<VirtualFile>) {
-        directory.children?.forEach { child ->
-            if (child.isDirectory) {
-                collectFiles(child, files)
-            } else {
-                files.add(child)
-            }
+            SessionManager.getInstance(project).addFilesToCurrentSession(virtualFiles.toList())
         }
     }
 
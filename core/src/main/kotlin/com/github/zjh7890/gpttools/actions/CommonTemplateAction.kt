@@ -1,6 +1,5 @@
 package com.github.zjh7890.gpttools.actions
 
-import com.github.zjh7890.gpttools.context.builder.PromptContext
 import com.github.zjh7890.gpttools.context.builder.PromptContextProvider
 import com.github.zjh7890.gpttools.context.builder.WrapBorder
 import com.github.zjh7890.gpttools.services.SessionManager
@@ -22,11 +21,12 @@ import org.apache.commons.lang3.StringUtils
 import javax.swing.JComponent
 import javax.swing.JScrollPane
 import javax.swing.JTextArea
+import kotlin.reflect.KVisibility
 import kotlin.reflect.full.memberProperties
 import kotlin.reflect.jvm.isAccessible
 
 import com.github.zjh7890.gpttools.utils.GptToolsIcon
-import kotlin.reflect.full.primaryConstructor
+import kotlin.reflect.jvm.javaGetter
 
 class CommonTemplateAction(val promptTemplate: PromptTemplate) : AnAction(promptTemplate.desc, null, GptToolsIcon.PRIMARY) {
     override fun actionPerformed(e: AnActionEvent) {
@@ -61,7 +61,6 @@ class CommonTemplateAction(val promptTemplate: PromptTemplate) : AnAction(prompt
             }
         }
 
-        val dataClassToMap = dataClassToMap(promptContext!!)
         val inputMap = mapOf(
             "GPT_input1" to dialog.input1,
             "GPT_input2" to dialog.input2,
@@ -70,11 +69,17 @@ class CommonTemplateAction(val promptTemplate: PromptTemplate) : AnAction(prompt
             "GPT_input5" to dialog.input5,
         )
 
-        // Merge dataClassToMap and inputMap into mergedMap
-        var mergedMap = dataClassToMap.mapValues { it.value ?: "" } + inputMap
+        // 只取模板引用到的变量，输入框的值优先于上下文
+        val template = TemplateUtils.compile(promptTemplate.value)
+        val accessors = contextAccessors.get(promptContext!!.javaClass)
+        val values = template.variables.associateWith { name ->
+            inputMap[name] ?: accessors[name]?.let { accessor ->
+                val value = accessor.getter(promptContext)?.toString() ?: ""
+                if (accessor.wrapBorder && value.isNotBlank()) FileUtil.wrapBorder(value) else value
+            } ?: ""
+        }
 
-        // Call checkVariables
-        val missingVariables = TemplateUtils.checkVariables(promptTemplate.value, mergedMap)
+        val missingVariables = values.filterValues { it.isBlank() }.keys
         if (missingVariables.isNotEmpty()) {
             Messages.showMessageDialog(
                 project,
@@ -85,17 +90,7 @@ class CommonTemplateAction(val promptTemplate: PromptTemplate) : AnAction(prompt
             return
         }
 
-        mergedMap = mergedMap.mapValues { (key, value) ->
-            if (value.isNotBlank() &&
-                PromptContext::class.primaryConstructor?.parameters?.find { it.name == key.removePrefix("GPT_") }
-                    ?.annotations?.any { it is WrapBorder } == true) {
-                FileUtil.wrapBorder(value)
-            } else {
-                value ?: ""
-            }
-        } + inputMap
-
-        val result = TemplateUtils.replacePlaceholders(promptTemplate.value, mergedMap)
+        val result = template.render { values[it] }
         if (promptTemplate.newChat) {
             ChatUtils.sendToChatWindow(project) { contentPanel, chatCodingService ->
                 SessionManager.getInstance(project).createNewSession()
@@ -109,13 +104,6 @@ class CommonTemplateAction(val promptTemplate: PromptTemplate) : AnAction(prompt
         copyToClipboard(result)
     }
 
-    fun <T : Any> dataClassToMap(dataClass: T): Map<String, String?> {
-        return dataClass::class.memberProperties.associate { property ->
-            property.isAccessible = true
-            "GPT_" + property.name to (property.getter.call(dataClass)?.toString())
-        }
-    }
-
     override fun getActionUpdateThread(): ActionUpdateThread {
         return ActionUpdateThread.BGT
     }
@@ -124,6 +112,26 @@ class CommonTemplateAction(val promptTemplate: PromptTemplate) : AnAction(prompt
         super.update(e)
         e.presentation.text = promptTemplate.desc
     }
+
+    private class Accessor(val getter: (Any) -> Any?, val wrapBorder: Boolean)
+
+    companion object {
+        /**
+         * 上下文类的属性表：GPT_属性名 -> 取值函数，每个类只反射一次
+         */
+        private val contextAccessors = object : ClassValue<Map<String, Accessor>>() {
+            override fun computeValue(type: Class<*>): Map<String, Accessor> {
+                return type.kotlin.memberProperties.filter { it.visibility == KVisibility.PUBLIC }.associate { property ->
+                    property.isAccessible = true
+                    val javaGetter = property.javaGetter
+                    val getter: (Any) -> Any? =
+                        if (javaGetter != null) { target -> javaGetter.invoke(target) }
+                        else { target -> property.getter.call(target) }
+                    "GPT_" + property.name to Accessor(getter, property.annotations.any { it is WrapBorder })
+                }
+            }
+        }
+    }
 }
 
 class UMLFunctionDialog(project: Project?, val promptTemplate: PromptTemplate) : DialogWrapper(project) {
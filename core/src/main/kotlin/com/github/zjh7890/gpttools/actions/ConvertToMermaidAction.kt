@@ -7,6 +7,8 @@ import com.github.zjh7890.gpttools.utils.GptToolsIcon
 import com.intellij.openapi.actionSystem.ActionUpdateThread
 import com.intellij.openapi.actionSystem.AnAction
 import com.intellij.openapi.actionSystem.AnActionEvent
+import com.intellij.openapi.progress.ProgressIndicator
+import com.intellij.openapi.progress.Task
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.ui.DialogWrapper
 import com.intellij.openapi.util.Iconable
@@ -28,7 +30,23 @@ class ConvertToMermaidAction : AnAction(), Iconable {
 
         umlFunctionDialog.show()
         if (umlFunctionDialog.isOK) {
-            copyToClipboard("```\n" +  DrawioToMermaidConverter.convert(umlFunctionDialog.input1) + "\n```\n")
+            val input = umlFunctionDialog.input1
+            // 大图解析较慢，放到后台；转换器无共享状态，多个转换可以同时进行
+            object : Task.Backgroundable(project, "Converting to Mermaid", true) {
+                private var diagrams = emptyList<DrawioToMermaidConverter.Diagram>()
+
+                override fun run(indicator: ProgressIndicator) {
+                    diagrams = DrawioToMermaidConverter.convert(input)
+                }
+
+                override fun onSuccess() {
+                    // 每页一个代码块，多页时在代码块前写上页面名称
+                    copyToClipboard(diagrams.joinToString("\n") {
+                        val title = if (diagrams.size > 1) "${it.name}\n" else ""
+                        title + "```\n" + it.mermaid + "\n```\n"
+                    })
+                }
+            }.queue()
             // 在对话框关闭后处理并打印数据
 //            println("UML Text: ${dialog.input1}")
 //            println("Function Text: ${dialog.input2}")
@@ -5,7 +5,6 @@ import com.github.zjh7890.gpttools.llm.LlmProvider
 import com.github.zjh7890.gpttools.services.ChatContextMessage
 import com.github.zjh7890.gpttools.services.ChatSession
 import com.github.zjh7890.gpttools.toolWindow.chat.ChatRole
-import com.github.zjh7890.gpttools.utils.CmdUtils
 import com.github.zjh7890.gpttools.utils.ParseUtils
 import com.intellij.openapi.diagnostic.logger
 import com.intellij.openapi.project.Project
@@ -66,6 +65,8 @@ ${exportedContent}
 """.trimIndent()))
         }
 
+        // 整个收集过程共用，多轮中重复的命令在文件未变化时复用结果
+        val scheduler = ToolExecutionScheduler(project)
         for (i in 0 until 7) {
             val collectContextFlow = LlmProvider.stream(userMessages, llmConfig)
             var text = ""
@@ -84,8 +85,8 @@ ${exportedContent}
                 val sb = StringBuilder()
                 when {
                     parsedResponse.isShellCommand -> {
-                        parsedResponse.shellCommands?.forEach { command ->
-                            val result = CmdUtils.executeCmd(command, "shell", project)
+                        // 同一轮的命令并行执行，结果按命令顺序拼接
+                        scheduler.executeAll(parsedResponse.shellCommands.orEmpty()).forEach { result ->
                             sb.append(result + "\n\n")
                         }
                     }
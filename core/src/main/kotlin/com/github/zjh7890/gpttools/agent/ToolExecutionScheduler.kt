@@ -0,0 +1,116 @@
+package com.github.zjh7890.gpttools.agent
+
+import com.github.zjh7890.gpttools.utils.CmdUtils
+import com.intellij.openapi.application.ReadAction
+import com.intellij.openapi.diagnostic.logger
+import com.intellij.openapi.progress.EmptyProgressIndicator
+import com.intellij.openapi.progress.ProcessCanceledException
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.vfs.VirtualFileManager
+import com.intellij.util.concurrency.AppExecutorUtil
+import java.util.concurrent.CancellationException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.FutureTask
+import java.util.concurrent.TimeUnit
+
+/**
+ * 执行 agent 一轮返回的多条命令，一个会话用一个实例：
+ * - 同一轮的命令互不依赖，在有界线程池中并行执行，结果按命令顺序返回
+ * - 相同的命令在文件没有变化（VFS 修改计数不变）时直接复用结果，同一轮里重复的命令只执行一次
+ * - 每条命令单独计时，超时后取消；输出超过上限时截断
+ */
+class ToolExecutionScheduler(
+    private val project: Project,
+    private val commandType: String = "shell",
+    private val timeoutMillis: Long = DEFAULT_TIMEOUT_MILLIS,
+    private val maxOutputChars: Int = DEFAULT_MAX_OUTPUT_CHARS
+) {
+    private val logger = logger<ToolExecutionScheduler>()
+
+    private data class CacheKey(val command: String, val modificationCount: Long)
+
+    private val results = ConcurrentHashMap<CacheKey, FutureTask<String>>()
+
+    fun executeAll(commands: List<String>): List<String> {
+        val modificationCount = VirtualFileManager.getInstance().modificationCount
+        val tasks = commands.map { command ->
+            val key = CacheKey(command.trim(), modificationCount)
+            var created = false
+            val task = results.computeIfAbsent(key) {
+                created = true
+                FutureTask {
+                    val output = execute(command)
+                    // 工具自己吞掉了取消时，结果可能不完整，抛出后按超时处理，不缓存
+                    ProgressManager.checkCanceled()
+                    truncate(output)
+                }
+            }
+            if (created) {
+                submit(task)
+            } else {
+                logger.info("Reuse result of command: $command")
+            }
+            Triple(key, command, task)
+        }
+        return tasks.map { (key, command, task) ->
+            try {
+                task.get()
+            } catch (e: CancellationException) {
+                // 超时和失败的结果不缓存，下一轮可以重试
+                results.remove(key, task)
+                timeoutMessage(command)
+            } catch (e: ExecutionException) {
+                results.remove(key, task)
+                if (e.cause is ProcessCanceledException) timeoutMessage(command)
+                else "命令执行失败：${command}\n${e.cause?.message}"
+            }
+        }
+    }
+
+    /**
+     * 任务开始执行时才开始计时，排队的时间不算在超时内
+     */
+    private fun submit(task: FutureTask<String>) {
+        EXECUTOR.execute {
+            if (task.isDone) return@execute
+            val indicator = EmptyProgressIndicator()
+            val watchdog = AppExecutorUtil.getAppScheduledExecutorService().schedule({
+                indicator.cancel()
+                task.cancel(true)
+            }, timeoutMillis, TimeUnit.MILLISECONDS)
+            try {
+                ProgressManager.getInstance().runProcess(task, indicator)
+            } finally {
+                watchdog.cancel(false)
+            }
+        }
+    }
+
+    private fun execute(command: String): String {
+        if (!CmdUtils.isCustomCommand(command, commandType)) {
+            // shell 命令不持有读锁，超时由 CmdUtils 结束进程
+            return CmdUtils.executeCmd(command, commandType, project, timeoutMillis)
+        }
+        // 自定义命令会访问 PSI，在非阻塞读操作里执行，遇到写操作会重试，超时通过 indicator 取消
+        return ReadAction.nonBlocking<String> { CmdUtils.executeCmd(command, commandType, project) }
+            .expireWith(project)
+            .executeSynchronously()
+    }
+
+    private fun timeoutMessage(command: String) = "命令执行超时：${command}（超过 ${timeoutMillis / 1000} 秒）"
+
+    private fun truncate(output: String): String {
+        if (output.length <= maxOutputChars) return output
+        return output.substring(0, maxOutputChars) + "\n...（输出过长，已截断，共 ${output.length} 个字符）"
+    }
+
+    companion object {
+        const val DEFAULT_TIMEOUT_MILLIS = 30_000L
+        const val DEFAULT_MAX_OUTPUT_CHARS = 50_000
+        private const val MAX_PARALLELISM = 4
+
+        private val EXECUTOR = AppExecutorUtil.createBoundedApplicationPoolExecutor("GptTools Tool Execution", MAX_PARALLELISM)
+    }
+}
@@ -16,40 +16,41 @@ class ClassContext(
     val displayName: String? = null,
     val annotations: List<String> = mutableListOf(),
 ) : NamedElementContext(root, text, name) {
-    private fun getFieldNames(): List<String> = fields.mapNotNull {
+    private fun getFieldNames(): List<String> {
         val variableContextProvider = VariableContextProvider(false, false, false)
-        variableContextProvider.from(it).shortFormat()
+        return fields.mapNotNull { variableContextProvider.from(it).shortFormat() }
     }
 
-    private fun getMethodSignatures(): List<String> = methods.mapNotNull {
-        MethodContextProvider(false, gatherUsages = false).from(it).signature
+    private fun getMethodSignatures(): List<String> {
+        val methodContextProvider = MethodContextProvider(false, gatherUsages = false)
+        return methods.mapNotNull { methodContextProvider.from(it).signature }
     }
 
-    override fun format(): String {
-        val className = name ?: "_"
-        val classFields = getFieldNames().joinToString(separator = "\n  ")
-        val superClasses = when {
-            superClasses.isNullOrEmpty() -> ""
-            else -> " : ${superClasses.joinToString(separator = ", ")}"
-        }
-        val methodSignatures = getMethodSignatures()
-            .filter { it.isNotBlank() }.joinToString(separator = "\n  ") { method ->
-                "+ $method"
-            }
+    /**
+     * 结果按类所在文件的修改时间戳缓存
+     */
+    override fun format(): String = ContextRenderCache.get(root, "class", crossFile = false) { render() }
 
+    private fun render(): String {
+        val className = name ?: "_"
         val filePath = displayName ?: runReadAction { root.containingFile?.virtualFile?.path }
-        val annotations = if (annotations.isEmpty()) {
-            ""
-        } else {
-            "\n'" + annotations.joinToString(separator = ", ")
-        }
 
-        return """
-        |'package: $filePath$annotations
-        |class $className$superClasses {
-        |  $classFields
-        |  $methodSignatures
-        |}
-    """.trimMargin()
+        return buildString {
+            append("'package: ").append(filePath)
+            if (annotations.isNotEmpty()) {
+                append("\n'")
+                annotations.joinTo(this, separator = ", ")
+            }
+            append("\nclass ").append(className)
+            if (!superClasses.isNullOrEmpty()) {
+                append(" : ")
+                superClasses.joinTo(this, separator = ", ")
+            }
+            append(" {\n  ")
+            getFieldNames().joinTo(this, separator = "\n  ")
+            append("\n  ")
+            getMethodSignatures().filter { it.isNotBlank() }.joinTo(this, separator = "\n  ") { method -> "+ $method" }
+            append("\n}")
+        }
     }
 }
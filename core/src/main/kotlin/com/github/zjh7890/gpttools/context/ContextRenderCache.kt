@@ -0,0 +1,41 @@
+package com.github.zjh7890.gpttools.context
+
+import com.intellij.openapi.application.runReadAction
+import com.intellij.psi.PsiElement
+import com.intellij.psi.util.PsiModificationTracker
+import com.intellij.util.containers.ContainerUtil
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 类、方法上下文渲染结果的缓存，按 PSI 元素和修改时间戳失效。
+ *
+ * 只依赖自身文件的结果用文件的修改时间戳，依赖其他文件（例如 usages）的结果用项目的 PSI 修改计数。
+ * 元素被回收后缓存随之回收。
+ */
+object ContextRenderCache {
+    private class Entry(val stamp: Long, val text: String)
+
+    private val cache: MutableMap<PsiElement, MutableMap<String, Entry>> = ContainerUtil.createConcurrentWeakMap()
+
+    /**
+     * @param kind 同一个元素的不同渲染方式，例如是否包含类上下文
+     * @param crossFile 结果是否依赖其他文件
+     */
+    fun get(element: PsiElement, kind: String, crossFile: Boolean, render: () -> String): String {
+        val stamp = runReadAction {
+            if (!element.isValid) return@runReadAction -1L
+            val file = element.containingFile
+            if (crossFile || file == null) {
+                PsiModificationTracker.getInstance(element.project).modificationCount
+            } else {
+                file.modificationStamp
+            }
+        }
+        // 元素已失效时不缓存
+        if (stamp < 0) return render()
+
+        val entries = cache.computeIfAbsent(element) { ConcurrentHashMap() }
+        entries[kind]?.takeIf { it.stamp == stamp }?.let { return it.text }
+        return render().also { entries[kind] = Entry(stamp, it) }
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.zjh7890.gpttools.context
+
+import com.intellij.psi.PsiArrayType
+import com.intellij.psi.PsiClass
+import com.intellij.psi.PsiClassType
+import com.intellij.psi.PsiModifier
+import com.intellij.psi.PsiType
+import com.intellij.psi.PsiTypeParameter
+import com.intellij.psi.PsiWildcardType
+import com.intellij.psi.util.CachedValueProvider
+import com.intellij.psi.util.CachedValuesManager
+
+/**
+ * 提取数据类的字段结构：
+ * - 按层遍历字段类型，不递归，已访问的类不再展开，自引用、互相引用的类不会无限展开
+ * - 展开深度和类的总数都有上限，超出的类只保留字段类型名
+ * - 多处引用的类只展开一次
+ * - 每个类的字段结构缓存在类自身上，相关文件修改后失效
+ *
+ * 需要在读操作中调用
+ */
+object DataClassStructureExtractor {
+    const val DEFAULT_MAX_DEPTH = 4
+    const val DEFAULT_MAX_TYPES = 50
+
+    /**
+     * @param referencedClasses 字段类型中引用的类，包括泛型参数和数组元素类型，不包括类型参数
+     */
+    class FieldShape(val name: String, val type: String, val referencedClasses: List<PsiClass>)
+
+    class TypeShape(val name: String, val fields: List<FieldShape>) {
+        val referencedClasses: List<PsiClass> by lazy { fields.flatMap { it.referencedClasses }.distinct() }
+    }
+
+    /**
+     * 类自身声明的非静态字段。结果保存在类自身的 user data 中，随 PSI 一起释放；
+     * 类所在文件或字段引用的类所在文件修改后重新计算
+     */
+    fun shapeOf(psiClass: PsiClass): TypeShape = CachedValuesManager.getCachedValue(psiClass) {
+        val shape = computeShape(psiClass)
+        CachedValueProvider.Result.create(shape, psiClass, *shape.referencedClasses.toTypedArray())
+    }
+
+    private fun computeShape(psiClass: PsiClass): TypeShape {
+        val fields = psiClass.fields
+            .filter { !it.hasModifierProperty(PsiModifier.STATIC) }
+            .map { field ->
+                val referenced = mutableListOf<PsiClass>()
+                collectReferencedClasses(field.type, referenced)
+                FieldShape(field.name, field.type.presentableText, referenced)
+            }
+        return TypeShape(psiClass.name ?: "_", fields)
+    }
+
+    /**
+     * 从 root 开始按层收集字段中引用到的类
+     *
+     * @param maxDepth 最多展开的层数，root 为第 0 层
+     * @param maxTypes 最多收集的类数量，包括 root
+     * @param expand 是否收集并继续展开这个类，每个类只判断一次
+     * @return 按发现顺序排列，第一个是 root
+     */
+    fun collect(
+        root: PsiClass,
+        maxDepth: Int = DEFAULT_MAX_DEPTH,
+        maxTypes: Int = DEFAULT_MAX_TYPES,
+        expand: (PsiClass) -> Boolean
+    ): List<PsiClass> {
+        val visited = LinkedHashSet<PsiClass>()
+        val rejected = HashSet<PsiClass>()
+        visited.add(root)
+        var level = listOf(root)
+        var depth = 0
+        while (level.isNotEmpty() && depth < maxDepth) {
+            val next = mutableListOf<PsiClass>()
+            for (psiClass in level) {
+                for (referenced in shapeOf(psiClass).referencedClasses) {
+                    if (referenced in visited || referenced in rejected) continue
+                    if (visited.size >= maxTypes) return visited.toList()
+                    if (expand(referenced)) {
+                        visited.add(referenced)
+                        next.add(referenced)
+                    } else {
+                        rejected.add(referenced)
+                    }
+                }
+            }
+            level = next
+            depth++
+        }
+        return visited.toList()
+    }
+
+    private fun collectReferencedClasses(type: PsiType, result: MutableList<PsiClass>) {
+        when (type) {
+            is PsiArrayType -> collectReferencedClasses(type.componentType, result)
+            is PsiWildcardType -> type.bound?.let { collectReferencedClasses(it, result) }
+            is PsiClassType -> {
+                type.resolve()?.takeIf { it !is PsiTypeParameter }?.let { result.add(it) }
+                type.parameters.forEach { collectReferencedClasses(it, result) }
+            }
+        }
+    }
+}
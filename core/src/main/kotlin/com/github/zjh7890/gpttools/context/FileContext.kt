@@ -13,8 +13,9 @@ class FileContext(
     val classes: List<PsiElement> = emptyList(),
     val methods: List<PsiElement> = emptyList(),
 ) : LLMCodeContext {
-    private fun getClassDetail(): List<String> = classes.map {
-        ClassContextProvider(false).from(it).format()
+    private fun getClassDetail(): List<String> {
+        val classContextProvider = ClassContextProvider(false)
+        return classes.map { classContextProvider.from(it).format() }
     }
 
     override fun format(): String {
@@ -27,10 +28,11 @@ class FileContext(
             "file imports",
             if (imports.isNotEmpty()) imports.joinToString(" ", transform = { it.text }) else ""
         )
+        val classDetail = getClassDetail()
         val classDetails =
             getFieldString(
                 "file classes",
-                if (getClassDetail().isNotEmpty()) getClassDetail().joinToString(", ") else ""
+                if (classDetail.isNotEmpty()) classDetail.joinToString(", ") else ""
             )
         val filePath = getFieldString("file path", path)
 
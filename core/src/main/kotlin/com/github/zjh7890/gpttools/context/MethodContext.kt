@@ -2,6 +2,7 @@ package com.github.zjh7890.gpttools.context
 
 import com.github.zjh7890.gpttools.context.base.NamedElementContext
 import com.github.zjh7890.gpttools.utils.isInProject
+import com.intellij.openapi.application.runReadAction
 import com.intellij.openapi.project.Project
 import com.intellij.psi.PsiElement
 import com.intellij.psi.PsiReference
@@ -19,57 +20,68 @@ class MethodContext(
     val usages: List<PsiReference> = emptyList(),
     private val fanInOut: List<PsiElement> = emptyList(),
 ) : NamedElementContext(root, text, name) {
-    private val classContext: ClassContext?
-    private val project: Project = root.project
-
-    init {
-        classContext = if (includeClassContext && enclosingClass != null) {
+    // 只有渲染时才需要，渲染结果缓存后不会再构建
+    private val classContext: ClassContext? by lazy {
+        if (includeClassContext && enclosingClass != null) {
             ClassContextProvider(false).from(enclosingClass)
         } else {
             null
         }
     }
+    private val project: Project = root.project
 
+    /**
+     * 有 usages 时结果依赖其他文件，按项目的 PSI 修改计数缓存，否则按所在文件的修改时间戳缓存。
+     * 同一个方法可能带着不同的 usages 渲染，缓存的 key 里包含每个 usage 的文件和位置
+     */
     override fun format(): String {
-        val usageString = usages.joinToString("\n") {
-            val classFile = it.element.containingFile
-            val useText = it.element.text
-            "${classFile.name} -> $useText"
-        }
-
-        var query = """
-            path: ${root.containingFile?.virtualFile?.path ?: "_"}
-            language: ${language ?: "_"}
-            fun name: ${name ?: "_"}
-            fun signature: ${signature ?: "_"}
-            """.trimIndent()
+        val kind = "method:class=${includeClassContext && enclosingClass != null}:usages=${usagesKey()}"
+        return ContextRenderCache.get(root, kind, crossFile = usages.isNotEmpty()) { render() }
+    }
 
-        if (usageString.isNotEmpty()) {
-            query += "\nusages: \n$usageString"
+    private fun usagesKey(): String {
+        if (usages.isEmpty()) return "0"
+        val locations = runReadAction {
+            usages.joinToString(";") {
+                val element = it.element
+                "${element.containingFile?.virtualFile?.path}:${element.textRange?.startOffset}:${it.rangeInElement}"
+            }
         }
+        return "${usages.size}:${locations.hashCode()}"
+    }
 
-        if (classContext != null) {
-            query += classContext.format()
+    private fun render(): String = buildString {
+        append("path: ").append(root.containingFile?.virtualFile?.path ?: "_")
+        append("\nlanguage: ").append(language ?: "_")
+        append("\nfun name: ").append(name ?: "_")
+        append("\nfun signature: ").append(signature ?: "_")
+
+        if (usages.isNotEmpty()) {
+            append("\nusages: \n")
+            usages.joinTo(this, "\n") {
+                val classFile = it.element.containingFile
+                val useText = it.element.text
+                "${classFile.name} -> $useText"
+            }
         }
 
-        return query
+        classContext?.let { append(it.format()) }
     }
 
     fun inputOutputString(): String {
         if (fanInOut.isEmpty()) return ""
 
-        var result = ""
+        val classContextProvider = ClassContextProvider(false)
+        val result = StringBuilder()
         this.fanInOut.forEach {
-            val context: ClassContext = ClassContextProvider(false).from(it)
+            val context: ClassContext = classContextProvider.from(it)
             val element = context.root
 
             if (!isInProject(element.containingFile?.virtualFile!!, project)) {
                 return@forEach
             }
 
-            context.let { classContext ->
-                result += "${classContext.format()}\n"
-            }
+            result.append(context.format()).append('\n')
         }
 
         if (result.isEmpty()) {
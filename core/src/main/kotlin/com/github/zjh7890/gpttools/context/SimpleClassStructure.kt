@@ -1,5 +1,7 @@
 package com.github.zjh7890.gpttools.context
 
+import com.intellij.psi.PsiClass
+
 data class SimpleClassStructure(
     var fieldName: String,
     var fieldType: String,
@@ -34,12 +36,8 @@ data class SimpleClassStructure(
      *}
      *```
      */
-    private fun classStructureToPlantUML(simpleClassStructure: SimpleClassStructure): String {
-        val children = simpleClassStructure.children.joinToString("\n") { "  ${it.fieldName}: ${it.fieldType}" }
-        return "class ${simpleClassStructure.fieldType} {\n" +
-                children +
-                "\n}\n"
-    }
+    private fun classStructureToPlantUML(simpleClassStructure: SimpleClassStructure): String =
+        classBlock(simpleClassStructure.fieldType, simpleClassStructure.children.map { it.fieldName to it.fieldType })
 
 
     /**
@@ -80,10 +78,45 @@ data class SimpleClassStructure(
         return puml.toString()
     }
 
+    /**
+     * 按层遍历，同一个类只定义一次：优先用展开了字段的那一处，与根节点同名的不再重复定义
+     */
     private fun createChildPuml(data: List<SimpleClassStructure>) {
-        data.filter { !it.builtIn }.forEach {
-            childPuml[it.fieldType] = classStructureToPlantUML(it)
-            createChildPuml(it.children)
+        val queue = ArrayDeque(data)
+        while (queue.isNotEmpty()) {
+            val node = queue.removeFirst()
+            if (node.builtIn || node.fieldType == fieldType) continue
+            if (node.children.isNotEmpty() || node.fieldType !in childPuml) {
+                childPuml[node.fieldType] = classStructureToPlantUML(node)
+            }
+            queue.addAll(node.children)
+        }
+    }
+
+    companion object {
+        /**
+         * 直接从 PsiClass 生成 PlantUML：按 [DataClassStructureExtractor] 的类型图输出，
+         * 多处引用、互相引用的类都只定义一次，展开的深度和类的数量受上限约束。需要在读操作中调用
+         *
+         * @param expand 是否定义并继续展开这个类，例如只展开项目中的类
+         */
+        fun plantUml(
+            root: PsiClass,
+            maxDepth: Int = DataClassStructureExtractor.DEFAULT_MAX_DEPTH,
+            maxTypes: Int = DataClassStructureExtractor.DEFAULT_MAX_TYPES,
+            expand: (PsiClass) -> Boolean
+        ): String {
+            return DataClassStructureExtractor.collect(root, maxDepth, maxTypes, expand).joinToString("\n") { psiClass ->
+                val shape = DataClassStructureExtractor.shapeOf(psiClass)
+                classBlock(shape.name, shape.fields.map { it.name to it.type })
+            }
+        }
+
+        private fun classBlock(name: String, fields: List<Pair<String, String>>): String {
+            val children = fields.joinToString("\n") { "  ${it.first}: ${it.second}" }
+            return "class $name {\n" +
+                    children +
+                    "\n}\n"
         }
     }
 }
\ No newline at end of file
@@ -17,16 +17,20 @@ class VariableContext(
 ) : NamedElementContext(
     root, text, name
 ) {
-    private val methodContext: MethodContext? = if (includeMethodContext && enclosingMethod != null) {
-        MethodContextProvider(false, false).from(enclosingMethod)
-    } else {
-        null
+    private val methodContext: MethodContext? by lazy {
+        if (includeMethodContext && enclosingMethod != null) {
+            MethodContextProvider(false, false).from(enclosingMethod)
+        } else {
+            null
+        }
     }
 
-    private val classContext: ClassContext? = if (includeClassContext && enclosingClass != null) {
-        ClassContextProvider(false).from(enclosingClass)
-    } else {
-        null
+    private val classContext: ClassContext? by lazy {
+        if (includeClassContext && enclosingClass != null) {
+            ClassContextProvider(false).from(enclosingClass)
+        } else {
+            null
+        }
     }
 
     fun shortFormat(): String = runReadAction {  root.text ?: ""}
@@ -5,6 +5,8 @@ import com.intellij.lang.Language
 import com.intellij.lang.LanguageExtension
 import com.intellij.openapi.diagnostic.logger
 import com.intellij.openapi.editor.Editor
+import com.intellij.openapi.progress.ProcessCanceledException
+import com.intellij.openapi.util.TextRange
 import com.intellij.psi.PsiElement
 
 interface PromptContextBuilder {
@@ -12,80 +14,141 @@ interface PromptContextBuilder {
 
     companion object {
         fun fillCommonField(psiElement: PsiElement?, editor: Editor, promptContext: PromptContext) {
-            // 获取编辑器的文档对象
+            // 获取编辑器的文档对象，取不可变快照，各字段用到时才从快照上截取，不会反复复制整个文档
             val document = editor.document
+            val text = document.immutableCharSequence
             // 获取当前光标位置
             val offset = editor.caretModel.offset
 
-            // 获取选中的文本
+            // 选中范围，文本用到时再取
             val selectionModel = editor.selectionModel
-            promptContext.selectedText = if (selectionModel.hasSelection())
-                selectionModel.selectedText!!
+            val selection = if (selectionModel.hasSelection())
+                TextRange(selectionModel.selectionStart, selectionModel.selectionEnd)
             else null
 
-            // 获取光标前后的文本
-            promptContext.textBeforeCursor = document.text.substring(0, offset)
-            promptContext.textAfterCursor = document.text.substring(offset)
-
-            // 获取整个文档的文本
-            promptContext.allText = document.text
-
-            // 获取光标所在的方法文本（如果psiElement是方法的话）
-            promptContext.methodText = psiElement?.text
-
-            // 获取光标前后50行的文本
+            // 光标前后50行的范围，只记录偏移量
             val currentLine = document.getLineNumber(offset)
             val startLine = maxOf(0, currentLine - 50)
             val endLine = minOf(document.lineCount - 1, currentLine + 50)
-
-            promptContext.text50LinesBeforeCaret =
-                document.getText(
-                    com.intellij.openapi.util.TextRange(
-                        document.getLineStartOffset(startLine),
-                        document.getLineEndOffset(currentLine)
-                    )
-                )
-
-            promptContext.text50LinesAfterCaret =
-                document.getText(
-                    com.intellij.openapi.util.TextRange(
-                        document.getLineStartOffset(currentLine),
-                        document.getLineEndOffset(endLine)
-                    )
-                )
+            val windowStart = document.getLineStartOffset(startLine)
+            val currentLineStart = document.getLineStartOffset(currentLine)
+            val currentLineEnd = document.getLineEndOffset(currentLine)
+            val windowEnd = document.getLineEndOffset(endLine)
+
+            promptContext.supplyCommonFields(
+                selectedText = { selection?.subSequence(text)?.toString() },
+                textBeforeCursor = { text.subSequence(0, offset).toString() },
+                textAfterCursor = { text.subSequence(offset, text.length).toString() },
+                allText = { text.toString() },
+                // 获取光标所在的方法文本（如果psiElement是方法的话）
+                methodText = { psiElement?.text },
+                text50LinesBeforeCaret = { text.subSequence(windowStart, currentLineEnd).toString() },
+                text50LinesAfterCaret = { text.subSequence(currentLineStart, windowEnd).toString() },
+            )
         }
     }
 }
 
-data class PromptContext(
+/**
+ * 模板变量。每个字段都是延迟计算的：只有模板引用到的字段才会计算，计算结果会缓存。
+ * 在创建它的线程（Action 所在的 EDT）上使用，不是线程安全的。
+ */
+class PromptContext(
+    methodInfo: () -> String? = { null },
+    simplifyClassText: () -> String? = { null },
+    methodName: () -> String? = { null },
+    completeSignature: () -> String? = { null },
+    className: () -> String? = { null },
+    methodText: () -> String? = { null },
+    classText: () -> String? = { null },
+) {
+    private val methodInfoField = LazyField(methodInfo)
+    private val simplifyClassTextField = LazyField(simplifyClassText)
+    private val methodNameField = LazyField(methodName)
+    private val completeSignatureField = LazyField(completeSignature)
+    private val classNameField = LazyField(className)
+    private val methodTextField = LazyField(methodText)
+    private val classTextField = LazyField(classText)
+    private val textBeforeCursorField = LazyField { null }
+    private val textAfterCursorField = LazyField { null }
+    private val allTextField = LazyField { null }
+    private val text50LinesBeforeCaretField = LazyField { null }
+    private val text50LinesAfterCaretField = LazyField { null }
+    private val selectedTextField = LazyField { null }
+
     @WrapBorder
-    var methodInfo: String? = null,
+    val methodInfo: String? get() = methodInfoField.get()
     @WrapBorder
-    var simplifyClassText: String? = null,
-    var methodName: String? = null,
+    val simplifyClassText: String? get() = simplifyClassTextField.get()
+    val methodName: String? get() = methodNameField.get()
     @WrapBorder
-    var completeSignature: String? = null,
-    var className: String? = null,
+    val completeSignature: String? get() = completeSignatureField.get()
+    val className: String? get() = classNameField.get()
     @WrapBorder
-    var methodText: String? = null,
+    val methodText: String? get() = methodTextField.get()
     @WrapBorder
-    val classText: String? = null,
+    val classText: String? get() = classTextField.get()
 
     @WrapBorder
-    var textBeforeCursor: String? = null,
+    val textBeforeCursor: String? get() = textBeforeCursorField.get()
     @WrapBorder
-    var textAfterCursor: String? = null,
+    val textAfterCursor: String? get() = textAfterCursorField.get()
     @WrapBorder
-    var allText: String? = null,
+    val allText: String? get() = allTextField.get()
     @WrapBorder
-    var text50LinesBeforeCaret: String? = null,
+    val text50LinesBeforeCaret: String? get() = text50LinesBeforeCaretField.get()
     @WrapBorder
-    var text50LinesAfterCaret: String? = null,
+    val text50LinesAfterCaret: String? get() = text50LinesAfterCaretField.get()
     @WrapBorder
-    var selectedText: String? = null,
-)
+    val selectedText: String? get() = selectedTextField.get()
+
+    internal fun supplyCommonFields(
+        selectedText: () -> String?,
+        textBeforeCursor: () -> String?,
+        textAfterCursor: () -> String?,
+        allText: () -> String?,
+        methodText: () -> String?,
+        text50LinesBeforeCaret: () -> String?,
+        text50LinesAfterCaret: () -> String?,
+    ) {
+        selectedTextField.reset(selectedText)
+        textBeforeCursorField.reset(textBeforeCursor)
+        textAfterCursorField.reset(textAfterCursor)
+        allTextField.reset(allText)
+        methodTextField.reset(methodText)
+        text50LinesBeforeCaretField.reset(text50LinesBeforeCaret)
+        text50LinesAfterCaretField.reset(text50LinesAfterCaret)
+    }
+
+    private class LazyField(private var supplier: () -> String?) {
+        private var computed = false
+        private var value: String? = null
+
+        fun reset(supplier: () -> String?) {
+            this.supplier = supplier
+            computed = false
+            value = null
+        }
+
+        fun get(): String? {
+            if (!computed) {
+                // 语言插件的取值逻辑出错时按缺失处理，由模板的缺失变量提示兜底
+                value = try {
+                    supplier()
+                } catch (e: ProcessCanceledException) {
+                    throw e
+                } catch (e: Exception) {
+                    logger<PromptContext>().warn("Error while computing prompt context field", e)
+                    null
+                }
+                computed = true
+            }
+            return value
+        }
+    }
+}
 
-@Target(AnnotationTarget.VALUE_PARAMETER) // 指定注解可以用在函数和类上
+@Target(AnnotationTarget.PROPERTY) // 标记需要用边框包裹的模板变量
 @Retention(AnnotationRetention.RUNTIME) // 指定注解在运行时可见
 annotation class WrapBorder(
 
@@ -5,8 +5,10 @@ import com.github.zjh7890.gpttools.toolWindow.treePanel.ClassDependencyInfo
 import com.github.zjh7890.gpttools.toolWindow.treePanel.MavenDependencyId
 import com.github.zjh7890.gpttools.utils.FileUtil
 import com.github.zjh7890.gpttools.utils.PsiUtils
+import com.intellij.openapi.application.runReadAction
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.project.ProjectManager
+import com.intellij.openapi.vfs.JarFileSystem
 import com.intellij.openapi.vfs.LocalFileSystem
 import com.intellij.openapi.vfs.VirtualFile
 import com.intellij.psi.*
@@ -55,7 +57,10 @@ data class AppFileTree(
         )
     }
 
-    fun addFile(file: VirtualFile, project: Project, whole: Boolean = false) {
+    /**
+     * @param psiClasses whole=true 时文件中的类；为 null 时在这里查找，批量导入时由后台预先分析好传入
+     */
+    fun addFile(file: VirtualFile, project: Project, whole: Boolean = false, psiClasses: Collection<PsiClass>? = null) {
         // 1. 找到或创建当前 Project 对应的 projectFileTree
         val pft = findOrCreateProjectFileTree(this, project)
 
@@ -71,12 +76,8 @@ data class AppFileTree(
 
             if (whole) {
                 // 如果 whole=true,就显式添加文件中的所有类
-                val psiFile = PsiManager.getInstance(project).findFile(file)
-                if (psiFile != null) {
-                    val allPsiClasses = PsiTreeUtil.findChildrenOfType(psiFile, PsiClass::class.java)
-                    for (cls in allPsiClasses) {
-                        addClass(cls, project, whole = true)
-                    }
+                for (cls in psiClasses ?: findAllClasses(file, project)) {
+                    addClass(cls, project, whole = true)
                 }
             }
         } else {
@@ -93,17 +94,18 @@ data class AppFileTree(
             val projFile = findOrCreateProjectFile(packageDep.files, file, project, isMaven = true, whole = whole)
 
             if (whole) {
-                val psiFile = PsiManager.getInstance(project).findFile(file)
-                if (psiFile != null) {
-                    val allPsiClasses = PsiTreeUtil.findChildrenOfType(psiFile, PsiClass::class.java)
-                    for (cls in allPsiClasses) {
-                        addClass(cls, project, whole = true)
-                    }
+                for (cls in psiClasses ?: findAllClasses(file, project)) {
+                    addClass(cls, project, whole = true)
                 }
             }
         }
     }
 
+    private fun findAllClasses(file: VirtualFile, project: Project): Collection<PsiClass> {
+        val psiFile = PsiManager.getInstance(project).findFile(file) ?: return emptyList()
+        return PsiTreeUtil.findChildrenOfType(psiFile, PsiClass::class.java)
+    }
+
     fun addClass(psiClass: PsiClass, project: Project, whole: Boolean = true) {
         // 1. 先保证所在文件已加入
         val containingFile = psiClass.containingFile?.virtualFile ?: return
@@ -141,13 +143,12 @@ data class AppFileTree(
 
         // 4. 找/建 对应的 ProjectClass,并设置 whole = 传入值
         val className = psiClass.name ?: return
-        val existingClass = projectFile.classes.find { it.className == className }
+        val existingClass = projectFile.findClass(psiClass)
         val projectClass = if (existingClass == null) {
             // 新建
             val newCls = ProjectClass(
                 className = className,
                 psiClass = psiClass,
-                methods = mutableListOf(),
                 whole = whole
             )
             projectFile.classes.add(newCls)
@@ -211,7 +212,7 @@ data class AppFileTree(
         val className = psiClass.name ?: return
 
         // 看当前 file 里是否已有这个类
-        val existingClass = projectFile.classes.find { it.className == className }
+        val existingClass = projectFile.findClass(psiClass)
         val projectClass = if (existingClass != null) {
             existingClass
         } else {
@@ -219,7 +220,6 @@ data class AppFileTree(
             val newCls = ProjectClass(
                 className = className,
                 psiClass = psiClass,
-                methods = mutableListOf(),
                 whole = false
             )
             projectFile.classes.add(newCls)
@@ -228,9 +228,7 @@ data class AppFileTree(
 
         // 6. 将该 psiMethod 加到 projectClass.methods
         val paramTypes = psiMethod.parameterList.parameters.map { it.type.canonicalText }
-        val existMethod = projectClass.methods.find {
-            it.methodName == psiMethod.name && it.parameterTypes == paramTypes
-        }
+        val existMethod = projectClass.methods.findByKey(methodKey(psiMethod.name, paramTypes))
         if (existMethod == null) {
             projectClass.methods.add(
                 ProjectMethod(
@@ -253,21 +251,21 @@ data class AppFileTree(
         if (!isExternal) {
             // 本地文件:直接按包组织
             val flattenedPath = getFlattenedLocalDirPath(file, project)
-            val packageDep = findOrCreatePackage(pft.localPackages, flattenedPath)
-            packageDep.files.removeAll { it.virtualFile == file }
+            val packageDep = pft.localPackages.findByKey(packageKey(flattenedPath)) ?: return
+            packageDep.files.findByKey(relativeFilePath(file, project, isMaven = false))?.let { packageDep.files.remove(it) }
             // 如果 packageDep.files 为空,也可以选择把整个 packageDep 移除
-            pft.localPackages.removeAll { it.files.isEmpty() }
+            if (packageDep.files.isEmpty()) {
+                pft.localPackages.remove(packageDep)
+            }
         } else {
             // 去 mavenDependencies 里找
             val mavenInfo = extractMavenInfo(file.path) ?: return
-            val mavenDep = pft.mavenDependencies.find {
-                it.groupId == mavenInfo.groupId &&
-                        it.artifactId == mavenInfo.artifactId &&
-                        it.version == mavenInfo.version
-            } ?: return
+            val mavenDep = pft.mavenDependencies.findByKey(
+                mavenKey(mavenInfo.groupId, mavenInfo.artifactId, mavenInfo.version)
+            ) ?: return
 
             mavenDep.packages.forEach { pkg ->
-                pkg.files.removeAll { it.virtualFile == file }
+                pkg.files.findByKey(relativeFilePath(file, project, isMaven = true))?.let { pkg.files.remove(it) }
             }
             mavenDep.packages.removeAll { it.files.isEmpty() }
             pft.mavenDependencies.removeAll { it.packages.isEmpty() }
@@ -275,7 +273,8 @@ data class AppFileTree(
     }
 
     fun removeClass(projectClass: ProjectClass, project: Project) {
-        val containingFile = projectClass.psiClass.containingFile?.virtualFile ?: return
+        val containingFile = projectClass.psiClass?.containingFile?.virtualFile
+            ?: return removeStaleNode { file -> file.classes.remove(projectClass) }
         val pft = findOrCreateProjectFileTree(this, project)
 
         val projectPath = project.basePath ?: ""
@@ -285,19 +284,17 @@ data class AppFileTree(
         val targetFile = if (!isExternal) {
             // 本地文件:直接按包组织
             val flattenedPath = getFlattenedLocalDirPath(containingFile, project)
-            val packageDep = findOrCreatePackage(pft.localPackages, flattenedPath)
-            packageDep.files.find { it.virtualFile == containingFile }
+            pft.localPackages.findByKey(packageKey(flattenedPath))
+                ?.files?.findByKey(relativeFilePath(containingFile, project, isMaven = false))
         } else {
             // Maven 外部依赖
             val mavenInfo = extractMavenInfo(containingFile.path) ?: return
-            val mavenDep = pft.mavenDependencies.find {
-                it.groupId == mavenInfo.groupId &&
-                        it.artifactId == mavenInfo.artifactId &&
-                        it.version == mavenInfo.version
-            } ?: return
+            val mavenDep = pft.mavenDependencies.findByKey(
+                mavenKey(mavenInfo.groupId, mavenInfo.artifactId, mavenInfo.version)
+            ) ?: return
             val flattenedPath = getFlattenedMavenDirPath(containingFile)
-            val packageDep = findOrCreatePackage(mavenDep.packages, flattenedPath)
-            packageDep.files.find { it.virtualFile == containingFile }
+            mavenDep.packages.findByKey(packageKey(flattenedPath))
+                ?.files?.findByKey(relativeFilePath(containingFile, project, isMaven = true))
         } ?: return
 
         // 如果文件是 whole,需要先降级为 partial,这样才能在其 classes 列表里找到并移除目标类
@@ -310,7 +307,7 @@ data class AppFileTree(
             val allPsiClasses = com.intellij.psi.util.PsiTreeUtil.findChildrenOfType(psiFile, com.intellij.psi.PsiClass::class.java)
 
             // 用 qualifiedName 来排除目标类,避免重名冲突
-            val removeQName = projectClass.psiClass.qualifiedName
+            val removeQName = projectClass.psiClass?.qualifiedName
             allPsiClasses.forEach { c ->
                 val cQName = c.qualifiedName
                 if (cQName == null || cQName != removeQName) {
@@ -319,7 +316,6 @@ data class AppFileTree(
                         ProjectClass(
                             className = c.name ?: "",
                             psiClass = c,
-                            methods = mutableListOf(),
                             whole = true
                         )
                     )
@@ -333,7 +329,9 @@ data class AppFileTree(
 
 
     fun removeMethod(projectMethod: ProjectMethod, project: Project) {
-        val containingFile = projectMethod.psiMethod.containingFile?.virtualFile ?: return
+        val psiMethod = projectMethod.psiMethod
+            ?: return removeStaleNode { file -> file.classes.any { it.methods.remove(projectMethod) } }
+        val containingFile = psiMethod.containingFile?.virtualFile ?: return
         val pft = AppFileTree.findOrCreateProjectFileTree(this, project)
 
         // 判断本地 / 外部
@@ -344,18 +342,16 @@ data class AppFileTree(
         val targetFile: ProjectFile? = if (!isExternal) {
             // 本地文件:直接按包组织
             val flattenedPath = getFlattenedLocalDirPath(containingFile, project)
-            val packageDep = findOrCreatePackage(pft.localPackages, flattenedPath)
-            packageDep.files.find { it.virtualFile == containingFile }
+            pft.localPackages.findByKey(packageKey(flattenedPath))
+                ?.files?.findByKey(relativeFilePath(containingFile, project, isMaven = false))
         } else {
             val mavenInfo = extractMavenInfo(containingFile.path) ?: return
-            val mavenDep = pft.mavenDependencies.find {
-                it.groupId == mavenInfo.groupId &&
-                        it.artifactId == mavenInfo.artifactId &&
-                        it.version == mavenInfo.version
-            } ?: return
+            val mavenDep = pft.mavenDependencies.findByKey(
+                mavenKey(mavenInfo.groupId, mavenInfo.artifactId, mavenInfo.version)
+            ) ?: return
             val flattenedPath = getFlattenedMavenDirPath(containingFile)
-            val packageDep = findOrCreatePackage(mavenDep.packages, flattenedPath)
-            packageDep.files.find { it.virtualFile == containingFile }
+            mavenDep.packages.findByKey(packageKey(flattenedPath))
+                ?.files?.findByKey(relativeFilePath(containingFile, project, isMaven = true))
         }
 
         if (targetFile == null) return
@@ -377,7 +373,6 @@ data class AppFileTree(
                         ProjectClass(
                             className = psiClass.name ?: "",
                             psiClass = psiClass,
-                            methods = mutableListOf(),
                             whole = true
                         )
                     )
@@ -386,9 +381,7 @@ data class AppFileTree(
         }
 
         // 现在 targetFile.classes 里有东西了,可以找到目标 class
-        val realClass = targetFile.classes.find {
-            it.psiClass == projectMethod.psiMethod.containingClass
-        }
+        val realClass = psiMethod.containingClass?.let { targetFile.findClass(it) }
         // 如果找不到,就可能是因为 class 也是 whole=true,需要再去做降级
         // 或者我们也可以直接找 qualifiedName 去匹配
         if (realClass == null) {
@@ -403,7 +396,7 @@ data class AppFileTree(
             realClass.whole = false
             realClass.methods.clear()
 
-            val allPsiMethods = realClass.psiClass.methods
+            val allPsiMethods = realClass.psiClass?.methods ?: emptyArray()
             val methodSignToRemove = projectMethod.methodName to projectMethod.parameterTypes
 
             allPsiMethods.forEach { m ->
@@ -426,6 +419,17 @@ data class AppFileTree(
     }
 
 
+    /**
+     * PSI 已失效（类或方法已被删除）的节点无法定位所在文件，遍历文件按引用摘除
+     */
+    private fun removeStaleNode(removeFrom: (ProjectFile) -> Boolean) {
+        projectFileTrees.forEach { pft ->
+            (pft.localPackages + pft.mavenDependencies.flatMap { it.packages }).forEach { pkg ->
+                if (pkg.files.any(removeFrom)) return
+            }
+        }
+    }
+
     /**
      * 轻量获取 moduleName:从 file 路径里截取项目路径后第一级目录名。
      * 如果需要更精细的逻辑,可自定义或复用 DependencyUtils 的类似实现。
@@ -455,11 +459,7 @@ data class AppFileTree(
                 val project = psiClass.project
 
                 val projectFileTree = projectFileTreeMap.getOrPut(project) {
-                    ProjectFileTree(
-                        project = project,
-                        localPackages = mutableListOf(),
-                        mavenDependencies = mutableListOf()
-                    )
+                    ProjectFileTree(project = project)
                 }
 
                 // 判断是否是外部依赖
@@ -561,26 +561,18 @@ data class AppFileTree(
             val existing = appFileTree.projectFileTrees.find { it.project == project }
             if (existing != null) return existing
 
-            val newPft = ProjectFileTree(
-                project = project,
-                localPackages = mutableListOf(),
-                mavenDependencies = mutableListOf()
-            )
+            val newPft = ProjectFileTree(project = project)
             appFileTree.projectFileTrees.add(newPft)
             return newPft
         }
 
         fun findOrCreateMavenDependency(
-            mavenDeps: MutableList<MavenDependency>,
+            mavenDeps: IndexedNodeList<String, MavenDependency>,
             groupId: String,
             artifactId: String,
             version: String
         ): MavenDependency {
-            mavenDeps.find {
-                it.groupId.equals(groupId, ignoreCase = true) &&
-                        it.artifactId.equals(artifactId, ignoreCase = true) &&
-                        it.version.equals(version, ignoreCase = true)
-            }?.let { return it }
+            mavenDeps.findByKey(mavenKey(groupId, artifactId, version))?.let { return it }
 
             val newDep = MavenDependency(groupId = groupId, artifactId = artifactId, version = version)
             // 构造比较字符串，例如 "com.example:my-lib:1.0.0"
@@ -595,11 +587,11 @@ data class AppFileTree(
         }
 
         fun findOrCreatePackage(
-            packages: MutableList<PackageDependency>,
+            packages: IndexedNodeList<String, PackageDependency>,
             packageName: String
         ): PackageDependency {
-            // 先尝试根据忽略大小写比较查找是否已存在该 package
-            packages.find { it.packageName.equals(packageName, ignoreCase = true) }?.let {
+            // 按忽略大小写的包名查索引
+            packages.findByKey(packageKey(packageName))?.let {
                 return it
             }
             val newPackage = PackageDependency(packageName)
@@ -611,37 +603,47 @@ data class AppFileTree(
         }
 
         fun findOrCreateProjectFile(
-            files: MutableList<ProjectFile>,
+            files: IndexedNodeList<String, ProjectFile>,
             vFile: VirtualFile,
             project: Project,
             isMaven: Boolean = false,
             whole: Boolean = false
         ): ProjectFile {
-            val basePath = project.basePath?.removeSuffix("/") ?: ""
-            val absolutePath = vFile.path
-            val relativePath = if (!isMaven) {
-                absolutePath.removePrefix(basePath).removePrefix("/")
-            } else {
-                absolutePath
-            }
-            files.find { it.filePath == relativePath }?.let { return it }
+            val relativePath = relativeFilePath(vFile, project, isMaven)
+            files.findByKey(relativePath)?.let { return it }
 
-            val psiFile = PsiManager.getInstance(project).findFile(vFile)
             val newFile = ProjectFile(
                 filePath = relativePath,
+                project = project,
+                ifMavenFile = isMaven,
                 virtualFile = vFile,
-                psiFile = psiFile,
-                classes = mutableListOf(),
                 whole = whole
             )
             // 按文件名（vFile.name）忽略大小写排序，使用二分查找确定插入位置
             val fileName = vFile.name
-            val index = files.binarySearch { it.virtualFile.name.compareTo(fileName, ignoreCase = true) }
+            val index = files.binarySearch { it.fileName.compareTo(fileName, ignoreCase = true) }
             val insertionIndex = if (index < 0) -index - 1 else index
             files.add(insertionIndex, newFile)
             return newFile
         }
 
+        /**
+         * 本地文件为相对项目根目录的路径，Maven 文件为绝对路径；同时也是 ProjectFile 的索引 key
+         */
+        fun relativeFilePath(vFile: VirtualFile, project: Project, isMaven: Boolean): String {
+            if (isMaven) return vFile.path
+            val basePath = project.basePath?.removeSuffix("/") ?: ""
+            return vFile.path.removePrefix(basePath).removePrefix("/")
+        }
+
+        fun packageKey(packageName: String): String = packageName.lowercase()
+
+        fun mavenKey(groupId: String, artifactId: String, version: String): String =
+            "$groupId:$artifactId:$version".lowercase()
+
+        fun methodKey(methodName: String, parameterTypes: List<String>): String =
+            "$methodName(${parameterTypes.joinToString(",")})"
+
         /**
          * 根据 dependencyInfo 里的 usedMethods，往一个 ProjectFile 里添加对应的 ProjectClass/ProjectMethod
          * 并判断是否为 whole
@@ -654,13 +656,16 @@ data class AppFileTree(
             val allMethods = psiClass.methods.filterNot { it.isConstructor }
             val usedMethods = dependencyInfo.usedMethods.filterNot { it.isConstructor }
 
-            val projectMethods = usedMethods.map { usedMethod ->
-                ProjectMethod(
-                    methodName = usedMethod.name,
-                    parameterTypes = usedMethod.parameterList.parameters.map { p -> p.type.canonicalText },
-                    psiMethod = usedMethod
+            val projectMethods = methodList()
+            usedMethods.forEach { usedMethod ->
+                projectMethods.add(
+                    ProjectMethod(
+                        methodName = usedMethod.name,
+                        parameterTypes = usedMethod.parameterList.parameters.map { p -> p.type.canonicalText },
+                        psiMethod = usedMethod
+                    )
                 )
-            }.toMutableList()
+            }
 
             val isWholeClass = allMethods.isNotEmpty() && allMethods.size == usedMethods.size
 
@@ -713,7 +718,8 @@ data class AppFileTree(
             projectFile: ProjectFile,
             project: Project
         ): String? {
-            val virtualFile = projectFile.virtualFile
+            // 渲染进 prompt 时才真正解析 PSI
+            val virtualFile = projectFile.virtualFile ?: return null
             val absolutePath = virtualFile.path
 
             val relativePath = calculateRelativePath(absolutePath, project, projectFile.ifMavenFile)
@@ -733,7 +739,7 @@ data class AppFileTree(
                 .filter { it.state != CheckState.UNSELECTED }
                 .forEach { projectClass ->
                     // 查找文件中的对应 PsiClass（如果是 whole，则匹配 qualifiedName，否则匹配类名）
-                    val foundPsiClass = projectClass.psiClass
+                    val foundPsiClass = projectClass.psiClass ?: return@forEach
                     // 否则只处理该类中状态为 SELECTED 的方法
                     projectClass.methods
                         .filter { it.state == CheckState.SELECTED }
@@ -794,8 +800,8 @@ data class SerializableAppFileTree(
     var state: CheckState = CheckState.SELECTED
 ) {
     /**
-     * 反序列化 -> 立即遍历所有文件/类/方法，找出对应 PSI 实例
-     * 使得后续使用时保证 psiClass / psiMethod 都不为空
+     * 反序列化只还原树结构，不做任何 PSI / VFS 查找；
+     * psiClass / psiMethod / virtualFile 在第一次访问时才解析
      */
     fun toAppFileTree(): AppFileTree {
         val realProjectFileTrees = projectTrees.map { it.toProjectFileTree() }.toMutableList()
@@ -805,8 +811,8 @@ data class SerializableAppFileTree(
 
 data class ProjectFileTree(
     val project: Project,
-    val localPackages: MutableList<PackageDependency> = mutableListOf(), // 替换原来的 modules
-    val mavenDependencies: MutableList<MavenDependency> = mutableListOf(),
+    val localPackages: IndexedNodeList<String, PackageDependency> = packageList(), // 替换原来的 modules
+    val mavenDependencies: IndexedNodeList<String, MavenDependency> = mavenDependencyList(),
     var state: CheckState = CheckState.SELECTED
 ) {
     fun toSerializable(): SerializableProjectFileTree {
@@ -833,8 +839,8 @@ data class SerializableProjectFileTree(
 
         return ProjectFileTree(
             project = project,
-            localPackages = localPackages.map { it.toPackageDependency(project) }.toMutableList(), // 修改这里
-            mavenDependencies = mavenDependencies.map { it.toMavenDependency(project) }.toMutableList(),
+            localPackages = localPackages.mapTo(packageList()) { it.toPackageDependency(project) }, // 修改这里
+            mavenDependencies = mavenDependencies.mapTo(mavenDependencyList()) { it.toMavenDependency(project) },
             state = state
         )
     }
@@ -843,7 +849,7 @@ data class SerializableProjectFileTree(
 // [Module Name]
 data class ModuleDependency(
     val moduleName: String,
-    val packages: MutableList<PackageDependency> = mutableListOf(),
+    val packages: IndexedNodeList<String, PackageDependency> = packageList(),
     var state: CheckState = CheckState.SELECTED         // 添加 selected 字段
 ) {
     fun toSerializable(): SerializableModuleDependency {
@@ -863,7 +869,7 @@ data class SerializableModuleDependency(
     fun toModuleDependency(project: Project): ModuleDependency {
         return ModuleDependency(
             moduleName = moduleName,
-            packages = packages.map { it.toPackageDependency(project) }.toMutableList()
+            packages = packages.mapTo(packageList()) { it.toPackageDependency(project) }
         )
     }
 }
@@ -873,7 +879,7 @@ data class MavenDependency(
     val groupId: String,
     val artifactId: String,
     val version: String,
-    val packages: MutableList<PackageDependency> = mutableListOf(),
+    val packages: IndexedNodeList<String, PackageDependency> = packageList(),
     var state: CheckState = CheckState.SELECTED         // 添加 selected 字段
 ) {
     fun toSerializable(): SerializableMavenDependency {
@@ -899,7 +905,7 @@ data class SerializableMavenDependency(
             groupId = groupId,
             artifactId = artifactId,
             version = version,
-            packages = packages.map { it.toPackageDependency(project) }.toMutableList()
+            packages = packages.mapTo(packageList()) { it.toPackageDependency(project) }
         )
     }
 }
@@ -907,7 +913,7 @@ data class SerializableMavenDependency(
 // [Package Name]
 data class PackageDependency(
     val packageName: String,
-    val files: MutableList<ProjectFile> = mutableListOf(),
+    val files: IndexedNodeList<String, ProjectFile> = fileList(),
     var state: CheckState = CheckState.SELECTED         // 添加 selected 字段
 ) {
     fun toSerializable(): SerializablePackageDependency {
@@ -927,7 +933,7 @@ data class SerializablePackageDependency(
     fun toPackageDependency(project: Project): PackageDependency {
         return PackageDependency(
             packageName = packageName,
-            files = files.map { it.toProjectFile(project) }.toMutableList()
+            files = files.mapTo(fileList()) { it.toProjectFile(project) }
         )
     }
 }
@@ -935,25 +941,80 @@ data class SerializablePackageDependency(
 // ----------------------------
 // “项目文件”
 // ----------------------------
-data class ProjectFile(
-    val filePath: String = "",            // 1. 相对项目根目录路径
-    val virtualFile: VirtualFile,
+/**
+ * 文件节点只保存路径，VirtualFile / PsiFile 在第一次访问时解析；
+ * 节点按引用比较，避免 equals/hashCode 递归遍历整棵子树
+ */
+class ProjectFile(
+    val filePath: String = "",            // 1. 相对项目根目录路径（Maven 文件为绝对路径）
+    val project: Project,
     val ifMavenFile: Boolean = false,
-    val psiFile: PsiFile?,
-    val classes: MutableList<ProjectClass> = mutableListOf(),
+    virtualFile: VirtualFile? = null,
+    val classes: IndexedNodeList<String, ProjectClass> = classList(),
     var whole: Boolean = false,
     var state: CheckState = CheckState.SELECTED         // 添加 selected 字段
 ) {
+    @Volatile
+    private var cachedVirtualFile: VirtualFile? = virtualFile
+
+    val fileName: String
+        get() = filePath.substringAfterLast('/')
+
+    val nameWithoutExtension: String
+        get() = fileName.substringBeforeLast('.')
+
+    /**
+     * 文件已被删除或 jar 已移除时为 null
+     */
+    val virtualFile: VirtualFile?
+        get() {
+            cachedVirtualFile?.takeIf { it.isValid }?.let { return it }
+            val resolved = when {
+                filePath.contains("!/") -> JarFileSystem.getInstance().findFileByPath(filePath.substringAfter("jar://"))
+                ifMavenFile -> LocalFileSystem.getInstance().findFileByPath(filePath)
+                else -> project.baseDir?.findFileByRelativePath(filePath)
+            }
+            cachedVirtualFile = resolved
+            return resolved
+        }
+
+    val psiFile: PsiFile?
+        get() {
+            val vFile = virtualFile ?: return null
+            return runReadAction { PsiManager.getInstance(project).findFile(vFile) }
+        }
+
     fun toSerializable(): SerializableProjectFile {
         return SerializableProjectFile(
             filePath = filePath,
+            ifMavenFile = ifMavenFile,
             classes = classes.map { it.toSerializable() },
-            whole = whole
+            whole = whole,
+            state = state
         )
     }
 
 
+    /**
+     * 按 PsiClass 查找：先用类名索引，同一文件中同名的嵌套类（如 A.Builder 与 B.Builder）再按 qualifiedName 区分
+     */
+    fun findClass(psiClass: PsiClass): ProjectClass? {
+        val name = runReadAction { psiClass.name } ?: return null
+        val qualifiedName = runReadAction { psiClass.qualifiedName }
+        fun matches(projectClass: ProjectClass): Boolean {
+            if (qualifiedName != null && projectClass.qualifiedName != null) return projectClass.qualifiedName == qualifiedName
+            val candidate = projectClass.psiClass ?: return false
+            return candidate == psiClass || (qualifiedName != null && runReadAction { candidate.qualifiedName } == qualifiedName)
+        }
+        classes.findByKey(name)?.takeIf { matches(it) }?.let { return it }
+        return classes.find { it.className == name && matches(it) }
+    }
+
     fun removeClasses(classesToRemove: List<ProjectClass>) {
+        // 用 qualifiedName 匹配，避免同一文件中同名的嵌套类被一起移除；没有 qualifiedName 的按节点本身匹配
+        val qualifiedNamesToRemove = runReadAction {
+            classesToRemove.mapNotNull { it.qualifiedName ?: it.psiClass?.qualifiedName }.toSet()
+        }
         if (whole) {
             // 如果当前 file 被标记为 whole，需要先降级为 partial
             whole = false
@@ -961,24 +1022,18 @@ data class ProjectFile(
 
             // 1. 获取当前文件里的所有 PsiClass
             psiFile?.let { psiF ->
-                val allPsiClasses = PsiTreeUtil.findChildrenOfType(psiF, PsiClass::class.java)
-
-                // 2. 为了避免单纯用 name() 引发重复名冲突，使用 qualifiedName 做对比
-                val qualifiedNamesToRemove = classesToRemove
-                    .mapNotNull { it.psiClass.qualifiedName }
-                    .toSet()
+                val allPsiClasses = runReadAction { PsiTreeUtil.findChildrenOfType(psiF, PsiClass::class.java) }
 
                 allPsiClasses.forEach { psiClass ->
-                    val psiQName = psiClass.qualifiedName
-                    val shouldKeep = psiQName == null || !qualifiedNamesToRemove.contains(psiQName)
-                    if (shouldKeep) {
+                    val (name, qualifiedName) = runReadAction { psiClass.name to psiClass.qualifiedName }
+                    if (name == null) return@forEach
+                    if (qualifiedName == null || !qualifiedNamesToRemove.contains(qualifiedName)) {
                         // 对于保留的类，这里依然默认它是 whole=true
                         // 表示"整个类"都用，不关心方法粒度
                         classes.add(
                             ProjectClass(
-                                className = psiClass.name ?: "",
+                                className = name,
                                 psiClass = psiClass,
-                                methods = mutableListOf(),
                                 whole = true
                             )
                         )
@@ -987,14 +1042,10 @@ data class ProjectFile(
             }
         } else {
             // 如果不是 whole，意味着我们已经在 classes 里记录了需要的类
-            // 这里直接根据 qualifiedName 来匹配移除
-            val qualifiedNamesToRemove = classesToRemove
-                .mapNotNull { it.psiClass.qualifiedName }
-                .toSet()
-
             classes.removeAll { projectClass ->
-                val qName = projectClass.psiClass.qualifiedName
-                qName != null && qualifiedNamesToRemove.contains(qName)
+                classesToRemove.any { it === projectClass } ||
+                        (projectClass.qualifiedName ?: runReadAction { projectClass.psiClass?.qualifiedName })
+                            ?.let { qualifiedNamesToRemove.contains(it) } == true
             }
         }
     }
@@ -1009,74 +1060,71 @@ data class SerializableProjectFile(
     var state: CheckState = CheckState.SELECTED
 ) {
     fun toProjectFile(project: Project): ProjectFile {
-        val vFile: VirtualFile
-        if (!ifMavenFile) {
-            vFile = project.baseDir.findFileByRelativePath(filePath)
-                ?: throw IllegalStateException("Cannot find filePath=$filePath in project=${project.name}")
-        } else {
-            vFile = LocalFileSystem.getInstance().findFileByPath(filePath)!!
-        }
-
-        val psiFile = PsiManager.getInstance(project).findFile(vFile)
-
-        val realClasses = // 只有当文件是 Java/Kotlin/Scala 等支持类的文件时才处理类
-            when {
-                psiFile is PsiJavaFile ||
-                        psiFile?.fileType?.name?.contains("KOTLIN") == true ||
-                        psiFile?.fileType?.name?.contains("SCALA") == true -> {
-                    classes?.map { it.toProjectClass(psiFile) }?.toMutableList() ?: mutableListOf()
-                }
-                else -> mutableListOf()
-            }
-
-        return ProjectFile(
+        val projectFile = ProjectFile(
             filePath = filePath,
-            virtualFile = vFile,
-            psiFile = psiFile,  // 这里可以为 null
-            classes = realClasses,
-            whole = whole
+            project = project,
+            ifMavenFile = ifMavenFile,
+            whole = whole,
+            state = state
         )
+        classes?.mapTo(projectFile.classes) { it.toProjectClass(projectFile) }
+        return projectFile
     }
 }
 
 // ----------------------------
 // “项目类”
 // ----------------------------
-data class ProjectClass(
+class ProjectClass(
     val className: String,
-    val psiClass: PsiClass,               // 现在保证不能为空
-    val isAtomicClass: Boolean = PsiUtils.isAtomicClass(psiClass),
-    val methods: MutableList<ProjectMethod>,
+    private val ref: LazyPsiRef<PsiClass>,
+    val methods: IndexedNodeList<String, ProjectMethod> = methodList(),
     var whole: Boolean,
-    var state: CheckState = CheckState.SELECTED         // 添加 selected 字段
+    var state: CheckState = CheckState.SELECTED,        // 添加 selected 字段
+    /** 添加时记下，区分同一文件中的同名嵌套类，不需要解析 PSI；旧版本保存的会话中没有 */
+    val qualifiedName: String? = null
 ) {
+    constructor(
+        className: String,
+        psiClass: PsiClass,
+        methods: IndexedNodeList<String, ProjectMethod> = methodList(),
+        whole: Boolean,
+        state: CheckState = CheckState.SELECTED
+    ) : this(className, LazyPsiRef(psiClass), methods, whole, state, runReadAction { psiClass.qualifiedName })
+
+    /**
+     * 类已被删除或改名时为 null
+     */
+    val psiClass: PsiClass?
+        get() = ref.element
+
+    val isAtomicClass: Boolean by lazy {
+        psiClass?.let { runReadAction { PsiUtils.isAtomicClass(it) } } ?: false
+    }
+
     fun toSerializable(): SerializableProjectClass {
         return SerializableProjectClass(
             className = className,
             methods = methods.map { it.toSerializable() },
             whole = whole,
-            state = state           // 传递 selected 值
+            state = state,          // 传递 selected 值
+            qualifiedName = qualifiedName
         )
     }
 
     fun removeMethods(methodsToRemove: List<ProjectMethod>) {
+        // 映射出要移除的方法签名
+        val toRemoveSignatures = methodsToRemove.map { it.key }.toSet()
         if (whole) {
             // 若当前 class 标记为 whole，需要先降级为 partial
             whole = false
             methods.clear()
 
             // 把类中的所有方法枚举出来
-            val allPsiMethods = psiClass.methods
-            // 映射出要移除的方法签名
-            val toRemoveSignatures = methodsToRemove.map { removed ->
-                removed.methodName to removed.parameterTypes
-            }.toSet()
-
+            val allPsiMethods = psiClass?.let { runReadAction { it.methods } } ?: emptyArray()
             allPsiMethods.forEach { m ->
-                val mParamTypes = m.parameterList.parameters.map { it.type.canonicalText }
-                val signature = m.name to mParamTypes
-                val shouldKeep = !toRemoveSignatures.contains(signature)
-                if (shouldKeep) {
+                val mParamTypes = runReadAction { m.parameterList.parameters.map { it.type.canonicalText } }
+                if (!toRemoveSignatures.contains(AppFileTree.methodKey(m.name, mParamTypes))) {
                     methods.add(
                         ProjectMethod(
                             methodName = m.name,
@@ -1088,12 +1136,7 @@ data class ProjectClass(
             }
         } else {
             // 如果不是 whole，直接从 methods 中移除匹配的
-            val toRemoveSignatures = methodsToRemove.map { it.methodName to it.parameterTypes }.toSet()
-
-            methods.removeAll { pm ->
-                val signature = pm.methodName to pm.parameterTypes
-                toRemoveSignatures.contains(signature)
-            }
+            methods.removeAll { toRemoveSignatures.contains(it.key) }
         }
     }
 }
@@ -1103,41 +1146,54 @@ data class SerializableProjectClass(
     val className: String = "",
     val methods: List<SerializableProjectMethod> = emptyList(),
     val whole: Boolean = false,
-    var state: CheckState = CheckState.SELECTED
+    var state: CheckState = CheckState.SELECTED,
+    val qualifiedName: String? = null
 ) {
-    fun toProjectClass(psiFile: PsiFile): ProjectClass {
-        // 在 psiFile 里查找同名的 PsiClass
-        val foundPsiClass = PsiTreeUtil.findChildrenOfType(psiFile, PsiClass::class.java)
-            .find { it.name == className }
-            ?: throw IllegalStateException("Cannot find class=$className in file=${psiFile.name}")
-
-        // 如果标记了 whole，就返回空的方法列表
-        val realMethods = if (whole) {
-            mutableListOf()
-        } else {
-            // 否则只转换指定的方法
-            methods.map { it.toProjectMethod(foundPsiClass) }.toMutableList()
-        }
-
-        return ProjectClass(
+    fun toProjectClass(projectFile: ProjectFile): ProjectClass {
+        // 第一次访问时才在文件里查找 PsiClass，有 qualifiedName 时按它匹配，否则按类名
+        val projectClass = ProjectClass(
             className = className,
-            psiClass = foundPsiClass,
-            methods = realMethods,
+            ref = LazyPsiRef {
+                projectFile.psiFile?.let { psiFile ->
+                    PsiTreeUtil.findChildrenOfType(psiFile, PsiClass::class.java).find {
+                        if (qualifiedName != null) it.qualifiedName == qualifiedName else it.name == className
+                    }
+                }
+            },
             whole = whole,
-            state = state           // 传递 selected 值
+            state = state,          // 传递 selected 值
+            qualifiedName = qualifiedName
         )
+        methods.mapTo(projectClass.methods) { it.toProjectMethod(projectClass) }
+        return projectClass
     }
 }
 
 // ----------------------------
 // “项目方法”
 // ----------------------------
-data class ProjectMethod(
+class ProjectMethod(
     val methodName: String,
     val parameterTypes: List<String> = emptyList(),
-    val psiMethod: PsiMethod,            // 现在保证不能为空
+    private val ref: LazyPsiRef<PsiMethod>,
     var state: CheckState = CheckState.SELECTED        // 添加 selected 字段
 ) {
+    constructor(
+        methodName: String,
+        parameterTypes: List<String> = emptyList(),
+        psiMethod: PsiMethod,
+        state: CheckState = CheckState.SELECTED
+    ) : this(methodName, parameterTypes, LazyPsiRef(psiMethod), state)
+
+    /**
+     * 方法已被删除或签名变化时为 null
+     */
+    val psiMethod: PsiMethod?
+        get() = ref.element
+
+    val key: String
+        get() = AppFileTree.methodKey(methodName, parameterTypes)
+
     fun toSerializable(): SerializableProjectMethod {
         return SerializableProjectMethod(
             methodName = methodName,
@@ -1154,22 +1210,97 @@ data class SerializableProjectMethod(
     var state: CheckState = CheckState.SELECTED
 ) {
     /**
-     * 反序列化：在给定的 PsiClass 中找对应的方法
-     * 如果找不到就抛异常，保证 psiMethod 不为空
+     * 反序列化：第一次访问 psiMethod 时才在所属类中按签名查找
      */
-    fun toProjectMethod(psiClass: PsiClass): ProjectMethod {
-        val foundPsiMethod = psiClass.methods.find { method ->
-            method.name == methodName &&
-                    method.parameterList.parameters.map { p -> p.type.canonicalText } == parameterTypes
-        } ?: throw IllegalStateException(
-            "Cannot find method=$methodName(param=$parameterTypes) in class=${psiClass.name}"
-        )
-
+    fun toProjectMethod(projectClass: ProjectClass): ProjectMethod {
         return ProjectMethod(
             methodName = methodName,
             parameterTypes = parameterTypes,
-            psiMethod = foundPsiMethod,
+            ref = LazyPsiRef {
+                projectClass.psiClass?.methods?.find { method ->
+                    method.name == methodName &&
+                            method.parameterList.parameters.map { p -> p.type.canonicalText } == parameterTypes
+                }
+            },
             state = state           // 传递 selected 值
         )
     }
 }
+
+/**
+ * 懒解析的 PSI 引用：持有 SmartPsiElementPointer，不直接持有 PSI；
+ * 反序列化出来的节点在第一次访问时通过 resolver 查找，找到后同样转成 pointer
+ */
+class LazyPsiRef<T : PsiElement>(private val resolver: (() -> T?)?) {
+    @Volatile
+    private var pointer: SmartPsiElementPointer<T>? = null
+
+    constructor(element: T) : this(null) {
+        pointer = SmartPointerManager.createPointer(element)
+    }
+
+    val element: T?
+        get() = runReadAction {
+            pointer?.element ?: resolver?.invoke()?.also { pointer = SmartPointerManager.createPointer(it) }
+        }
+}
+
+/**
+ * 保持插入顺序的列表，同时维护 key -> 节点 的哈希索引，查找从 O(n) 变为 O(1)
+ */
+class IndexedNodeList<K, V>(private val keyOf: (V) -> K) : AbstractMutableList<V>() {
+    private val items = ArrayList<V>()
+    private val index = HashMap<K, V>()
+
+    fun findByKey(key: K): V? = index[key]
+
+    override val size: Int
+        get() = items.size
+
+    override fun get(index: Int): V = items[index]
+
+    override fun add(index: Int, element: V) {
+        items.add(index, element)
+        this.index[keyOf(element)] = element
+    }
+
+    override fun removeAt(index: Int): V {
+        val removed = items.removeAt(index)
+        unindex(removed)
+        return removed
+    }
+
+    override fun set(index: Int, element: V): V {
+        val old = items.set(index, element)
+        unindex(old)
+        this.index[keyOf(element)] = element
+        return old
+    }
+
+    override fun clear() {
+        items.clear()
+        index.clear()
+    }
+
+    private fun unindex(element: V) {
+        val key = keyOf(element)
+        // 同 key 下已经是别的节点时不能删
+        if (index[key] === element) {
+            index.remove(key)
+            // 还有同 key 的节点时重新索引，与 add 一致，最后一个生效
+            items.lastOrNull { keyOf(it) == key }?.let { index[key] = it }
+        }
+    }
+}
+
+fun packageList() = IndexedNodeList<String, PackageDependency> { AppFileTree.packageKey(it.packageName) }
+
+fun mavenDependencyList() = IndexedNodeList<String, MavenDependency> {
+    AppFileTree.mavenKey(it.groupId, it.artifactId, it.version)
+}
+
+fun fileList() = IndexedNodeList<String, ProjectFile> { it.filePath }
+
+fun classList() = IndexedNodeList<String, ProjectClass> { it.className }
+
+fun methodList() = IndexedNodeList<String, ProjectMethod> { it.key }
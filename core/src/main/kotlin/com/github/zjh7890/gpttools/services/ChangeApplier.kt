@@ -0,0 +1,301 @@
+package com.github.zjh7890.gpttools.services
+
+import CodeChangeFile
+import FileChangeItem
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.application.runReadAction
+import com.intellij.openapi.command.WriteCommandAction
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.diagnostic.logger
+import com.intellij.openapi.editor.Document
+import com.intellij.openapi.fileEditor.FileDocumentManager
+import com.intellij.openapi.progress.ProgressIndicator
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.vfs.LocalFileSystem
+import com.intellij.openapi.vfs.VfsUtil
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.psi.search.FilenameIndex
+import com.intellij.psi.search.GlobalSearchScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import org.apache.commons.text.similarity.LevenshteinDistance
+import java.io.IOException
+import kotlin.math.abs
+
+/**
+ * 批量应用模型给出的文件变更：
+ * 1. [prepare] 在后台线程执行：通过文件名索引定位目标文件，按路径后缀匹配；并发计算每个文件的新内容，所有问题一次性收集
+ * 2. [apply] 在 EDT 执行：确认文件在计算之后没有被修改，所有修改放在同一个 WriteCommandAction 里，可以一次撤销
+ */
+@Service(Service.Level.PROJECT)
+class ChangeApplier(private val project: Project) {
+    private val logger = logger<ChangeApplier>()
+
+    /**
+     * @param document 计算新内容时的文档，CREATE 时为 null
+     * @param stamp 计算新内容时文档的修改时间戳
+     * @param newText 新内容，DELETE 时为 null
+     */
+    class PlannedChange(
+        val change: CodeChangeFile,
+        val file: VirtualFile?,
+        val document: Document?,
+        val stamp: Long,
+        val newText: String?,
+        val problems: List<String>
+    )
+
+    class ChangePlan(val changes: List<PlannedChange>) {
+        val problems: List<String> get() = changes.flatMap { it.problems }
+        val isValid: Boolean get() = problems.isEmpty()
+    }
+
+    /**
+     * 查找变更对应的文件：先按项目根目录下的相对路径查找，找不到时用文件名索引，优先保留路径后缀一致的文件
+     */
+    fun findFiles(change: CodeChangeFile): List<VirtualFile> = runReadAction {
+        val relativePath = change.path.trim().removePrefix("./").trimStart('/')
+        val exact = project.basePath?.let { LocalFileSystem.getInstance().findFileByPath("$it/$relativePath") }
+        if (exact != null && !exact.isDirectory) {
+            listOf(exact)
+        } else {
+            val candidates = FilenameIndex.getVirtualFilesByName(change.filename, GlobalSearchScope.projectScope(project))
+            val suffix = "/$relativePath"
+            candidates.filter { it.path.endsWith(suffix) }.ifEmpty { candidates.toList() }.sortedBy { it.path }
+        }
+    }
+
+    /**
+     * 在后台线程调用，有限并发地计算每个变更的结果
+     */
+    fun prepare(changes: List<CodeChangeFile>, indicator: ProgressIndicator? = null): ChangePlan {
+        val semaphore = Semaphore(PARALLELISM)
+        val planned = runBlocking {
+            changes.map { change ->
+                async(Dispatchers.Default) {
+                    semaphore.withPermit {
+                        indicator?.checkCanceled()
+                        plan(change)
+                    }
+                }
+            }.awaitAll()
+        }
+        return ChangePlan(markDuplicateTargets(planned))
+    }
+
+    private fun plan(change: CodeChangeFile): PlannedChange {
+        if (change.changeType == "CREATE") {
+            val existing = project.basePath?.let { LocalFileSystem.getInstance().findFileByPath("$it/${change.path}") }
+            val problems = if (existing != null) listOf("File already exists: ${change.path}") else emptyList()
+            return PlannedChange(change, null, null, 0, change.changeItems.firstOrNull()?.updatedChunk ?: "", problems)
+        }
+        if (change.changeType !in setOf("MODIFY", "REWRITE", "DELETE")) {
+            return failed(change, "Unknown change type ${change.changeType}: ${change.path}")
+        }
+
+        val files = findFiles(change)
+        val file = when (files.size) {
+            0 -> return failed(change, "Original file not found: ${change.path}")
+            1 -> files[0]
+            else -> return failed(change, "Multiple files match ${change.path}: ${files.joinToString { it.path }}")
+        }
+        val (document, stamp, text) = runReadAction {
+            val document = FileDocumentManager.getInstance().getDocument(file)
+            Triple(document, document?.modificationStamp ?: 0L, document?.immutableCharSequence?.toString())
+        }
+        if (document == null || text == null) {
+            return failed(change, "Cannot open file as text: ${file.path}")
+        }
+
+        return when (change.changeType) {
+            "DELETE" -> PlannedChange(change, file, document, stamp, null, emptyList())
+            "REWRITE" -> PlannedChange(change, file, document, stamp, change.changeItems.firstOrNull()?.updatedChunk ?: "", emptyList())
+            else -> {
+                // 文本匹配比较耗时，不占用读锁
+                val update = computeUpdate(text, change.changeItems)
+                val problems = if (update.unmatched > 0) {
+                    listOf("${update.unmatched} of ${change.changeItems.size} chunks not found in ${change.path}")
+                } else {
+                    emptyList()
+                }
+                PlannedChange(change, file, document, stamp, update.text, problems)
+            }
+        }
+    }
+
+    private fun failed(change: CodeChangeFile, problem: String) =
+        PlannedChange(change, null, null, 0, null, listOf(problem))
+
+    private fun markDuplicateTargets(planned: List<PlannedChange>): List<PlannedChange> {
+        val duplicates = planned.mapNotNull { it.file }.groupingBy { it }.eachCount().filterValues { it > 1 }.keys
+        if (duplicates.isEmpty()) return planned
+        return planned.map {
+            if (it.file in duplicates) {
+                PlannedChange(it.change, it.file, it.document, it.stamp, it.newText,
+                    it.problems + "Multiple changes target the same file: ${it.file!!.path}")
+            } else {
+                it
+            }
+        }
+    }
+
+    /**
+     * 在 EDT 调用，所有变更作为一次命令执行
+     * @return 没有应用时的原因，成功时为空
+     */
+    fun apply(plan: ChangePlan): List<String> {
+        ApplicationManager.getApplication().assertIsDispatchThread()
+        if (!plan.isValid) return plan.problems
+
+        // 计算之后文件又被修改过时放弃，避免覆盖用户的编辑
+        val stale = plan.changes.filter { it.document != null && it.document.modificationStamp != it.stamp }
+        if (stale.isNotEmpty()) {
+            return stale.map { "File changed since the changes were prepared: ${it.change.path}" }
+        }
+
+        try {
+            WriteCommandAction.writeCommandAction(project)
+                .withName("Apply ${plan.changes.size} File Changes")
+                .run<IOException> {
+                    plan.changes.forEach { applyChange(it) }
+                }
+        } catch (e: IOException) {
+            logger.warn("Failed to apply changes", e)
+            return listOf("Failed to apply changes: ${e.message}")
+        }
+        plan.changes.forEach { it.change.isMerged = true }
+        return emptyList()
+    }
+
+    private fun applyChange(planned: PlannedChange) {
+        when (planned.change.changeType) {
+            "CREATE" -> createFile(planned.change.path, planned.newText ?: "")
+            "MODIFY", "REWRITE" -> planned.document!!.setText(planned.newText ?: "")
+            "DELETE" -> planned.file!!.delete(this)
+        }
+    }
+
+    /**
+     * 在写操作中调用，父目录不存在时一并创建。内容通过文档写入，可以撤销
+     */
+    @Throws(IOException::class)
+    fun createFile(relativePath: String, text: String): VirtualFile {
+        val basePath = project.basePath ?: throw IOException("Project base path is null.")
+        val fullPath = "$basePath/${relativePath.trimStart('/')}"
+        val parent = VfsUtil.createDirectoryIfMissing(fullPath.substringBeforeLast('/'))
+            ?: throw IOException("Cannot create directory for $relativePath")
+        val file = parent.createChildData(this, fullPath.substringAfterLast('/'))
+        val document = FileDocumentManager.getInstance().getDocument(file)
+        if (document != null) document.setText(text) else VfsUtil.saveText(file, text)
+        return file
+    }
+
+    private class ContentUpdate(val text: String, val unmatched: Int)
+
+    companion object {
+        private const val PARALLELISM = 4
+
+        /** 允许的编辑距离占原始块（去掉空白后）长度的比例 */
+        const val MAX_DISTANCE_RATIO = 0.2
+        private val WHITESPACE = "\\s".toRegex()
+
+        @JvmStatic
+        fun getInstance(project: Project): ChangeApplier = project.getService(ChangeApplier::class.java)
+
+        /**
+         * 依次把每个 originalChunk 最相似的块替换成 updatedChunk，差异过大的跳过
+         */
+        fun updatedContent(text: String, changeItems: List<FileChangeItem>): String = computeUpdate(text, changeItems).text
+
+        private fun computeUpdate(text: String, changeItems: List<FileChangeItem>): ContentUpdate {
+            var updatedText = text
+            var unmatched = 0
+            val levenshteinDistance = LevenshteinDistance()
+
+            changeItems.forEach { changeItem ->
+                // Find the best match for the original text in the current file content using Levenshtein distance
+                val match = findBestMatch(updatedText, changeItem.originalChunk, levenshteinDistance)
+
+                if (match != null) {
+                    // 按匹配到的位置替换，不会误替换前面相同的文本；保留首行缩进和末尾的空白
+                    val block = updatedText.substring(match.startOffset, match.endOffset)
+                    val start = match.startOffset + (block.length - block.trimStart().length)
+                    val end = match.endOffset - (block.length - block.trimEnd().length)
+                    updatedText = if (start < end) {
+                        updatedText.substring(0, start) + changeItem.updatedChunk.trim() + updatedText.substring(end)
+                    } else {
+                        updatedText.substring(0, match.startOffset) + changeItem.updatedChunk.trim() + updatedText.substring(match.endOffset)
+                    }
+                } else {
+                    unmatched++
+                }
+            }
+
+            return ContentUpdate(updatedText, unmatched)
+        }
+
+        /**
+         * @param startOffset 匹配块第一行的开头
+         * @param endOffset 匹配块最后一行的结尾，不含换行
+         * @param distance 去掉空白后的编辑距离
+         */
+        class BlockMatch(val startOffset: Int, val endOffset: Int, val distance: Int)
+
+        /**
+         * 基于行分块并忽略空格进行匹配，去掉空白后的编辑距离超过原始块长度的 [MAX_DISTANCE_RATIO] 时视为没有匹配
+         *
+         * @param text 待搜索的文本
+         * @param original 原始块，需要在 text 中找到最相似的块
+         * @param levenshteinDistance Levenshtein 距离计算器
+         * @return 最佳匹配的块，若无匹配则返回 null
+         */
+        fun findBestMatch(text: String, original: String, levenshteinDistance: LevenshteinDistance): BlockMatch? {
+            // 将文本和原始块按行分割，记录每行在文本中的起始位置
+            val textLines = text.split('\n')
+            val lineStarts = IntArray(textLines.size)
+            for (i in 1 until textLines.size) {
+                lineStarts[i] = lineStarts[i - 1] + textLines[i - 1].length + 1
+            }
+            val originalLines = original.lines()
+            val blockSize = originalLines.size  // 使用与 original 块相同的行数进行分块
+            if (textLines.size < blockSize) return null
+
+            // 预处理：去除每行的所有空格
+            val normalizedTextLines = textLines.map { it.replace(WHITESPACE, "") }
+            val normalizedOriginal = originalLines.joinToString("\n") { it.replace(WHITESPACE, "") }
+            val maxDistance = (normalizedOriginal.length * MAX_DISTANCE_RATIO).toInt()
+
+            fun blockMatch(index: Int, distance: Int): BlockMatch {
+                val last = index + blockSize - 1
+                return BlockMatch(lineStarts[index], lineStarts[last] + textLines[last].length, distance)
+            }
+
+            // 优先使用去掉空格后完全一致的第一个块
+            for (i in 0..(normalizedTextLines.size - blockSize)) {
+                if (normalizedTextLines.subList(i, i + blockSize).joinToString("\n") == normalizedOriginal) {
+                    return blockMatch(i, 0)
+                }
+            }
+
+            // 如果没有找到完全一致的块，退回到滑动窗口
+            var minDistance = Int.MAX_VALUE
+            var bestIndex = -1
+            for (i in 0..(textLines.size - blockSize)) {
+                val normalizedBlock = normalizedTextLines.subList(i, i + blockSize).joinToString("\n")
+                // 编辑距离不小于长度差，超过阈值的不用计算
+                if (abs(normalizedBlock.length - normalizedOriginal.length) > maxDistance) continue
+                val distance = levenshteinDistance.apply(normalizedBlock, normalizedOriginal)
+                if (distance < minDistance) {
+                    minDistance = distance
+                    bestIndex = i
+                }
+            }
+
+            return if (bestIndex >= 0 && minDistance <= maxDistance) blockMatch(bestIndex, minDistance) else null
+        }
+    }
+}
@@ -10,6 +10,7 @@ import com.github.zjh7890.gpttools.toolWindow.chat.AutoDevInputTrigger
 import com.github.zjh7890.gpttools.toolWindow.chat.ChatRole
 import com.github.zjh7890.gpttools.toolWindow.llmChat.ChatPanel
 import com.github.zjh7890.gpttools.toolWindow.treePanel.DependenciesTreePanel
+import com.github.zjh7890.gpttools.toolWindow.treePanel.DependencyTreeSnapshot
 import com.github.zjh7890.gpttools.utils.*
 import com.intellij.openapi.Disposable
 import com.intellij.openapi.application.ApplicationManager
@@ -43,7 +44,9 @@ class ChatCodingService(val project: Project) : Disposable {
     ) {
         val session = sessionManager.getCurrentSession()
         currentJob?.cancel()
-        val projectStructure = DirectoryUtil.getDirectoryContents(project)
+
+        // 在调用线程上取文件树快照，Markdown 在后台渲染
+        val fileTreeSnapshot = DependenciesTreePanel.snapshot(session.appFileTree)
 
         var message = editingMessage
         if (editingMessage == null) {
@@ -54,7 +57,7 @@ class ChatCodingService(val project: Project) : Disposable {
         }
 
         if (trigger == AutoDevInputTrigger.CopyPrompt) {
-            addContextToMessages(message!!, project)
+            addContextToMessages(message!!, project, fileTreeSnapshot)
             val chatHistory = sessionManager.exportChatHistory(false)
             ClipboardUtils.copyToClipboard(chatHistory)
             return
@@ -64,9 +67,10 @@ class ChatCodingService(val project: Project) : Disposable {
         messageView.scrollToBottom()
 
         ApplicationManager.getApplication().executeOnPooledThread {
-            addContextToMessages(message!!, project)
+            addContextToMessages(message!!, project, fileTreeSnapshot)
             val messages: MutableList<ChatMessage> = session.transformMessages()
-            sessionManager.saveSessions()
+            // 发送期间可能已切换会话，按发送时的会话更新索引
+            sessionManager.saveSessions(listOf(session))
             ui.progressBar.isVisible = true
             ui.progressBar.isIndeterminate = true  // 设置为不确定状态
             ui.updateUI()
@@ -94,12 +98,14 @@ class ChatCodingService(val project: Project) : Disposable {
                 ui.progressBar.isVisible = false
                 ui.updateUI()
 
-                sessionManager.appendLocalMessage(ChatRole.assistant, text)
-                sessionManager.saveSessions()
+                val assistantMessage = sessionManager.appendLocalMessage(ChatRole.assistant, text)
+                ui.bindMessage(messageView, assistantMessage)
+                sessionManager.saveSessions(listOf(session))
 
                 // 只在没有错误时执行 GenerateDiffAgent
                 if (!hasError && withDiff) {
                     ApplicationManager.getApplication().executeOnPooledThread {
+                        val projectStructure = DirectoryUtil.getDirectoryContents(project)
                         GenerateDiffAgent.apply(project, llmConfig, projectStructure, text, session, ui)
                     }
                 }
@@ -110,13 +116,12 @@ class ChatCodingService(val project: Project) : Disposable {
     /**
      * 为消息添加上下文信息，包括文件内容和项目目录结构
      */
-    private fun addContextToMessages(message: ChatContextMessage, project: Project) {
+    private fun addContextToMessages(message: ChatContextMessage, project: Project, fileTreeSnapshot: DependencyTreeSnapshot) {
         val contextBuilder = StringBuilder()
 
-        if (CommonSettings.getInstance().withFiles && sessionManager.getCurrentSession().appFileTree.projectFileTrees.isNotEmpty()) {
+        if (CommonSettings.getInstance().withFiles && fileTreeSnapshot.children.isNotEmpty()) {
             contextBuilder.append("相关的项目文件树：\n")
-            val structureStr =
-                DependenciesTreePanel.toMarkdownString(sessionManager.getCurrentSession().appFileTree)
+            val structureStr = fileTreeSnapshot.toMarkdown()
             contextBuilder.append(FileUtil.wrapBorder(structureStr))
             contextBuilder.append("\n\n")
 
@@ -0,0 +1,277 @@
+package com.github.zjh7890.gpttools.services
+
+import com.github.zjh7890.gpttools.utils.FileUtil
+import com.github.zjh7890.gpttools.utils.JsonUtils
+import com.github.zjh7890.gpttools.utils.TextTokenizer
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.diagnostic.logger
+import com.intellij.util.concurrency.AppExecutorUtil
+import java.util.PriorityQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.math.ln
+
+/**
+ * 聊天记录的本地倒排索引，每条消息是一个文档。
+ *
+ * - 分词见 [TextTokenizer]，支持代码标识符和中文
+ * - SessionManager 加载和保存会话时增量更新：只重建第一条内容变化的消息及其之后的消息，加载时删除已不存在的会话
+ * - 索引保存在 ~/.gpttools/chat_sessions2.index.json，与会话文件放在一起，写盘有延迟合并
+ * - 查询按 BM25 排序，双引号包起来的部分作为短语，必须按顺序相邻出现
+ */
+@Service(Service.Level.APP)
+class ChatHistoryIndexService : Disposable {
+    private val logger = logger<ChatHistoryIndexService>()
+
+    /** 持久化的单条消息，倒排表在加载后重建 */
+    data class IndexedMessage(
+        val sessionId: String = "",
+        val projectName: String = "",
+        val messageIndex: Int = 0,
+        val contentHash: Int = 0,
+        /** 词数，BM25 的文档长度 */
+        val length: Int = 0,
+        /** 词 -> 升序的位置 */
+        val terms: Map<String, List<Int>> = emptyMap()
+    )
+
+    data class IndexData(
+        val formatVersion: Int = 0,
+        val messages: List<IndexedMessage> = emptyList()
+    )
+
+    class Hit(val sessionId: String, val projectName: String, val messageIndex: Int, val score: Double)
+
+    private class SessionSnapshot(val id: String, val projectName: String, val contents: List<String>)
+
+    private class Query(val terms: List<String>, val phrases: List<List<TextTokenizer.Token>>)
+
+    private val docs = HashMap<Int, IndexedMessage>()
+    /** 会话 id -> 按消息顺序的文档 id */
+    private val sessionDocs = HashMap<String, MutableList<Int>>()
+    /** 词 -> (文档 id -> 位置) */
+    private val postings = HashMap<String, HashMap<Int, List<Int>>>()
+    private var totalLength = 0L
+    private var nextDocId = 0
+    private var loaded = false
+
+    private val executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("GptTools Chat History Index", 1)
+    private val saveScheduled = AtomicBoolean(false)
+
+    /**
+     * 在调用线程上取会话快照，后台按顺序更新索引
+     */
+    fun updateAsync(sessions: Collection<ChatSession>) {
+        val snapshots = sessions.map { session ->
+            SessionSnapshot(session.id, session.project.name, session.messages.map { it.content })
+        }
+        executor.execute {
+            try {
+                snapshots.forEach { sync(it) }
+            } catch (e: Exception) {
+                logger.warn("Failed to update chat history index", e)
+            }
+        }
+    }
+
+    /**
+     * 用全部会话更新索引，并删除已不存在的会话
+     */
+    fun syncAllAsync(sessions: Collection<ChatSession>) {
+        val ids = sessions.map { it.id }.toHashSet()
+        updateAsync(sessions)
+        executor.execute {
+            try {
+                retain(ids)
+            } catch (e: Exception) {
+                logger.warn("Failed to prune chat history index", e)
+            }
+        }
+    }
+
+    @Synchronized
+    private fun retain(sessionIds: Set<String>) {
+        ensureLoaded()
+        val removed = sessionDocs.keys.filter { it !in sessionIds }
+        if (removed.isEmpty()) return
+        removed.forEach { id -> sessionDocs.remove(id)?.forEach { removeDoc(it) } }
+        scheduleSave()
+    }
+
+    @Synchronized
+    private fun sync(session: SessionSnapshot) {
+        ensureLoaded()
+        val ids = sessionDocs.getOrPut(session.id) { mutableListOf() }
+        var firstChanged = 0
+        while (firstChanged < ids.size && firstChanged < session.contents.size &&
+            docs[ids[firstChanged]]?.contentHash == session.contents[firstChanged].hashCode()
+        ) {
+            firstChanged++
+        }
+        if (firstChanged == ids.size && firstChanged == session.contents.size) return
+
+        while (ids.size > firstChanged) {
+            removeDoc(ids.removeAt(ids.size - 1))
+        }
+        for (i in firstChanged until session.contents.size) {
+            ids.add(addDoc(indexMessage(session.id, session.projectName, i, session.contents[i])))
+        }
+        scheduleSave()
+    }
+
+    /**
+     * 按 BM25 从高到低返回命中的消息；projectName 不为空时只在该项目的会话中查找。
+     * 首次调用会读取索引文件，且会等待正在进行的更新，不要在 EDT 上调用
+     */
+    @Synchronized
+    fun search(query: String, projectName: String? = null, limit: Int = DEFAULT_LIMIT): List<Hit> {
+        ensureLoaded()
+        val parsed = parseQuery(query)
+        if (parsed.terms.isEmpty() || docs.isEmpty()) return emptyList()
+
+        val docCount = docs.size
+        val avgLength = totalLength.toDouble() / docCount
+        val scores = HashMap<Int, Double>()
+        for (term in parsed.terms) {
+            val termPostings = postings[term] ?: continue
+            val df = termPostings.size
+            val idf = ln(1 + (docCount - df + 0.5) / (df + 0.5))
+            for ((docId, positions) in termPostings) {
+                val doc = docs[docId] ?: continue
+                if (projectName != null && doc.projectName != projectName) continue
+                val tf = positions.size.toDouble()
+                val score = idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * doc.length / avgLength))
+                scores.merge(docId, score, Double::plus)
+            }
+        }
+
+        val top = PriorityQueue<Pair<Int, Double>>(compareBy { it.second })
+        for ((docId, score) in scores) {
+            if (top.size >= limit && score <= top.peek().second) continue
+            if (parsed.phrases.any { !matchesPhrase(docId, it) }) continue
+            top.add(docId to score)
+            if (top.size > limit) top.poll()
+        }
+        return top.sortedByDescending { it.second }.map { (docId, score) ->
+            val doc = docs.getValue(docId)
+            Hit(doc.sessionId, doc.projectName, doc.messageIndex, score)
+        }
+    }
+
+    private fun parseQuery(query: String): Query {
+        val phrases = mutableListOf<List<TextTokenizer.Token>>()
+        val rest = StringBuilder()
+        PHRASE_REGEX.split(query).forEachIndexed { index, part ->
+            // split 后奇数下标是引号内的内容
+            if (index % 2 == 1) {
+                TextTokenizer.tokenize(part).takeIf { it.isNotEmpty() }?.let { phrases.add(it) }
+            }
+            rest.append(part).append(' ')
+        }
+        val terms = TextTokenizer.tokenize(rest.toString()).map { it.term }.distinct()
+        return Query(terms, phrases)
+    }
+
+    private fun matchesPhrase(docId: Int, phrase: List<TextTokenizer.Token>): Boolean {
+        val first = phrase.first()
+        val firstPositions = postings[first.term]?.get(docId) ?: return false
+        val others = phrase.drop(1).map { token ->
+            token to (postings[token.term]?.get(docId) ?: return false)
+        }
+        return firstPositions.any { position ->
+            val base = position - first.position
+            others.all { (token, positions) -> positions.binarySearch(base + token.position) >= 0 }
+        }
+    }
+
+    private fun indexMessage(sessionId: String, projectName: String, messageIndex: Int, content: String): IndexedMessage {
+        val tokens = TextTokenizer.tokenize(content)
+        val terms = HashMap<String, MutableList<Int>>()
+        tokens.forEach { terms.getOrPut(it.term) { mutableListOf() }.add(it.position) }
+        return IndexedMessage(sessionId, projectName, messageIndex, content.hashCode(), tokens.size, terms)
+    }
+
+    private fun addDoc(doc: IndexedMessage): Int {
+        val docId = nextDocId++
+        docs[docId] = doc
+        totalLength += doc.length
+        doc.terms.forEach { (term, positions) ->
+            postings.getOrPut(term) { HashMap() }[docId] = positions
+        }
+        return docId
+    }
+
+    private fun removeDoc(docId: Int) {
+        val doc = docs.remove(docId) ?: return
+        totalLength -= doc.length
+        doc.terms.keys.forEach { term ->
+            val termPostings = postings[term] ?: return@forEach
+            termPostings.remove(docId)
+            if (termPostings.isEmpty()) postings.remove(term)
+        }
+    }
+
+    private fun ensureLoaded() {
+        if (loaded) return
+        loaded = true
+        try {
+            val data: IndexData = FileUtil.readJsonFromFile(indexFilePath()) ?: return
+            if (data.formatVersion != FORMAT_VERSION) return
+            data.messages.sortedBy { it.messageIndex }.forEach { message ->
+                sessionDocs.getOrPut(message.sessionId) { mutableListOf() }.add(addDoc(message))
+            }
+        } catch (e: Exception) {
+            logger.warn("Failed to load chat history index, rebuilding", e)
+            docs.clear()
+            sessionDocs.clear()
+            postings.clear()
+            totalLength = 0
+        }
+    }
+
+    private fun scheduleSave() {
+        if (!saveScheduled.compareAndSet(false, true)) return
+        AppExecutorUtil.getAppScheduledExecutorService().schedule({ save() }, SAVE_DELAY_SECONDS, TimeUnit.SECONDS)
+    }
+
+    private fun save() {
+        saveScheduled.set(false)
+        val data = synchronized(this) {
+            IndexData(FORMAT_VERSION, sessionDocs.values.flatMap { ids -> ids.mapNotNull { docs[it] } })
+        }
+        try {
+            FileUtil.writeToFile(indexFilePath(), JsonUtils.toJson(data))
+        } catch (e: Exception) {
+            logger.warn("Failed to save chat history index", e)
+        }
+    }
+
+    private fun indexFilePath(): String {
+        val userHome = System.getProperty("user.home")
+        return "$userHome/.gpttools/chat_sessions2.index.json"
+    }
+
+    override fun dispose() {
+        if (saveScheduled.get()) {
+            save()
+        }
+    }
+
+    companion object {
+        const val DEFAULT_LIMIT = 200
+
+        /** 索引结构或分词规则变化时递增，旧索引会被重建 */
+        private const val FORMAT_VERSION = 1
+        private const val K1 = 1.2
+        private const val B = 0.75
+        private const val SAVE_DELAY_SECONDS = 5L
+        private val PHRASE_REGEX = Regex("\"")
+
+        @JvmStatic
+        fun getInstance(): ChatHistoryIndexService {
+            return ApplicationManager.getApplication().getService(ChatHistoryIndexService::class.java)
+        }
+    }
+}
@@ -45,6 +45,24 @@ data class ChatSession(
         messages.add(message)
     }
 
+    /**
+     * 会话元信息，不复制消息正文
+     */
+    fun summary(): SessionSummary {
+        val firstUserMessage = messages.firstOrNull { it.role == ChatRole.user }
+        val title = firstUserMessage?.content?.let { content ->
+            val firstLine = content.lineSequence().firstOrNull { it.isNotBlank() } ?: ""
+            if (firstLine.length > SessionSummary.TITLE_MAX_CHARS) firstLine.take(SessionSummary.TITLE_MAX_CHARS) + "…" else firstLine
+        } ?: ""
+        return SessionSummary(
+            id = id,
+            title = title.trim(),
+            startTime = startTime,
+            messageCount = messages.size,
+            size = messages.sumOf { it.content.length.toLong() + it.context.length }
+        )
+    }
+
     // 清空会话
     fun clear() {
         messages.clear()
@@ -173,6 +191,29 @@ data class SerializableChatSession(
     }
 }
 
+// ----------------------------
+// 历史面板使用的会话摘要
+// ----------------------------
+data class SessionSummary(
+    val id: String,
+    val title: String,
+    val startTime: Long,
+    val messageCount: Int,
+    /** 消息正文和上下文的字符数 */
+    val size: Long
+) {
+    companion object {
+        const val TITLE_MAX_CHARS = 60
+    }
+}
+
+data class MessagePreview(
+    val role: ChatRole,
+    /** 截断后的前几行 */
+    val lines: List<String>,
+    val totalLines: Int
+)
+
 // ----------------------------
 // 聊天消息
 // ----------------------------
@@ -193,6 +234,30 @@ data class ChatContextMessage(
     fun add(session: ChatSession) {
         session.messages.add(this)
     }
+
+    /**
+     * 只扫描前 maxLines 行，超长行截断，不拆分整个正文
+     */
+    fun preview(maxLines: Int, maxLineChars: Int): MessagePreview {
+        val lines = mutableListOf<String>()
+        var start = 0
+        while (lines.size < maxLines && start <= content.length) {
+            val end = content.indexOf('\n', start).let { if (it < 0) content.length else it }
+            val line = content.substring(start, minOf(end, start + maxLineChars)).trimEnd('\r')
+            lines.add(if (end - start > maxLineChars) "$line…" else line)
+            start = end + 1
+        }
+        val totalLines = if (start > content.length) lines.size else lines.size + 1 + countLines(start)
+        return MessagePreview(role, lines, totalLines)
+    }
+
+    private fun countLines(from: Int): Int {
+        var count = 0
+        for (i in from until content.length) {
+            if (content[i] == '\n') count++
+        }
+        return count
+    }
 }
 
 
@@ -0,0 +1,106 @@
+package com.github.zjh7890.gpttools.services
+
+import com.intellij.concurrency.JobLauncher
+import com.intellij.openapi.application.ReadAction
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.progress.ProgressIndicator
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ProjectRootManager
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.psi.*
+import com.intellij.psi.util.PsiModificationTracker
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 项目内 Java 类的反向引用图：类全限定名 -> 引用它的文件路径。
+ *
+ * 一次并行遍历所有 Java 文件建图，PSI 未变化前复用，
+ * "是否被引用" 之类的入口判断都变成图查询，不再对每个类跑一次 ReferencesSearch。
+ */
+@Service(Service.Level.PROJECT)
+class ClassReferenceGraphService(private val project: Project) {
+
+    class ClassReferenceGraph(
+        /** 项目中所有 Java 文件 */
+        val javaFiles: List<VirtualFile>,
+        private val referencedBy: Map<String, Set<String>>
+    ) {
+        /**
+         * 引用了该类的文件路径（不含类自身所在文件）
+         */
+        fun referencingFiles(qualifiedName: String): Set<String> = referencedBy[qualifiedName] ?: emptySet()
+
+        fun isReferenced(qualifiedName: String, filter: (String) -> Boolean = { true }): Boolean =
+            referencingFiles(qualifiedName).any(filter)
+    }
+
+    private var cachedGraph: ClassReferenceGraph? = null
+    private var cachedModificationCount = -1L
+
+    /**
+     * 获取引用图，PSI 有修改时重新计算。需在后台线程、且不持有读锁时调用。
+     */
+    @Synchronized
+    fun getGraph(indicator: ProgressIndicator): ClassReferenceGraph {
+        val modificationCount = PsiModificationTracker.getInstance(project).modificationCount
+        cachedGraph?.takeIf { cachedModificationCount == modificationCount }?.let { return it }
+
+        val graph = buildGraph(indicator)
+        cachedGraph = graph
+        cachedModificationCount = modificationCount
+        return graph
+    }
+
+    private fun buildGraph(indicator: ProgressIndicator): ClassReferenceGraph {
+        val javaFiles = ReadAction.compute<List<VirtualFile>, RuntimeException> {
+            val files = mutableListOf<VirtualFile>()
+            ProjectRootManager.getInstance(project).fileIndex.iterateContent { virtualFile ->
+                if (virtualFile.extension == "java") {
+                    files.add(virtualFile)
+                }
+                true
+            }
+            files
+        }
+
+        val referencedBy = ConcurrentHashMap<String, MutableSet<String>>()
+        indicator.isIndeterminate = false
+        JobLauncher.getInstance().invokeConcurrentlyUnderProgress(javaFiles, indicator) { file ->
+            // 每个文件一个可取消的读操作，遇到写操作会自动重试
+            ReadAction.nonBlocking<Unit> { collectReferences(file, referencedBy) }
+                .expireWith(project)
+                .executeSynchronously()
+            true
+        }
+
+        return ClassReferenceGraph(javaFiles, referencedBy)
+    }
+
+    private fun collectReferences(file: VirtualFile, referencedBy: ConcurrentHashMap<String, MutableSet<String>>) {
+        if (!file.isValid) return
+        val psiFile = PsiManager.getInstance(project).findFile(file) as? PsiJavaFile ?: return
+        val fileIndex = ProjectRootManager.getInstance(project).fileIndex
+
+        psiFile.accept(object : JavaRecursiveElementWalkingVisitor() {
+            override fun visitReferenceElement(reference: PsiJavaCodeReferenceElement) {
+                ProgressManager.checkCanceled()
+                super.visitReferenceElement(reference)
+
+                val target = reference.resolve() as? PsiClass ?: return
+                val qualifiedName = target.qualifiedName ?: return
+                val targetFile = target.containingFile?.virtualFile ?: return
+                if (targetFile == file || !fileIndex.isInContent(targetFile)) return
+
+                referencedBy.computeIfAbsent(qualifiedName) { ConcurrentHashMap.newKeySet() }.add(file.path)
+            }
+        })
+    }
+
+    companion object {
+        @JvmStatic
+        fun getInstance(project: Project): ClassReferenceGraphService {
+            return project.getService(ClassReferenceGraphService::class.java)
+        }
+    }
+}
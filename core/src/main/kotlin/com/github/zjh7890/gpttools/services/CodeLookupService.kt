@@ -0,0 +1,72 @@
+package com.github.zjh7890.gpttools.services
+
+import com.intellij.openapi.application.ReadAction
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.project.Project
+import com.intellij.psi.JavaPsiFacade
+import com.intellij.psi.PsiClass
+import com.intellij.psi.PsiDocumentManager
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiMethod
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.psi.search.PsiShortNamesCache
+import com.intellij.util.containers.ContainerUtil
+
+/**
+ * 工具调用用的类、方法查找：
+ * - 通过短名索引和全限定名的 stub 索引查找，不遍历文件
+ * - 多个结果按全限定名、文件路径排序，结果稳定
+ * - 只返回类或方法自身的文本，按文档偏移量截取，不返回整个文件
+ * - 截取的文本按文件修改时间戳缓存，文件变化后重新截取
+ */
+@Service(Service.Level.PROJECT)
+class CodeLookupService(private val project: Project) {
+    private class CachedText(val stamp: Long, val text: String)
+
+    // 内存紧张时可以回收
+    private val textCache: MutableMap<String, CachedText> = ContainerUtil.createConcurrentSoftValueMap()
+
+    fun findClassesBySimpleName(simpleName: String): List<PsiClass> = ReadAction.compute<List<PsiClass>, RuntimeException> {
+        PsiShortNamesCache.getInstance(project).getClassesByName(simpleName, projectScope()).sortedWith(CLASS_ORDER)
+    }
+
+    fun findClassesByQualifiedName(qualifiedName: String): List<PsiClass> = ReadAction.compute<List<PsiClass>, RuntimeException> {
+        JavaPsiFacade.getInstance(project).findClasses(qualifiedName, projectScope()).sortedWith(CLASS_ORDER)
+    }
+
+    fun classText(psiClass: PsiClass): String = ReadAction.compute<String, RuntimeException> {
+        elementText(psiClass, psiClass.qualifiedName ?: psiClass.name ?: "")
+    }
+
+    fun methodText(method: PsiMethod): String = ReadAction.compute<String, RuntimeException> {
+        val parameters = method.parameterList.parameters.joinToString(",") { it.type.canonicalText }
+        elementText(method, "${method.containingClass?.qualifiedName}#${method.name}($parameters)")
+    }
+
+    private fun elementText(element: PsiElement, key: String): String {
+        val file = element.containingFile ?: return element.text
+        val documentManager = PsiDocumentManager.getInstance(project)
+        val document = documentManager.getDocument(file)
+        val stamp = document?.modificationStamp ?: file.modificationStamp
+        val cacheKey = "${file.virtualFile?.path}:$key"
+        textCache[cacheKey]?.takeIf { it.stamp == stamp }?.let { return it.text }
+
+        // 文档还没提交时 PSI 的偏移量和文档对不上，直接用 PSI 的文本
+        val text = if (document != null && !documentManager.isUncommited(document)) {
+            document.getText(element.textRange)
+        } else {
+            element.text
+        }
+        textCache[cacheKey] = CachedText(stamp, text)
+        return text
+    }
+
+    private fun projectScope() = GlobalSearchScope.projectScope(project)
+
+    companion object {
+        private val CLASS_ORDER = compareBy<PsiClass>({ it.qualifiedName ?: "" }, { it.containingFile?.virtualFile?.path ?: "" })
+
+        @JvmStatic
+        fun getInstance(project: Project): CodeLookupService = project.getService(CodeLookupService::class.java)
+    }
+}
@@ -0,0 +1,167 @@
+package com.github.zjh7890.gpttools.services
+
+import com.github.zjh7890.gpttools.utils.FileUtil
+import com.github.zjh7890.gpttools.utils.JsonUtils
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.diagnostic.logger
+import com.intellij.util.concurrency.AppExecutorUtil
+import org.jetbrains.org.objectweb.asm.*
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+import java.util.jar.JarFile
+
+/**
+ * 三方 jar 的成员索引：类名、public 方法签名、类注解。
+ *
+ * - 每个 jar 按 (路径, 大小, 修改时间) 只在后台构建一次，直接读 class 字节码，不依赖 PSI
+ * - 索引持久化到 ~/.gpttools/jar-index，IDE 重启和多个项目之间共享
+ * - 查询时索引还没建好的 jar 会被跳过，并排队构建
+ */
+@Service(Service.Level.APP)
+class JarMemberIndexService {
+    private val logger = logger<JarMemberIndexService>()
+
+    data class JarClassEntry(
+        val name: String = "",
+        val qualifiedName: String = "",
+        /** jar 内路径，如 com/example/FooApi.class */
+        val entryPath: String = "",
+        val interfaceType: Boolean = false,
+        val annotations: List<String> = emptyList(),
+        /** public 方法签名，如 query(String,int) */
+        val methods: List<String> = emptyList()
+    )
+
+    data class JarIndex(
+        val formatVersion: Int = 0,
+        val jarPath: String = "",
+        val size: Long = 0,
+        val lastModified: Long = 0,
+        val classes: List<JarClassEntry> = emptyList()
+    )
+
+    private val indexes = ConcurrentHashMap<String, JarIndex>()
+    private val pending = ConcurrentHashMap.newKeySet<String>()
+    private val executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("GptTools Jar Index", 2)
+
+    /**
+     * 返回已就绪的索引；过期或不存在时安排后台构建并返回 null
+     */
+    fun getIndex(jarPath: String): JarIndex? {
+        val jar = File(jarPath)
+        if (!jar.isFile) return null
+        indexes[jarPath]?.takeIf { isFresh(it, jar) }?.let { return it }
+
+        schedule(jar)
+        return null
+    }
+
+    /**
+     * 预先为一批 jar 安排构建，搜索面板打开时调用
+     */
+    fun prepare(jarPaths: Collection<String>) {
+        jarPaths.forEach { getIndex(it) }
+    }
+
+    private fun schedule(jar: File) {
+        if (!pending.add(jar.path)) return
+        executor.execute {
+            try {
+                val index = loadFromDisk(jar) ?: buildIndex(jar).also { saveToDisk(it) }
+                indexes[jar.path] = index
+            } catch (e: Exception) {
+                logger.warn("Failed to index jar: ${jar.path}", e)
+            } finally {
+                pending.remove(jar.path)
+            }
+        }
+    }
+
+    private fun isFresh(index: JarIndex, jar: File): Boolean =
+        index.formatVersion == FORMAT_VERSION && index.size == jar.length() && index.lastModified == jar.lastModified()
+
+    private fun loadFromDisk(jar: File): JarIndex? {
+        val index: JarIndex = FileUtil.readJsonFromFile(indexFilePath(jar.path)) ?: return null
+        return index.takeIf { it.jarPath == jar.path && isFresh(it, jar) }
+    }
+
+    private fun saveToDisk(index: JarIndex) {
+        FileUtil.writeToFile(indexFilePath(index.jarPath), JsonUtils.toJson(index))
+    }
+
+    private fun buildIndex(jar: File): JarIndex {
+        val classes = mutableListOf<JarClassEntry>()
+        JarFile(jar).use { jarFile ->
+            for (entry in jarFile.entries()) {
+                val name = entry.name
+                // 内部类、module-info、package-info 不作为搜索结果
+                if (entry.isDirectory || !name.endsWith(".class") || name.contains('$') || name.endsWith("-info.class")) {
+                    continue
+                }
+                val bytes = jarFile.getInputStream(entry).use { it.readBytes() }
+                readClass(bytes, name)?.let { classes.add(it) }
+            }
+        }
+        return JarIndex(FORMAT_VERSION, jar.path, jar.length(), jar.lastModified(), classes)
+    }
+
+    private fun readClass(bytes: ByteArray, entryPath: String): JarClassEntry? {
+        var qualifiedName = ""
+        var isPublic = false
+        var isInterface = false
+        val annotations = mutableListOf<String>()
+        val methods = mutableListOf<String>()
+
+        ClassReader(bytes).accept(object : ClassVisitor(Opcodes.API_VERSION) {
+            override fun visit(
+                version: Int, access: Int, name: String, signature: String?, superName: String?, interfaces: Array<out String>?
+            ) {
+                qualifiedName = name.replace('/', '.')
+                isPublic = access and Opcodes.ACC_PUBLIC != 0
+                isInterface = access and Opcodes.ACC_INTERFACE != 0
+            }
+
+            override fun visitAnnotation(descriptor: String, visible: Boolean): AnnotationVisitor? {
+                annotations.add(Type.getType(descriptor).className)
+                return null
+            }
+
+            override fun visitMethod(
+                access: Int, name: String, descriptor: String, signature: String?, exceptions: Array<out String>?
+            ): MethodVisitor? {
+                if (access and Opcodes.ACC_PUBLIC != 0 && access and Opcodes.ACC_SYNTHETIC == 0 && !name.startsWith("<")) {
+                    val params = Type.getArgumentTypes(descriptor).joinToString(",") { it.className.substringAfterLast('.') }
+                    methods.add("$name($params)")
+                }
+                return null
+            }
+        }, ClassReader.SKIP_CODE or ClassReader.SKIP_DEBUG or ClassReader.SKIP_FRAMES)
+
+        if (!isPublic) return null
+        return JarClassEntry(
+            name = qualifiedName.substringAfterLast('.'),
+            qualifiedName = qualifiedName,
+            entryPath = entryPath,
+            interfaceType = isInterface,
+            annotations = annotations,
+            methods = methods
+        )
+    }
+
+    private fun indexFilePath(jarPath: String): String {
+        val userHome = System.getProperty("user.home")
+        val jarName = jarPath.substringAfterLast('/').removeSuffix(".jar")
+        return "$userHome/.gpttools/jar-index/$jarName-${Integer.toHexString(jarPath.hashCode())}.json"
+    }
+
+    companion object {
+        /** 索引结构变化时递增，旧的磁盘索引会被重建 */
+        private const val FORMAT_VERSION = 1
+
+        @JvmStatic
+        fun getInstance(): JarMemberIndexService {
+            return ApplicationManager.getApplication().getService(JarMemberIndexService::class.java)
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.github.zjh7890.gpttools.services
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.diagnostic.logger
+import com.intellij.openapi.util.text.StringUtil
+import com.intellij.openapi.vfs.JarFileSystem
+import com.intellij.openapi.vfs.LocalFileSystem
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.VirtualFileManager
+import com.intellij.psi.PsiClass
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiFile
+import java.util.concurrent.ConcurrentHashMap
+import java.util.jar.JarFile
+
+/**
+ * 三方库源码服务：为 jar 中的类查找 -sources.jar 里的源码。
+ *
+ * - 打开的 jar 句柄放在一个有上限的 LRU 池里复用
+ * - 每个 sources jar 只扫描一次中央目录，建立 类名 -> entry 的索引
+ * - 源码文本按 (jar 路径, jar 修改时间, entry) 缓存
+ * - 没有 sources jar 时退回到反编译文本，同样缓存
+ */
+@Service(Service.Level.APP)
+class LibrarySourceService : Disposable {
+    private val logger = logger<LibrarySourceService>()
+
+    private class OpenJar(val modificationStamp: Long, val jarFile: JarFile)
+
+    private class JarIndex(val modificationStamp: Long, val entries: Map<String, String>)
+
+    private data class TextKey(val jarPath: String, val modificationStamp: Long, val entryName: String)
+
+    private class ClassLocation(val classJar: VirtualFile, val classEntryPath: String) {
+        val sourcesJarPath: String
+            get() = classJar.path.removeSuffix(".jar") + "-sources.jar"
+
+        // 内部类 com/example/Outer$Inner.class 的源码在 com/example/Outer.java 中
+        val topLevelClassName: String
+            get() = classEntryPath.removeSuffix(".class").substringBefore('$').replace('/', '.')
+    }
+
+    private val jarPool = object : LinkedHashMap<String, OpenJar>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, OpenJar>): Boolean {
+            if (size <= MAX_OPEN_JARS) return false
+            closeQuietly(eldest.value.jarFile)
+            return true
+        }
+    }
+
+    private val jarIndexes = ConcurrentHashMap<String, JarIndex>()
+    private val sourceTextCache = lruCache<TextKey, String>(MAX_CACHED_TEXTS)
+    private val decompiledTextCache = lruCache<TextKey, String>(MAX_CACHED_TEXTS)
+
+    /**
+     * 返回元素对应的源码文件；不在 jar 中的元素直接返回自身所在文件，找不到 sources jar 时返回 null
+     */
+    fun findSourceFile(psiElement: PsiElement): VirtualFile? {
+        val classFile = psiElement.containingFile?.virtualFile ?: return null
+        if (!classFile.path.contains(".jar!")) {
+            return classFile
+        }
+
+        val location = locate(classFile) ?: return null
+        val sourcesJar = LocalFileSystem.getInstance().findFileByPath(location.sourcesJarPath) ?: return null
+        val entryName = getIndex(sourcesJar)?.entries?.get(location.topLevelClassName) ?: return null
+        return VirtualFileManager.getInstance().findFileByUrl("jar://${sourcesJar.path}!/$entryName")
+    }
+
+    /**
+     * 返回类所在文件的源码文本：优先 sources jar，其次缓存的反编译文本
+     */
+    fun getSourceText(psiClass: PsiClass): String {
+        val psiFile = psiClass.containingFile
+        val classFile = psiFile.virtualFile
+        if (classFile == null || !classFile.path.contains(".jar!")) {
+            return psiFile.text
+        }
+
+        val location = locate(classFile) ?: return psiFile.text
+        val sourcesJar = LocalFileSystem.getInstance().findFileByPath(location.sourcesJarPath)
+        if (sourcesJar != null) {
+            readSourceText(sourcesJar, location.topLevelClassName)?.let { return it }
+        }
+        return getDecompiledText(psiFile, location)
+    }
+
+    private fun locate(classFile: VirtualFile): ClassLocation? {
+        val classJar = JarFileSystem.getInstance().getLocalByEntry(classFile) ?: return null
+        val classEntryPath = classFile.path.substringAfter("!/", "")
+        if (classEntryPath.isEmpty()) return null
+        return ClassLocation(classJar, classEntryPath)
+    }
+
+    private fun readSourceText(sourcesJar: VirtualFile, className: String): String? {
+        val index = getIndex(sourcesJar) ?: return null
+        val entryName = index.entries[className] ?: return null
+        val key = TextKey(sourcesJar.path, index.modificationStamp, entryName)
+        synchronized(sourceTextCache) { sourceTextCache[key] }?.let { return it }
+
+        val text = withJar(sourcesJar) { jarFile ->
+            val entry = jarFile.getEntry(entryName) ?: return@withJar null
+            jarFile.getInputStream(entry).use {
+                StringUtil.convertLineSeparators(String(it.readBytes(), Charsets.UTF_8))
+            }
+        } ?: return null
+
+        synchronized(sourceTextCache) { sourceTextCache[key] = text }
+        return text
+    }
+
+    private fun getDecompiledText(psiFile: PsiFile, location: ClassLocation): String {
+        val key = TextKey(location.classJar.path, location.classJar.timeStamp, location.classEntryPath)
+        synchronized(decompiledTextCache) { decompiledTextCache[key] }?.let { return it }
+
+        val text = psiFile.text
+        synchronized(decompiledTextCache) { decompiledTextCache[key] = text }
+        return text
+    }
+
+    private fun getIndex(sourcesJar: VirtualFile): JarIndex? {
+        val stamp = sourcesJar.timeStamp
+        jarIndexes[sourcesJar.path]?.takeIf { it.modificationStamp == stamp }?.let { return it }
+
+        val entries = withJar(sourcesJar) { jarFile ->
+            val result = HashMap<String, String>()
+            for (entry in jarFile.entries()) {
+                if (entry.isDirectory) continue
+                val name = entry.name
+                when {
+                    // 同名时 .java 优先于 .kt
+                    name.endsWith(".java") -> result[name.removeSuffix(".java").replace('/', '.')] = name
+                    name.endsWith(".kt") -> result.putIfAbsent(name.removeSuffix(".kt").replace('/', '.'), name)
+                }
+            }
+            result
+        } ?: return null
+
+        val index = JarIndex(stamp, entries)
+        jarIndexes[sourcesJar.path] = index
+        return index
+    }
+
+    private fun <T> withJar(jar: VirtualFile, action: (JarFile) -> T?): T? {
+        val stamp = jar.timeStamp
+        return try {
+            synchronized(jarPool) {
+                var openJar = jarPool[jar.path]
+                if (openJar == null || openJar.modificationStamp != stamp) {
+                    openJar?.let { closeQuietly(it.jarFile) }
+                    openJar = OpenJar(stamp, JarFile(jar.path))
+                    jarPool[jar.path] = openJar
+                }
+                action(openJar.jarFile)
+            }
+        } catch (e: Exception) {
+            logger.warn("Failed to read jar: ${jar.path}", e)
+            null
+        }
+    }
+
+    private fun closeQuietly(jarFile: JarFile) {
+        try {
+            jarFile.close()
+        } catch (e: Exception) {
+            logger.warn("Failed to close jar: ${jarFile.name}", e)
+        }
+    }
+
+    override fun dispose() {
+        synchronized(jarPool) {
+            jarPool.values.forEach { closeQuietly(it.jarFile) }
+            jarPool.clear()
+        }
+        jarIndexes.clear()
+    }
+
+    companion object {
+        private const val MAX_OPEN_JARS = 16
+        private const val MAX_CACHED_TEXTS = 512
+
+        private fun <K, V> lruCache(maxSize: Int): MutableMap<K, V> =
+            object : LinkedHashMap<K, V>(16, 0.75f, true) {
+                override fun removeEldestEntry(eldest: MutableMap.MutableEntry<K, V>): Boolean = size > maxSize
+            }
+
+        @JvmStatic
+        fun getInstance(): LibrarySourceService {
+            return ApplicationManager.getApplication().getService(LibrarySourceService::class.java)
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.github.zjh7890.gpttools.services
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.runReadAction
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.fileTypes.FileTypeManager
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ModuleRootEvent
+import com.intellij.openapi.roots.ModuleRootListener
+import com.intellij.openapi.roots.ProjectFileIndex
+import com.intellij.openapi.vfs.LocalFileSystem
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.VirtualFileManager
+import com.intellij.openapi.vfs.newvfs.BulkFileListener
+import com.intellij.openapi.vfs.newvfs.events.*
+
+/**
+ * 项目目录结构缓存。
+ *
+ * - 目录树在第一次使用时从 VFS 构建，之后只通过 BulkFileListener 事件把受影响的目录标记为失效，
+ *   下次渲染时只重新扫描这些目录的一层子节点
+ * - 构建时跳过隐藏文件、IDE 忽略的文件和被排除的目录
+ * - 渲染结果按参数缓存，直到下一次结构变化
+ */
+@Service(Service.Level.PROJECT)
+class ProjectStructureService(private val project: Project) : Disposable {
+
+    private class DirNode(val file: VirtualFile) {
+        val name: String
+            get() = file.name
+        var loaded = false
+        var dirs: List<DirNode> = emptyList()
+        var files: List<String> = emptyList()
+    }
+
+    private data class RenderKey(
+        val style: Style,
+        val maxFilesToShow: Int,
+        val skipBuildOutput: Boolean,
+        val maxDepth: Int,
+        val maxChars: Int
+    )
+
+    private enum class Style { CONTENTS, TREE }
+
+    private val lock = Any()
+    private var root: DirNode? = null
+    private val nodesByPath = HashMap<String, DirNode>()
+    private val renderCache = HashMap<RenderKey, String>()
+
+    init {
+        val connection = project.messageBus.connect(this)
+        connection.subscribe(VirtualFileManager.VFS_CHANGES, object : BulkFileListener {
+            override fun after(events: List<VFileEvent>) {
+                events.forEach { onFileEvent(it) }
+            }
+        })
+        // 排除目录、模块结构变化时整体重建
+        connection.subscribe(ModuleRootListener.TOPIC, object : ModuleRootListener {
+            override fun rootsChanged(event: ModuleRootEvent) {
+                reset()
+            }
+        })
+    }
+
+    /**
+     * 每个有文件的目录一行 "dir/"，下面列出最多 maxFilesToShow 个文件；只有子目录的目录不单独成行
+     *
+     * @param skipBuildOutput 跳过与 src 同级的 target / build 目录
+     */
+    fun getDirectoryContents(
+        maxFilesToShow: Int = 0,
+        skipBuildOutput: Boolean = true,
+        maxDepth: Int = Int.MAX_VALUE,
+        maxChars: Int = Int.MAX_VALUE
+    ): String = render(RenderKey(Style.CONTENTS, maxFilesToShow, skipBuildOutput, maxDepth, maxChars))
+
+    /**
+     * 缩进的树形结构，目录在前，跳过 build / target / node_modules / test 目录
+     */
+    fun getProjectStructure(
+        maxFilesToShow: Int = 0,
+        maxDepth: Int = Int.MAX_VALUE,
+        maxChars: Int = Int.MAX_VALUE
+    ): String = render(RenderKey(Style.TREE, maxFilesToShow, true, maxDepth, maxChars))
+
+    private fun render(key: RenderKey): String {
+        synchronized(lock) {
+            renderCache[key]?.let { return it }
+        }
+        val text = runReadAction {
+            synchronized(lock) {
+                val rootNode = getRoot() ?: return@runReadAction null
+                val out = LimitedBuilder(key.maxChars)
+                when (key.style) {
+                    Style.CONTENTS -> {
+                        val srcParent = if (key.skipBuildOutput && ensureLoaded(rootNode).dirs.any { it.name == "src" }) rootNode else null
+                        renderContents(rootNode, "", srcParent, key, 0, out)
+                    }
+                    Style.TREE -> {
+                        out.append("* ${rootNode.name}/\n")
+                        renderTree(rootNode, "  ", key, 0, out)
+                    }
+                }
+                out.toString().also { renderCache[key] = it }
+            }
+        }
+        return text ?: when (key.style) {
+            Style.CONTENTS -> ""
+            Style.TREE -> "Project base path not found"
+        }
+    }
+
+    private fun renderContents(
+        dir: DirNode,
+        parentPath: String,
+        srcParent: DirNode?,
+        key: RenderKey,
+        depth: Int,
+        out: LimitedBuilder
+    ) {
+        if (out.full) return
+        val node = ensureLoaded(dir)
+        val fullDirname = if (parentPath.isEmpty()) "." else "$parentPath/${node.name}"
+        val subdirs = if (node === srcParent) {
+            node.dirs.filterNot { it.name == "target" || it.name == "build" }
+        } else {
+            node.dirs
+        }
+
+        when {
+            node.files.isEmpty() && subdirs.isEmpty() -> out.append("$fullDirname/\n[Empty]\n")
+            node.files.isNotEmpty() -> {
+                out.append("$fullDirname/\n")
+                if (key.maxFilesToShow > 0) {
+                    node.files.take(key.maxFilesToShow).forEach { out.append("- $it\n") }
+                    if (node.files.size > key.maxFilesToShow) {
+                        out.append("- ...\n")  // 标记还有更多文件
+                    }
+                }
+            }
+        }
+        if (depth >= key.maxDepth) {
+            if (subdirs.isNotEmpty()) out.append("$fullDirname/...\n")
+            return
+        }
+        subdirs.forEach { renderContents(it, fullDirname, srcParent, key, depth + 1, out) }
+    }
+
+    private fun renderTree(dir: DirNode, prefix: String, key: RenderKey, depth: Int, out: LimitedBuilder) {
+        if (out.full) return
+        val node = ensureLoaded(dir)
+        if (depth >= key.maxDepth) {
+            if (node.dirs.isNotEmpty() || node.files.isNotEmpty()) out.append("$prefix* ...\n")
+            return
+        }
+        node.dirs.filterNot { it.name in treeSkippedDirs }.forEach { child ->
+            out.append("$prefix* ${child.name}/\n")
+            renderTree(child, "$prefix  ", key, depth + 1, out)
+        }
+        if (key.maxFilesToShow > 0) {
+            node.files.take(key.maxFilesToShow).forEach { out.append("$prefix* $it\n") }
+        }
+    }
+
+    private fun getRoot(): DirNode? {
+        root?.takeIf { it.file.isValid }?.let { return it }
+        val basePath = project.basePath ?: return null
+        val baseDir = LocalFileSystem.getInstance().findFileByPath(basePath) ?: return null
+        nodesByPath.clear()
+        return DirNode(baseDir).also {
+            root = it
+            nodesByPath[baseDir.path] = it
+        }
+    }
+
+    /**
+     * 扫描一层子节点；已存在的子目录节点原样复用，保留其下已加载的结构
+     */
+    private fun ensureLoaded(node: DirNode): DirNode {
+        if (node.loaded) return node
+        val fileIndex = ProjectFileIndex.getInstance(project)
+        val fileTypeManager = FileTypeManager.getInstance()
+        val existing = node.dirs.associateBy { it.name }
+        val dirs = mutableListOf<DirNode>()
+        val files = mutableListOf<String>()
+
+        if (node.file.isValid) {
+            for (child in node.file.children) {
+                val name = child.name
+                if (name.startsWith(".") || fileTypeManager.isFileIgnored(child) || fileIndex.isExcluded(child)) {
+                    continue
+                }
+                if (child.isDirectory) {
+                    dirs.add(existing[name]?.takeIf { it.file == child } ?: DirNode(child))
+                } else {
+                    files.add(name)
+                }
+            }
+        }
+
+        val kept = dirs.toSet()
+        node.dirs.filterNot { it in kept }.forEach { forget(it) }
+        dirs.forEach { nodesByPath[it.file.path] = it }
+        node.dirs = dirs.sortedBy { it.name }
+        node.files = files.sorted()
+        node.loaded = true
+        return node
+    }
+
+    private fun forget(node: DirNode) {
+        nodesByPath.remove(node.file.path)
+        node.dirs.forEach { forget(it) }
+    }
+
+    private fun onFileEvent(event: VFileEvent) {
+        when (event) {
+            is VFileContentChangeEvent -> return
+            is VFileMoveEvent -> {
+                invalidate(event.oldParent.path)
+                invalidate(event.newParent.path)
+            }
+            is VFilePropertyChangeEvent -> {
+                if (event.propertyName == VirtualFile.PROP_NAME) {
+                    invalidate(parentPath(event.oldPath))
+                }
+            }
+            is VFileCreateEvent -> invalidate(event.parent.path)
+            is VFileCopyEvent -> invalidate(event.newParent.path)
+            else -> invalidate(parentPath(event.path))
+        }
+    }
+
+    private fun invalidate(dirPath: String) {
+        synchronized(lock) {
+            // 还没加载到的目录不用处理，下次展开时自然是最新的
+            val node = nodesByPath[dirPath] ?: return
+            node.loaded = false
+            renderCache.clear()
+        }
+    }
+
+    private fun reset() {
+        synchronized(lock) {
+            root = null
+            nodesByPath.clear()
+            renderCache.clear()
+        }
+    }
+
+    private fun parentPath(path: String): String = path.substringBeforeLast('/', "")
+
+    override fun dispose() {
+        reset()
+    }
+
+    /**
+     * 超过字符上限后不再追加，结尾标记被截断
+     */
+    private class LimitedBuilder(private val maxChars: Int) {
+        private val sb = StringBuilder()
+        var full = false
+            private set
+
+        fun append(text: String) {
+            if (full) return
+            if (sb.length + text.length > maxChars) {
+                sb.append("...\n")
+                full = true
+                return
+            }
+            sb.append(text)
+        }
+
+        override fun toString(): String = sb.toString()
+    }
+
+    companion object {
+        private val treeSkippedDirs = setOf("build", "target", "node_modules", "test")
+
+        @JvmStatic
+        fun getInstance(project: Project): ProjectStructureService {
+            return project.getService(ProjectStructureService::class.java)
+        }
+    }
+}
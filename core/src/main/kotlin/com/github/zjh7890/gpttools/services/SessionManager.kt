@@ -3,16 +3,26 @@ package com.github.zjh7890.gpttools.services
 import com.github.zjh7890.gpttools.toolWindow.chat.ChatRole
 import com.github.zjh7890.gpttools.toolWindow.llmChat.LLMChatToolWindowFactory
 import com.github.zjh7890.gpttools.utils.FileUtil
+import com.intellij.concurrency.JobLauncher
 import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.application.ReadAction
 import com.intellij.openapi.components.Service
 import com.intellij.openapi.diagnostic.logger
+import com.intellij.openapi.progress.ProgressIndicator
+import com.intellij.openapi.progress.Task
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.project.ProjectManager
+import com.intellij.openapi.vfs.VfsUtilCore
 import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.VirtualFileVisitor
 import com.intellij.psi.PsiClass
 import com.intellij.psi.PsiManager
 import com.intellij.psi.PsiMethod
+import com.intellij.psi.util.PsiTreeUtil
 import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
 
 @Service(Service.Level.PROJECT)
 class SessionManager(private val project: Project) : Disposable {
@@ -50,6 +60,8 @@ class SessionManager(private val project: Project) : Disposable {
                 currentSession = currentProjectSessions.maxByOrNull { it.startTime }
                     ?: currentProjectSessions.first()
             }
+            // 补齐上次运行后没有进索引的消息，并删除已不存在的会话
+            ChatHistoryIndexService.getInstance().syncAllAsync(sessions.values)
         } catch (e: Exception) {
             logger.error("Failed to load chat sessions from file: $sessionFilePath", e)
             // 如果加载失败，创建新会话
@@ -94,6 +106,28 @@ class SessionManager(private val project: Project) : Disposable {
         return sessions.values.toList()
     }
 
+    fun getSession(id: String): ChatSession? = sessions[id]
+
+    /**
+     * 当前项目的会话摘要，按开始时间倒序
+     */
+    fun getSessionSummaries(): List<SessionSummary> {
+        return sessions.values
+            .filter { it.project == project }
+            .sortedByDescending { it.startTime }
+            .map { it.summary() }
+    }
+
+    /**
+     * 分页获取会话消息的预览，offset 超出范围时返回空列表
+     */
+    fun getMessagePreviews(sessionId: String, offset: Int, limit: Int, maxLines: Int, maxLineChars: Int): List<MessagePreview> {
+        val messages = sessions[sessionId]?.messages ?: return emptyList()
+        if (offset >= messages.size) return emptyList()
+        return messages.subList(offset, minOf(messages.size, offset + limit))
+            .map { it.preview(maxLines, maxLineChars) }
+    }
+
     /**
      * 设置当前激活的会话
      */
@@ -111,10 +145,13 @@ class SessionManager(private val project: Project) : Disposable {
 
     /**
      * 保存所有会话到文件
+     *
+     * @param changed 消息有变化、需要更新索引的会话，默认是当前会话；修改的不是当前会话时需要显式传入
      */
-    fun saveSessions() {
+    fun saveSessions(changed: Collection<ChatSession> = listOf(currentSession)) {
         val sessionsData = sessions.values.map { it.toSerializable() }
         FileUtil.writeJsonToFile(sessionFilePath, sessionsData)
+        ChatHistoryIndexService.getInstance().updateAsync(changed)
         notifySessionListChanged()
     }
 
@@ -136,6 +173,65 @@ class SessionManager(private val project: Project) : Disposable {
         notifyAllFileTreePanels(currentSession)
     }
 
+    /**
+     * 批量添加文件（目录会递归展开）：后台可取消地并行分析，全部完成后一次性合并到会话，
+     * 只保存一次、刷新一次文件树；取消时会话不变
+     */
+    fun addFilesToCurrentSession(selection: List<VirtualFile>) {
+        val session = currentSession
+        object : Task.Backgroundable(project, "Adding files to session", true) {
+            override fun run(indicator: ProgressIndicator) {
+                indicator.isIndeterminate = true
+                indicator.text = "Collecting files"
+                val files = collectFiles(selection, indicator)
+                if (files.isEmpty()) return
+
+                indicator.isIndeterminate = false
+                indicator.text = "Analyzing ${files.size} files"
+                val analyzed = ConcurrentHashMap<VirtualFile, Collection<PsiClass>>()
+                val done = AtomicInteger()
+                JobLauncher.getInstance().invokeConcurrentlyUnderProgress(files, indicator) { file ->
+                    analyzed[file] = ReadAction.compute<Collection<PsiClass>, RuntimeException> {
+                        val psiFile = if (file.isValid) PsiManager.getInstance(project).findFile(file) else null
+                        psiFile?.let { PsiTreeUtil.findChildrenOfType(it, PsiClass::class.java) } ?: emptyList()
+                    }
+                    indicator.fraction = done.incrementAndGet().toDouble() / files.size
+                    true
+                }
+                indicator.checkCanceled()
+
+                ApplicationManager.getApplication().invokeLater({
+                    // EDT 上本来就可以读 PSI
+                    files.forEach { file ->
+                        if (!file.isValid) return@forEach
+                        val classes = analyzed[file].orEmpty().filter { it.isValid }
+                        session.appFileTree.addFile(file, project, true, classes)
+                    }
+                    // saveSessions 会刷新会话列表
+                    saveSessions()
+                    // 后台分析期间切换了会话时，文件树显示的已不是这个会话
+                    if (session === currentSession) {
+                        notifyAllFileTreePanels(session)
+                    }
+                }, project.disposed)
+            }
+        }.queue()
+    }
+
+    private fun collectFiles(selection: List<VirtualFile>, indicator: ProgressIndicator): List<VirtualFile> {
+        val files = LinkedHashSet<VirtualFile>()
+        selection.forEach { root ->
+            VfsUtilCore.visitChildrenRecursively(root, object : VirtualFileVisitor<Any>() {
+                override fun visitFile(file: VirtualFile): Boolean {
+                    indicator.checkCanceled()
+                    if (!file.isDirectory) files.add(file)
+                    return true
+                }
+            })
+        }
+        return files.toList()
+    }
+
     fun addClassToCurrentSession(psiClass: PsiClass) {
         currentSession.appFileTree.addClass(psiClass, project)
 
@@ -202,8 +298,9 @@ class SessionManager(private val project: Project) : Disposable {
      */
     fun appendLocalMessage(role: ChatRole, msg: String): ChatContextMessage {
         val message = ChatContextMessage(role, msg)
-        getCurrentSession().add(message)
-        saveSessions()
+        val session = getCurrentSession()
+        session.add(message)
+        saveSessions(listOf(session))
         notifySessionListChanged()
         return message
     }
@@ -223,7 +320,7 @@ class SessionManager(private val project: Project) : Disposable {
         val index = currentSession.messages.indexOf(chatMessage)
         if (index >= 0 && index < currentSession.messages.size - 1) {
             currentSession.messages.subList(index + 1, currentSession.messages.size).clear()
-            saveSessions()
+            saveSessions(listOf(currentSession))
             notifySessionListChanged()
         }
     }
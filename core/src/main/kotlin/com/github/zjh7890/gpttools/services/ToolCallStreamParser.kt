@@ -0,0 +1,89 @@
+package com.github.zjh7890.gpttools.services
+
+/**
+ * 按行解析模型回复中的动作，[ToolsCallManager.parseModelReply] 使用。
+ *
+ * GPT_ACTION_RESPONSE 之后，代码块外的最后一行非空文本是动作描述，代码块的语言是命令类型，代码块内容是命令。
+ * 每个代码块闭合时回调 [onAction]；输入可以分多次 [feed]，跨片段的半行会保留到下一次，最后调用 [finish]。
+ */
+class ToolCallStreamParser(private val onAction: (Action) -> Unit) {
+    private enum class State { WAIT_MARKER, DESCRIPTION, COMMAND }
+
+    private var state = State.WAIT_MARKER
+    private val pending = StringBuilder()
+    private var commandType = ""
+    private var actionDesc: String? = null
+    private val actionCommand = mutableListOf<String>()
+
+    fun feed(chunk: String) {
+        var start = 0
+        while (true) {
+            val newline = chunk.indexOf('\n', start)
+            if (newline < 0) {
+                pending.append(chunk, start, chunk.length)
+                return
+            }
+            if (pending.isEmpty()) {
+                processLine(chunk.substring(start, newline))
+            } else {
+                pending.append(chunk, start, newline)
+                processLine(pending.toString())
+                pending.setLength(0)
+            }
+            start = newline + 1
+        }
+    }
+
+    /**
+     * 回复结束时调用，处理最后一行和没有闭合的代码块
+     */
+    fun finish() {
+        // 与 split('\n') 一致：最后一个换行之后即使为空也算一行，未闭合代码块里会保留这个空行
+        processLine(pending.toString())
+        pending.setLength(0)
+        if (state == State.COMMAND && actionCommand.isNotEmpty()) {
+            emit()
+        }
+    }
+
+    private fun processLine(line: String) {
+        val trimmedLine = line.trim()
+        if (MARKER in trimmedLine) {
+            if (state == State.WAIT_MARKER) state = State.DESCRIPTION
+            return
+        }
+        when (state) {
+            State.WAIT_MARKER -> return
+            State.DESCRIPTION -> {
+                if (trimmedLine.startsWith(FENCE)) {
+                    // 提取命令类型，例如 shell 或 custom
+                    val type = trimmedLine.substring(FENCE.length)
+                    commandType = if (type.all { it.isLetterOrDigit() && it.code < 128 || it == '_' }) type else ""
+                    state = State.COMMAND
+                } else if (trimmedLine.isNotEmpty()) {
+                    actionDesc = trimmedLine
+                }
+            }
+            State.COMMAND -> {
+                if (trimmedLine.startsWith(FENCE)) {
+                    emit()
+                    actionDesc = ""
+                    state = State.DESCRIPTION
+                } else {
+                    actionCommand.add(trimmedLine)
+                }
+            }
+        }
+    }
+
+    private fun emit() {
+        onAction(Action(actionDesc ?: "", commandType, actionCommand.joinToString("\n")))
+        actionCommand.clear()
+        commandType = ""
+    }
+
+    companion object {
+        private const val MARKER = "GPT_ACTION_RESPONSE"
+        private const val FENCE = "```"
+    }
+}
@@ -0,0 +1,197 @@
+package com.github.zjh7890.gpttools.services
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.ObjectReader
+import com.fasterxml.jackson.module.kotlin.jacksonObjectMapper
+import com.github.zjh7890.gpttools.utils.Desc
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.diagnostic.logger
+import com.intellij.openapi.extensions.ExtensionPointName
+import com.intellij.openapi.project.Project
+import java.lang.invoke.MethodHandle
+import java.lang.invoke.MethodHandles
+import java.lang.invoke.MethodType
+import kotlin.reflect.KClass
+import kotlin.reflect.KFunction
+import kotlin.reflect.KParameter
+import kotlin.reflect.full.findAnnotation
+import kotlin.reflect.full.memberFunctions
+import kotlin.reflect.full.primaryConstructor
+import kotlin.reflect.full.valueParameters
+import kotlin.reflect.jvm.javaMethod
+import kotlin.reflect.jvm.javaType
+
+/**
+ * 提供工具方法的类，方法上用 [Desc] 标注描述，实例按项目获取
+ */
+interface ToolProvider {
+    val toolClass: KClass<*>
+
+    fun getInstance(project: Project): Any
+}
+
+class ToolsServiceToolProvider : ToolProvider {
+    override val toolClass: KClass<*> = ToolsService::class
+
+    override fun getInstance(project: Project): Any = project.getService(ToolsService::class.java)
+}
+
+/**
+ * 所有工具方法的注册表。
+ *
+ * 第一次使用时扫描各 [ToolProvider] 的 [Desc] 方法，为每个方法建好 MethodHandle 和参数反序列化器，
+ * 并生成给模型看的工具说明；之后的调用只是按名字查表再直接调用。插件动态加载卸载时重新扫描。
+ */
+@Service(Service.Level.APP)
+class ToolRegistry : Disposable {
+    private val logger = logger<ToolRegistry>()
+
+    internal class ParameterBinder(val name: String, val reader: ObjectReader)
+
+    class Tool internal constructor(
+        val name: String,
+        val description: String,
+        private val provider: ToolProvider,
+        /** (Object, Object[]) -> Object */
+        private val invoker: MethodHandle,
+        private val binders: List<ParameterBinder>
+    ) {
+        /**
+         * @param arguments JSON 对象，键是参数名，缺少的参数传 null
+         * @return 返回值是字符串时原样返回，否则转成 JSON
+         */
+        fun invoke(project: Project, arguments: String): String {
+            val argsNode = if (arguments.isBlank()) null else OBJECT_MAPPER.readTree(arguments)
+            val args = arrayOfNulls<Any>(binders.size)
+            binders.forEachIndexed { index, binder ->
+                val node: JsonNode? = argsNode?.get(binder.name)
+                args[index] = if (node == null || node.isNull) null else binder.reader.readValue<Any?>(node)
+            }
+            val result: Any? = invoker.invoke(provider.getInstance(project), args)
+            return result as? String ?: OBJECT_MAPPER.writeValueAsString(result)
+        }
+    }
+
+    @Volatile
+    private var tools: Map<String, Tool>? = null
+
+    @Volatile
+    private var toolsText: String? = null
+
+    /** 工具名 -> 入参示例 JSON */
+    private val sampleArguments = HashMap<String, String>()
+
+    init {
+        TOOL_PROVIDER_EP.addChangeListener({ reset() }, this)
+    }
+
+    fun getTools(): Collection<Tool> = loadTools().values
+
+    fun findTool(name: String): Tool? = loadTools()[name]
+
+    /**
+     * 工具说明：序号、名称、描述和入参示例
+     */
+    fun getToolsText(): String {
+        toolsText?.let { return it }
+        val builder = StringBuilder()
+        getTools().forEachIndexed { index, tool ->
+            builder.append("${index + 1}. ${tool.name}\n")
+            builder.append("描述：${tool.description}\n")
+            builder.append("入参：${sampleArguments[tool.name]}\n")
+        }
+        return builder.toString().also { toolsText = it }
+    }
+
+    @Synchronized
+    private fun loadTools(): Map<String, Tool> {
+        tools?.let { return it }
+        val result = LinkedHashMap<String, Tool>()
+        sampleArguments.clear()
+        for (provider in BUILT_IN_PROVIDERS + TOOL_PROVIDER_EP.extensionList) {
+            provider.toolClass.memberFunctions.forEach { function ->
+                val desc = function.findAnnotation<Desc>() ?: return@forEach
+                try {
+                    if (result.containsKey(function.name)) {
+                        logger.warn("Duplicate tool ${function.name} in ${provider.toolClass}, ignored")
+                        return@forEach
+                    }
+                    result[function.name] = createTool(provider, function.name, desc.description, function)
+                    sampleArguments[function.name] = OBJECT_MAPPER.writeValueAsString(
+                        function.valueParameters.associate { (it.name ?: "unknown") to generateSampleParameterValues(it) }
+                    )
+                } catch (e: Exception) {
+                    logger.warn("Failed to register tool ${function.name} in ${provider.toolClass}", e)
+                }
+            }
+        }
+        tools = result
+        return result
+    }
+
+    private fun createTool(
+        provider: ToolProvider,
+        name: String,
+        description: String,
+        function: KFunction<*>
+    ): Tool {
+        val method = function.javaMethod ?: throw IllegalArgumentException("Tool $name is not a JVM method")
+        val parameters = function.valueParameters
+        val binders = parameters.map { parameter ->
+            val javaType = OBJECT_MAPPER.typeFactory.constructType(parameter.type.javaType)
+            ParameterBinder(parameter.name!!, OBJECT_MAPPER.readerFor(javaType))
+        }
+        // 统一成 (Object, Object[]) -> Object，调用时不用再做类型匹配
+        val invoker = MethodHandles.publicLookup().unreflect(method)
+            .asSpreader(Array<Any?>::class.java, parameters.size)
+            .asType(MethodType.methodType(Any::class.java, Any::class.java, Array<Any?>::class.java))
+        return Tool(name, description, provider, invoker, binders)
+    }
+
+    private fun generateSampleParameterValues(parameter: KParameter): Any? {
+        val type = parameter.type
+        val classifier = type.classifier as? KClass<*>
+
+        return when (classifier) {
+            String::class -> "exampleString"
+            Int::class, Long::class, Float::class, Double::class, Short::class, Byte::class -> 0
+            Boolean::class -> true
+            List::class, Set::class, Collection::class -> listOf("item1", "item2")
+            else -> if (classifier != null && classifier.isData) {
+                // For data classes, generate a map of property names to sample values
+                val paramMap = mutableMapOf<String, Any?>()
+                classifier.primaryConstructor?.parameters?.forEach { param ->
+                    val paramName = param.name ?: "unknown"
+                    val paramValue = generateSampleParameterValues(param)
+                    paramMap[paramName] = paramValue
+                }
+                paramMap
+            } else "unknown"
+        }
+    }
+
+    @Synchronized
+    private fun reset() {
+        tools = null
+        toolsText = null
+    }
+
+    override fun dispose() {
+    }
+
+    companion object {
+        private val TOOL_PROVIDER_EP = ExtensionPointName<ToolProvider>("com.github.zjh7890.gpttools.toolProvider")
+
+        /** 内置工具不走扩展点，保证没有注册扩展时也可用 */
+        private val BUILT_IN_PROVIDERS = listOf<ToolProvider>(ToolsServiceToolProvider())
+
+        private val OBJECT_MAPPER = jacksonObjectMapper()
+
+        @JvmStatic
+        fun getInstance(): ToolRegistry {
+            return ApplicationManager.getApplication().getService(ToolRegistry::class.java)
+        }
+    }
+}
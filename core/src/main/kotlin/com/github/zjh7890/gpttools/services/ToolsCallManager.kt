@@ -1,10 +1,8 @@
 package com.github.zjh7890.gpttools.services
 
-import com.fasterxml.jackson.module.kotlin.jacksonObjectMapper
 import com.github.zjh7890.gpttools.toolWindow.chat.ChatRole
 import com.github.zjh7890.gpttools.toolWindow.llmChat.ChatPanel
 import com.github.zjh7890.gpttools.utils.CmdUtils
-import com.github.zjh7890.gpttools.utils.Desc
 import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.ui.DialogWrapper
@@ -12,12 +10,6 @@ import com.intellij.ui.components.JBLabel
 import javax.swing.JPanel
 import javax.swing.JTextField
 import java.awt.BorderLayout
-import kotlin.reflect.KClass
-import kotlin.reflect.KParameter
-import kotlin.reflect.full.findAnnotation
-import kotlin.reflect.full.memberFunctions
-import kotlin.reflect.full.primaryConstructor
-import kotlin.reflect.full.valueParameters
 
 /**
  * ToolsCallManager 负责处理与工具调用相关的逻辑，包括解析模型回复和执行确认的动作。
@@ -31,53 +23,9 @@ class ToolsCallManager(private val project: Project, private val sessionManager:
      */
     fun parseModelReply(reply: String): List<Action> {
         val actions = mutableListOf<Action>()
-        val lines = reply.split('\n')
-        var captureCommand = false
-        var commandType = ""
-        var actionDesc: String? = null
-        val actionCommand = mutableListOf<String>()
-        var foundActionResponse = false
-
-        for (line in lines) {
-            val trimmedLine = line.trim()
-
-            if ("GPT_ACTION_RESPONSE" in trimmedLine) {
-                foundActionResponse = true
-                continue
-            }
-
-            if (!foundActionResponse) {
-                continue
-            }
-
-            if (trimmedLine.startsWith("```")) {
-                if (captureCommand) {
-                    actions.add(Action(actionDesc ?: "", commandType, actionCommand.joinToString("\n")))
-                    captureCommand = false
-                    actionCommand.clear()
-                    commandType = ""
-                    actionDesc = ""
-                } else {
-                    captureCommand = true
-                    // 提取命令类型，例如 shell 或 custom
-                    val codeFencePattern = Regex("""```(\w+)?""")
-                    val match = codeFencePattern.matchEntire(trimmedLine)
-                    commandType = match?.groupValues?.get(1) ?: ""
-                }
-                continue
-            }
-
-            if (captureCommand) {
-                actionCommand.add(trimmedLine)
-            } else if (trimmedLine.isNotEmpty()) {
-                actionDesc = trimmedLine
-            }
-        }
-
-        // 处理最后一个命令
-        if (captureCommand && actionCommand.isNotEmpty()) {
-            actions.add(Action(actionDesc ?: "", commandType, actionCommand.joinToString("\n")))
-        }
+        val parser = ToolCallStreamParser { actions.add(it) }
+        parser.feed(reply)
+        parser.finish()
 
         logger.info("Parsed Actions: $actions")
         return actions
@@ -95,8 +43,15 @@ class ToolsCallManager(private val project: Project, private val sessionManager:
                     val modifiedCommand = dialog.getModifiedCommand()
                     if (modifiedCommand.isNotEmpty()) {
                         ApplicationManager.getApplication().executeOnPooledThread {
-                            ApplicationManager.getApplication().runReadAction {
-                                val result = CmdUtils.executeCmd(modifiedCommand, commandType, project)
+                            // 只有自定义命令需要读锁，shell 命令可能执行很久，不能一直持有读锁
+                            val result = if (CmdUtils.isCustomCommand(modifiedCommand, commandType)) {
+                                ApplicationManager.getApplication().runReadAction<String> {
+                                    CmdUtils.executeCmd(modifiedCommand, commandType, project)
+                                }
+                            } else {
+                                CmdUtils.executeCmd(modifiedCommand, commandType, project)
+                            }
+                            ApplicationManager.getApplication().invokeLater {
                                 ui.addMessage(result, chatMessage = null)
                                 sessionManager.appendLocalMessage(ChatRole.assistant, result)
                             }
@@ -112,51 +67,9 @@ class ToolsCallManager(private val project: Project, private val sessionManager:
     }
 
     fun getTools(): String {
-        val builder = StringBuilder()
-        val objectMapper = jacksonObjectMapper()
-        val functions = ToolsService::class.memberFunctions.filter { function ->
-            function.findAnnotation<Desc>() != null
-        }
-        functions.forEachIndexed { index, function ->
-            val methodDescription = function.findAnnotation<Desc>()?.description ?: "No description"
-            val name = function.name
-            val parameters = function.valueParameters.associate { subParam ->
-                val key: String = subParam.name ?: "unknown"
-                val value: Any? = generateSampleParameterValues(subParam)
-                key to value
-            }
-            val parametersJson = objectMapper.writeValueAsString(parameters)
-            builder.append("${index + 1}. $name\n")
-            builder.append("描述：$methodDescription\n")
-            builder.append("入参：$parametersJson\n")
-        }
-        return builder.toString()
-    }
-
-    fun generateSampleParameterValues(parameter: KParameter): Any? {
-        val type = parameter.type
-        val classifier = type.classifier as? KClass<*>
-
-        return when (classifier) {
-            String::class -> "exampleString"
-            Int::class, Long::class, Float::class, Double::class, Short::class, Byte::class -> 0
-            Boolean::class -> true
-            List::class, Set::class, Collection::class -> listOf("item1", "item2")
-            else -> if (classifier != null && classifier.isData) {
-                // For data classes, generate a map of property names to sample values
-                val paramMap = mutableMapOf<String, Any?>()
-                classifier.primaryConstructor?.parameters?.forEach { param ->
-                    val paramName = param.name ?: "unknown"
-                    val paramValue = generateSampleParameterValues(param)
-                    paramMap[paramName] = paramValue
-                }
-                paramMap
-            } else "unknown"
-        }
+        return ToolRegistry.getInstance().getToolsText()
     }
 
-
-
     /**
      * CommandDialog 用于显示命令编辑对话框
      */
@@ -3,13 +3,11 @@ package com.github.zjh7890.gpttools.services
 import com.github.zjh7890.gpttools.utils.Desc
 import com.github.zjh7890.gpttools.utils.DirectoryUtil
 import com.github.zjh7890.gpttools.utils.FileUtil
+import com.intellij.openapi.application.ReadAction
 import com.intellij.openapi.components.Service
 import com.intellij.openapi.project.Project
-import com.intellij.openapi.vfs.LocalFileSystem
-import com.intellij.psi.JavaPsiFacade
+import com.intellij.psi.PsiClass
 import com.intellij.psi.PsiMethod
-import com.intellij.psi.search.GlobalSearchScope
-import java.util.stream.Collectors
 
 /**
  * @Date: 2024/9/28 08:28
@@ -24,48 +22,31 @@ class ToolsService(val project: Project) {
             return "未找到该项目"
         }
 
-        val basePath = project.basePath ?: return "未找到该项目路径"
-        val baseDir = LocalFileSystem.getInstance().findFileByPath(basePath) ?: return "未找到该项目的根目录"
-        return DirectoryUtil.processDirectory(baseDir, "", srcParentPath = null)
+        project.basePath ?: return "未找到该项目路径"
+        return ProjectStructureService.getInstance(project).getDirectoryContents(skipBuildOutput = false)
     }
 
-    @Desc("根据简单类名获取文件内容，如 HelloService")
+    @Desc("根据简单类名获取类的内容，如 HelloService")
     fun getFileContentBySimpleClassName(className: String): String {
-        val projectScope = GlobalSearchScope.projectScope(project)
-
-        // 使用 JavaPsiFacade 搜索类
-        val psiClass = JavaPsiFacade.getInstance(project).findClass(className, projectScope)
-
-        return if (psiClass != null) {
-            // 获取类对应的文件并返回其内容
-            psiClass.containingFile?.virtualFile?.contentsToByteArray()?.toString(Charsets.UTF_8)
-                ?: "未能获取文件内容"
-        } else {
-            "未找到类名为 $className 的文件"
+        val lookup = CodeLookupService.getInstance(project)
+        val classes = lookup.findClassesBySimpleName(className)
+        if (classes.isEmpty()) {
+            return "未找到类名为 $className 的文件"
         }
+        return withBorder(lookup.classText(classes.first())) + otherCandidates(classes)
     }
 
-    @Desc("根据全限定类名获取文件内容，如 com.nice.HelloService")
+    @Desc("根据全限定类名获取类的内容，如 com.nice.HelloService")
     fun getFileContentByQualifiedClassName(qualifiedClassName: String): String {
-        val projectScope = GlobalSearchScope.projectScope(project)
-
-        // 根据全限定类名查找
-        val psiClass = JavaPsiFacade.getInstance(project).findClass(qualifiedClassName, projectScope)
-
-        return if (psiClass != null) {
-            // 获取类对应的文件并返回其内容
-            val content = psiClass.containingFile?.virtualFile?.contentsToByteArray()?.toString(Charsets.UTF_8)
-            val res = (content
-                ?: "未能获取文件内容")
-            val border = FileUtil.determineBorder(res)
-            return "${border}\n${res}\n${border}"
-
-        } else {
-            "未找到类名为 $qualifiedClassName 的文件"
+        val lookup = CodeLookupService.getInstance(project)
+        val classes = lookup.findClassesByQualifiedName(qualifiedClassName)
+        if (classes.isEmpty()) {
+            return "未找到类名为 $qualifiedClassName 的文件"
         }
+        return withBorder(lookup.classText(classes.first())) + otherCandidates(classes)
     }
 
-    @Desc("根据函数签名获取参数返回值信息，签名形如 com.user.UserService#getUserByUid(java.lang.Long, java.lang.Integer)，方法名 getUserByUid 后可能有参数，可能没有参数，取决于该方法是否重载")
+    @Desc("根据函数签名获取方法的内容，签名形如 com.user.UserService#getUserByUid(java.lang.Long, java.lang.Integer)，方法名 getUserByUid 后可能有参数，可能没有参数，取决于该方法是否重载")
     fun getMethodDetailsBySignature(signature: String): String {
         // 签名格式：com.yupaopao.xxq.user.UserService#getUserByUid(java.lang.Long, java.lang.Integer)
         val parts = signature.split("#")
@@ -76,51 +57,40 @@ class ToolsService(val project: Project) {
 
         val methodName = methodSignature.substringBefore('(')  // 方法名，如 getUserByUid
         val parametersSignature = methodSignature.substringAfter('(', "").substringBefore(')', "")  // 参数签名，如 java.lang.Long, java.lang.Integer
+        val expectedParameterTypes = parametersSignature.split(",").map { it.trim() }.filter { it.isNotEmpty() }
 
-        // 获取项目范围
-        val projectScope = GlobalSearchScope.projectScope(project)
-
+        val lookup = CodeLookupService.getInstance(project)
         // 查找类
-        val psiClass = JavaPsiFacade.getInstance(project).findClass(className, projectScope)
+        val psiClass = lookup.findClassesByQualifiedName(className).firstOrNull()
             ?: return "未找到类: $className"
 
-        // 获取类中的所有方法
-        val methods = psiClass.findMethodsByName(methodName, false)
-
-        var matchingMethods = mutableListOf<PsiMethod>()
-        if (methods.size <= 0) {
-            matchingMethods = methods.toMutableList()
-        } else {
-            // 查找匹配的方法
-            matchingMethods = methods.filter { method ->
+        // 查找匹配的方法，没有给参数时返回所有重载
+        val matchingMethods = ReadAction.compute<List<PsiMethod>, RuntimeException> {
+            psiClass.findMethodsByName(methodName, false).filter { method ->
                 val parameterTypes = method.parameterList.parameters.map { param -> param.type.canonicalText }
-
-                // 比较参数签名
-                val expectedParameterTypes = parametersSignature.split(",").map { it.trim() }.filter { it.isNotEmpty() }
-                if (expectedParameterTypes.isEmpty()) {
-                    return@filter true
-                }
-                expectedParameterTypes.size == parameterTypes.size &&
-                        expectedParameterTypes.zip(parameterTypes).all { (expected, actual) -> expected == actual }
-            }.toMutableList()
+                expectedParameterTypes.isEmpty() ||
+                        (expectedParameterTypes.size == parameterTypes.size &&
+                                expectedParameterTypes.zip(parameterTypes).all { (expected, actual) -> expected == actual })
+            }.sortedBy { it.textOffset }
         }
 
         if (matchingMethods.isEmpty()) {
             return "未找到匹配的方法: $methodName($parametersSignature)"
         }
+        return withBorder(matchingMethods.joinToString("\n\n") { lookup.methodText(it) })
+    }
 
-//        val method = matchingMethods.get(0)
-//        val classes = findClassesFromMethod(method, project)
-//        val classInfos =
-//            classes.stream().map { x -> x.className }.collect(Collectors.toList()).joinToString("\n")
-//        val GPT_methodInfo = classes.joinToString("\n")
-//        val GPT_methodName = method.name
-//        return """
-//${GPT_methodName}
-//参数及返回值信息:
-//${GPT_methodInfo}
-//        """.trimIndent()
-        return ""
+    private fun withBorder(text: String): String {
+        val border = FileUtil.determineBorder(text)
+        return "${border}\n${text}\n${border}"
+    }
+
+    private fun otherCandidates(classes: List<PsiClass>): String {
+        if (classes.size <= 1) return ""
+        val others = ReadAction.compute<String, RuntimeException> {
+            classes.drop(1).joinToString(", ") { it.qualifiedName ?: it.name ?: "" }
+        }
+        return "\n另有同名类：$others"
     }
 
     @Desc("读取文件列表内容")
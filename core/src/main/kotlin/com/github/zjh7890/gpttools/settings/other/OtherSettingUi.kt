@@ -1,5 +1,6 @@
 package com.github.zjh7890.gpttools.settings.other
 
+import com.intellij.ui.JBIntSpinner
 import com.intellij.ui.components.JBCheckBox
 import java.awt.BorderLayout
 import java.awt.FlowLayout
@@ -25,6 +26,7 @@ class OtherSettingUi {
         toolTipText = "每行一个正则表达式，匹配依赖 jar 包类路径，路径形如 /Users/zjh/.m2/repository/com/platform/config-client/0.10.21/config-client-0.10.21.jar!/com/ctrip/framework/apollo/Config.class"
         text = ".*com\\/platform*"  // 设置 placeHolder
     }
+    private val reviewTokenBudgetSpinner = JBIntSpinner(60000, 1000, 1_000_000, 1000)
 
     val component: JPanel = JPanel().apply {
         layout = BorderLayout()
@@ -64,6 +66,12 @@ class OtherSettingUi {
                 add(JLabel("Dependency Patterns:"), BorderLayout.WEST)
                 add(JScrollPane(dependencyPatternsArea), BorderLayout.CENTER)
             })
+
+            add(JPanel().apply {
+                layout = FlowLayout(FlowLayout.LEFT, 5, 0)
+                add(JLabel("Review Token Budget:"))
+                add(reviewTokenBudgetSpinner)
+            })
         }
         
         add(mainPanel, BorderLayout.NORTH)  // 将主面板添加到顶部
@@ -80,7 +88,8 @@ class OtherSettingUi {
                 showAllMethodFileCheckBox.isSelected != settings.showAllMethodFile ||
                 showOpenChatLogDirectoryActionCheckBox.isSelected != settings.showOpenChatLogDirectoryAction ||
                 showGptToolsContextWindowCheckBox.isSelected != settings.showGptToolsContextWindow ||
-                dependencyPatternsArea.text != settings.dependencyPatterns
+                dependencyPatternsArea.text != settings.dependencyPatterns ||
+                reviewTokenBudgetSpinner.number != settings.reviewTokenBudget
     }
 
     fun apply(settings: OtherSettingsState) {
@@ -95,6 +104,7 @@ class OtherSettingUi {
         settings.showOpenChatLogDirectoryAction = showOpenChatLogDirectoryActionCheckBox.isSelected
         settings.showGptToolsContextWindow = showGptToolsContextWindowCheckBox.isSelected
         settings.dependencyPatterns = dependencyPatternsArea.text
+        settings.reviewTokenBudget = reviewTokenBudgetSpinner.number
     }
 
     fun reset(settings: OtherSettingsState) {
@@ -109,5 +119,6 @@ class OtherSettingUi {
         showOpenChatLogDirectoryActionCheckBox.isSelected = settings.showOpenChatLogDirectoryAction
         showGptToolsContextWindowCheckBox.isSelected = settings.showGptToolsContextWindow
         dependencyPatternsArea.text = settings.dependencyPatterns
+        reviewTokenBudgetSpinner.number = settings.reviewTokenBudget
     }
 }
\ No newline at end of file
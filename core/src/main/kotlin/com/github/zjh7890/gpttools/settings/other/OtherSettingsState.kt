@@ -24,6 +24,7 @@ class OtherSettingsState : PersistentStateComponent<OtherSettingsState> {
     var showOpenChatLogDirectoryAction: Boolean = false
     var showGptToolsContextWindow: Boolean = false
     var dependencyPatterns: String = ""  // 默认值
+    var reviewTokenBudget: Int = 60000  // review 变更时 diff 上下文的 token 预算
 
     @Synchronized
     override fun getState(): OtherSettingsState = this
@@ -11,6 +11,7 @@ import com.github.zjh7890.gpttools.toolWindow.llmChat.ChatPanel
 import com.github.zjh7890.gpttools.toolWindow.llmChat.LLMChatToolWindowFactory
 import com.github.zjh7890.gpttools.utils.DirectoryUtil
 import com.intellij.icons.AllIcons
+import com.intellij.openapi.Disposable
 import com.intellij.openapi.actionSystem.ActionManager
 import com.intellij.openapi.actionSystem.AnAction
 import com.intellij.openapi.actionSystem.AnActionEvent
@@ -18,6 +19,7 @@ import com.intellij.openapi.actionSystem.DefaultActionGroup
 import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.diagnostic.logger
 import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.Disposer
 import com.intellij.ui.JBColor
 import com.intellij.ui.components.JBPanel
 import com.intellij.ui.components.panels.VerticalLayout
@@ -36,13 +38,17 @@ class MessageView(
     render: Boolean,
     val chatMessage: ChatContextMessage?,
     val chatPanel: ChatPanel
-) : JBPanel<MessageView>() {
+) : JBPanel<MessageView>(), Disposable {
     private val myNameLabel: Component
     private val component: DisplayComponent = DisplayComponent(message)
     var centerPanel: JPanel = JPanel(VerticalLayout(JBUI.scale(8)))
     val componentList : MutableList<Component> = mutableListOf(component)
 
+    // 代码块编辑器挂在这里，重新渲染或消息被回收时归还到编辑器池
+    private var renderDisposable: Disposable = newRenderDisposable()
+
     init {
+        Disposer.register(chatPanel, this)
         isDoubleBuffered = true
         isOpaque = true
         background = when (role) {
@@ -118,7 +124,7 @@ class MessageView(
         parts.forEach {
             val blockView = when (it) {
                 is CodeBlock -> {
-                    CodeBlockView(it, project) { }
+                    CodeBlockView(it, project, renderDisposable, chatPanel.editorPool)
                 }
                 is CodeChange -> {
                     CodeChangeBlockView(it, project)
@@ -156,6 +162,8 @@ class MessageView(
                 centerPanel.remove(displayComponent)
             }
             componentList.clear()
+            Disposer.dispose(renderDisposable)
+            renderDisposable = newRenderDisposable()
             centerPanel.updateUI()
 
             val message = SimpleMessage(answer, answer, ChatRole.assistant)
@@ -166,6 +174,15 @@ class MessageView(
         }
     }
 
+    private fun newRenderDisposable(): Disposable {
+        val disposable = Disposer.newDisposable("MessageView render")
+        Disposer.register(this, disposable)
+        return disposable
+    }
+
+    override fun dispose() {
+    }
+
     internal inner class MessageWorker(private val message: String) : SwingWorker<Void?, String?>() {
         @Throws(Exception::class)
         override fun doInBackground(): Void? {
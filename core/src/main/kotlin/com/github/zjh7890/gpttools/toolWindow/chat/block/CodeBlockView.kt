@@ -42,6 +42,7 @@ class CodeBlockView(
     private val block: CodeBlock,
     private val project: Project,
     private val disposable: Disposable,
+    private val editorPool: CodeEditorPool? = null,
 ) : MessageBlockView {
 
     private var editorInfo: CodePartEditorInfo? = null
@@ -81,7 +82,7 @@ class CodeBlockView(
         // 使用原始的代码展示逻辑
         if (editorInfo == null) {
             val graphProperty = PropertyGraph().property(code.text)
-            editorInfo = createCodeViewer(project, graphProperty, disposable, code.language, getBlock().getMessage(), getBlock())
+            editorInfo = createCodeViewer(project, graphProperty, disposable, code.language, getBlock().getMessage(), getBlock(), editorPool)
         }
         return editorInfo!!.component
     }
@@ -104,11 +105,17 @@ class CodeBlockView(
             }
 
             editor.setFile(file)
-            editor.setCaretEnabled(true)
-
             val highlighter = EditorHighlighterFactory.getInstance().createEditorHighlighter(project, file)
-
             editor.highlighter = highlighter
+            configureViewer(editor)
+            return editor
+        }
+
+        /**
+         * 代码块只读编辑器的通用设置，每个编辑器只需调用一次
+         */
+        fun configureViewer(editor: EditorEx) {
+            editor.setCaretEnabled(true)
 
             val markupModel: MarkupModelEx = editor.markupModel
             (markupModel as EditorMarkupModel).isErrorStripeVisible = false
@@ -137,8 +144,6 @@ class CodeBlockView(
                     editor.markupModel.removeAllHighlighters()
                 }
             })
-
-            return editor
         }
 
         fun createCodeViewer(
@@ -148,17 +153,26 @@ class CodeBlockView(
             language: Language,
             message: CompletableMessage,
             block: CodeBlock,
+            editorPool: CodeEditorPool? = null,
         ): CodePartEditorInfo {
-            val file = LightVirtualFile(AUTODEV_SNIPPET_NAME, language, graphProperty.get())
-            if (file.fileType == UnknownFileType.INSTANCE) {
-                file.fileType = PlainTextFileType.INSTANCE
-            }
+            val editor: EditorEx
+            val file: LightVirtualFile
+            if (editorPool != null) {
+                // 从池中借编辑器，所属消息被回收时归还
+                editor = editorPool.acquire(graphProperty.get(), language)
+                file = editor.virtualFile as LightVirtualFile
+                disposable.whenDisposed { editorPool.release(editor) }
+            } else {
+                file = LightVirtualFile(AUTODEV_SNIPPET_NAME, language, graphProperty.get())
+                if (file.fileType == UnknownFileType.INSTANCE) {
+                    file.fileType = PlainTextFileType.INSTANCE
+                }
 
-            val document: Document =
-                file.findDocument() ?: throw IllegalStateException("Document not found")
+                val document: Document =
+                    file.findDocument() ?: throw IllegalStateException("Document not found")
 
-            val editor: EditorEx =
-                createCodeViewerEditor(project, file, document, disposable)
+                editor = createCodeViewerEditor(project, file, document, disposable)
+            }
 
             val toolbarActionGroup = DefaultActionGroup().apply {
                 add(AutoDevRunDevInsAction(block))
@@ -182,7 +196,7 @@ class CodeBlockView(
             editor.scrollPane.border = JBUI.Borders.empty()
             editor.component.border = JBUI.Borders.empty()
 
-            val editorFragment = EditorFragment(project, editor, message)
+            val editorFragment = EditorFragment(project, editor, message, disposable)
             editorFragment.updateExpandCollapseLabel()
 
             return CodePartEditorInfo(graphProperty, editorFragment.getContent(), editor, file)
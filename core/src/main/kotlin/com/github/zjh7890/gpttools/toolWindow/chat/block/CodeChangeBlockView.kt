@@ -1,4 +1,6 @@
 import com.github.zjh7890.gpttools.toolWindow.chat.block.*
+import com.github.zjh7890.gpttools.services.ChangeApplier
+import com.github.zjh7890.gpttools.utils.ChangeSetParser
 import com.github.zjh7890.gpttools.utils.Desc
 import com.intellij.diff.DiffContentFactory
 import com.intellij.diff.DiffManager
@@ -7,9 +9,15 @@ import com.intellij.diff.requests.SimpleDiffRequest
 import com.intellij.openapi.actionSystem.*
 import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.command.WriteCommandAction
+import com.intellij.openapi.diagnostic.logger
 import com.intellij.openapi.editor.EditorFactory
 import com.intellij.openapi.fileEditor.FileDocumentManager
 import com.intellij.openapi.fileTypes.PlainTextFileType
+import com.intellij.openapi.progress.ProgressIndicator
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.progress.Task
+import com.intellij.openapi.project.DumbService
+import com.intellij.openapi.project.IndexNotReadyException
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.ui.DialogBuilder
 import com.intellij.openapi.ui.Messages
@@ -17,7 +25,7 @@ import com.intellij.openapi.ui.SimpleToolWindowPanel
 import com.intellij.openapi.vfs.LocalFileSystem
 import com.intellij.openapi.vfs.VirtualFile
 import com.intellij.openapi.vfs.VirtualFileManager
-import org.apache.commons.text.similarity.LevenshteinDistance
+import com.intellij.psi.util.PsiModificationTracker
 import java.awt.Component
 import java.awt.event.ActionEvent
 import java.io.IOException
@@ -43,127 +51,127 @@ class CodeChangeBlockView(private val codeChangeBlock: CodeChange,
     }
 
     override fun initialize() {
-        val changes = parseCodeChanges(codeChangeBlock.getTextContent())
+        val changes = ChangeSetParser.parseChangeFiles(codeChangeBlock.getTextContent())
         changesListView = ChangesListView(changes, project)
 
         panel.setContent(changesListView)
         setupToolbar()
     }
 
-    private fun parseCodeChanges(textContent: String): List<CodeChangeFile> {
-        val changesByPath = mutableMapOf<String, MutableList<CodeChangeFile>>()
-        val changeOrder = mutableListOf<String>() // 保存path的出现顺序
-        val lines = textContent.lines()
-        var i = 0
-        val n = lines.size
-
-        while (i < n) {
-            var line = lines[i].trim()
-            if (line == "----- CHANGES START -----") {
-                i++
-                while (i < n && lines[i].trim() != "----- CHANGES END -----") {
-                    line = lines[i].trim()
-                    if (line == "----- CHANGE START -----") {
-                        i++
-                        val blockLines = mutableListOf<String>()
-                        while (i < n && lines[i].trim() != "----- CHANGE END -----") {
-                            blockLines.add(lines[i])
-                            i++
-                        }
-                        // Process the collected blockLines
-                        val blockContent = blockLines.joinToString("\n")
-                        // Extract path and changeType
-                        val fullPath = blockLines.find { it.startsWith("path: ") }?.substringAfter("path: ") ?: "Unknown path"
-                        val changeType = blockLines.find { it.startsWith("changeType: ") }?.substringAfter("changeType: ") ?: "Unknown"
-                        val filename = fullPath.substringAfterLast('/')
-                        val dirPath = fullPath.substringBeforeLast('/', missingDelimiterValue = "")
-
-                        // Extract changes between <<<< ORIGINAL and >>>> UPDATED
-                        val fileChangeItems = mutableListOf<FileChangeItem>()
-                        var j = 0
-                        while (j < blockLines.size) {
-                            val blkLine = blockLines[j].trim()
-                            if (blkLine == "<<<< ORIGINAL") {
-                                j++
-                                val originalLines = mutableListOf<String>()
-                                while (j < blockLines.size && blockLines[j].trim() != "====") {
-                                    originalLines.add(blockLines[j])
-                                    j++
-                                }
-                                j++ // Skip "===="
-                                val updatedLines = mutableListOf<String>()
-                                while (j < blockLines.size && blockLines[j].trim() != ">>>> UPDATED") {
-                                    updatedLines.add(blockLines[j])
-                                    j++
-                                }
-                                // Create FileChangeItem
-                                val originalChunk = originalLines.joinToString("\n")
-                                val updatedChunk = updatedLines.joinToString("\n")
-                                fileChangeItems.add(FileChangeItem(originalChunk, updatedChunk))
-                            } else {
-                                j++
-                            }
-                        }
-                        if (fileChangeItems.isNotEmpty()) {
-                            val codeChangeFile = CodeChangeFile(
-                                path = fullPath,
-                                dirPath = dirPath,
-                                filename = filename,
-                                changeItems = fileChangeItems,
-                                isMerged = false,
-                                changeType = changeType
-                            )
-
-                            // 将相同path的变更添加到同一个列表中
-                            if (!changesByPath.containsKey(fullPath)) {
-                                changesByPath[fullPath] = mutableListOf()
-                                changeOrder.add(fullPath) // 记录path的首次出现顺序
-                            }
-                            changesByPath[fullPath]?.add(codeChangeFile)
+    private fun setupToolbar() {
+        val actionGroup = DefaultActionGroup().apply {
+            add(ShowChangeViewAction(project, changesListView.getChangesList()))
+            add(ApplyAllChangesAction(project, changesListView.getChangesList()))
+        }
+
+        val toolbar: ActionToolbar = ActionManager.getInstance().createActionToolbar("CodeChangesToolbar", actionGroup, true)
+        // 设置目标组件，通常是包含工具栏的主面板或者任何其他适当的组件
+        toolbar.targetComponent = panel
+        panel.setToolbar(toolbar.component)
+    }
+}
+
+class ApplyAllChangesAction(private val project: Project, private val changesList: JList<CodeChangeFile>) : AnAction("Apply All", "Apply all pending changes as one undoable command", null) {
+    private class Validation(val stamp: Long, val plan: ChangeApplier.ChangePlan)
+
+    /** 后台预先检查的结果，还没检查完、已过期或有问题时按钮不可用 */
+    @Volatile
+    private var validation: Validation? = null
+
+    /** 最近一次安排检查时的状态，文件或待应用的变更有变化时重新检查 */
+    @Volatile
+    private var scheduledStamp = -1L
+
+    init {
+        validate()
+    }
+
+    private fun pendingChanges(): List<CodeChangeFile> {
+        val model = changesList.model
+        return (0 until model.size).map { model.getElementAt(it) }.filter { !it.isMerged }
+    }
+
+    /**
+     * PSI 和 VFS 的修改计数，加上待应用的变更数量，任何一个变化检查结果都可能过期
+     */
+    private fun currentStamp(pending: List<CodeChangeFile>): Long =
+        PsiModificationTracker.getInstance(project).modificationCount +
+                VirtualFileManager.getInstance().modificationCount +
+                pending.size
+
+    /**
+     * 在后台检查所有待应用的变更：目标文件是否唯一、每个 chunk 是否都能匹配。
+     * 在 EDT 上调用；状态没有变化时不重复检查
+     */
+    private fun validate() {
+        val pending = pendingChanges()
+        if (pending.isEmpty()) return
+        val stamp = currentStamp(pending)
+        if (stamp == scheduledStamp) return
+        scheduledStamp = stamp
+        // 文件查找依赖索引，等索引完成后再检查
+        DumbService.getInstance(project).runWhenSmart {
+            ApplicationManager.getApplication().executeOnPooledThread {
+                if (project.isDisposed || scheduledStamp != stamp) return@executeOnPooledThread
+                try {
+                    val plan = ChangeApplier.getInstance(project).prepare(pending)
+                    // 检查期间又安排了新的检查时丢弃这次的结果
+                    if (scheduledStamp == stamp) validation = Validation(stamp, plan)
+                } catch (e: IndexNotReadyException) {
+                    ApplicationManager.getApplication().invokeLater({
+                        if (scheduledStamp == stamp) {
+                            scheduledStamp = -1L
+                            validate()
                         }
-                        i++ // Skip "----- CHANGE END -----"
-                    } else {
-                        i++
-                    }
+                    }, project.disposed)
                 }
-            } else {
-                i++
             }
         }
+    }
 
-        // 合并相同path的CodeChangeFile，并按原始顺序返回
-        return changeOrder.mapNotNull { path ->
-            changesByPath[path]?.let { changes ->
-                if (changes.size == 1) {
-                    changes[0]
-                } else {
-                    // 合并多个CodeChangeFile
-                    CodeChangeFile(
-                        path = changes[0].path,
-                        dirPath = changes[0].dirPath,
-                        filename = changes[0].filename,
-                        changeItems = changes.flatMap { it.changeItems },
-                        isMerged = false,
-                        changeType = changes[0].changeType
-                    )
+    override fun actionPerformed(e: AnActionEvent) {
+        val pending = pendingChanges()
+        if (pending.isEmpty()) return
+
+        ProgressManager.getInstance().run(object : Task.Backgroundable(project, "Preparing ${pending.size} file changes", true) {
+            private lateinit var plan: ChangeApplier.ChangePlan
+
+            override fun run(indicator: ProgressIndicator) {
+                // 文件可能在预先检查之后被修改过，重新计算
+                plan = ChangeApplier.getInstance(project).prepare(pending, indicator)
+            }
+
+            override fun onSuccess() {
+                val problems = ChangeApplier.getInstance(project).apply(plan)
+                if (problems.isNotEmpty()) {
+                    Messages.showErrorDialog(project, problems.joinToString("\n"), "Changes Not Applied")
                 }
+                changesList.repaint()
             }
-        }
+        })
     }
 
-    private fun setupToolbar() {
-        val actionGroup = DefaultActionGroup().apply {
-            add(ShowChangeViewAction(project, changesListView.getChangesList()))
+    override fun update(e: AnActionEvent) {
+        // 用户修改了文件或应用了部分变更后重新检查，之前失败的检查不会让按钮一直不可用
+        validate()
+        val pending = pendingChanges()
+        val plan = validation?.takeIf { it.stamp == currentStamp(pending) }?.plan
+        e.presentation.isEnabled = pending.isNotEmpty() && plan != null && plan.isValid
+        e.presentation.description = when {
+            plan == null -> "Checking changes..."
+            !plan.isValid -> plan.problems.joinToString("\n")
+            else -> "Apply all pending changes as one undoable command"
         }
+    }
 
-        val toolbar: ActionToolbar = ActionManager.getInstance().createActionToolbar("CodeChangesToolbar", actionGroup, true)
-        // 设置目标组件，通常是包含工具栏的主面板或者任何其他适当的组件
-        toolbar.targetComponent = panel
-        panel.setToolbar(toolbar.component)
+    override fun getActionUpdateThread(): ActionUpdateThread {
+        return ActionUpdateThread.EDT
     }
 }
 
 class ShowChangeViewAction(private val project: Project, private val changesList: JList<CodeChangeFile>) : AnAction("Show Diffs", "Show the differences", null) {
+    private val logger = logger<ShowChangeViewAction>()
+
     override fun actionPerformed(e: AnActionEvent) {
         val selectedData = changesList.selectedValue
         if (selectedData != null) {
@@ -175,25 +183,6 @@ class ShowChangeViewAction(private val project: Project, private val changesList
         return ActionUpdateThread.BGT
     }
 
-    fun findFileByNameInProject(fileName: String, project: Project): List<VirtualFile> {
-        val files = mutableListOf<VirtualFile>()
-        val projectBasePath = project.basePath ?: return files
-        val baseDir = LocalFileSystem.getInstance().findFileByPath(projectBasePath)
-
-        fun searchFile(dir: VirtualFile) {
-            for (file in dir.children) {
-                if (file.isDirectory) {
-                    searchFile(file)
-                } else if (file.name == fileName) {
-                    files.add(file)
-                }
-            }
-        }
-
-        baseDir?.let { searchFile(it) }
-        return files
-    }
-
     fun getOriginalFile(data: CodeChangeFile, project: Project): VirtualFile? {
         // 先尝试用完整路径查找
         val fullPathFile = LocalFileSystem.getInstance().findFileByPath(project.basePath + "/" + data.path)
@@ -201,8 +190,8 @@ class ShowChangeViewAction(private val project: Project, private val changesList
             return fullPathFile
         }
 
-        // 如果完整路径找不到，尝试只用文件名查找
-        val files = findFileByNameInProject(data.filename, project)
+        // 如果完整路径找不到，通过文件名索引查找，优先路径后缀一致的文件
+        val files = ChangeApplier.getInstance(project).findFiles(data)
         return when {
             files.isEmpty() -> null
             files.size == 1 -> files[0]
@@ -310,8 +299,14 @@ class ShowChangeViewAction(private val project: Project, private val changesList
                 override fun actionPerformed(e: ActionEvent) {
                     WriteCommandAction.runWriteCommandAction(project) {
                         when (data.changeType) {
-                                "CREATE" -> {
-                                    createFileWithParents(project.basePath!!, data.path, content2.document.text)
+                                "CREATE" -> try {
+                                    ChangeApplier.getInstance(project).createFile(data.path, content2.document.text)
+                                } catch (e: IOException) {
+                                    logger.warn("Failed to create file: ${data.path}", e)
+                                    // 不在写操作中弹窗
+                                    ApplicationManager.getApplication().invokeLater {
+                                        Messages.showErrorDialog(project, "Failed to create ${data.path}: ${e.message}", "Error")
+                                    }
                                 }
                                 "MODIFY", "REWRITE" -> originalFile?.let {
                                     FileDocumentManager.getInstance().getDocument(originalFile)?.setText(content2.document.text)
@@ -329,119 +324,7 @@ class ShowChangeViewAction(private val project: Project, private val changesList
     }
 
     private fun getUpdatedFileContent(text: String, changeItems: List<FileChangeItem>): String {
-        var updatedText = text
-        val levenshteinDistance = LevenshteinDistance()
-
-        changeItems.forEach { changeItem ->
-            // Find the best match for the original text in the current file content using Levenshtein distance
-            val bestMatch = findBestMatchOptimized(updatedText, changeItem.originalChunk, levenshteinDistance)
-
-            if (bestMatch != null) {
-                // Replace the best match with the updated content
-                updatedText = updatedText.replaceFirst(bestMatch.trim(), changeItem.updatedChunk.trim())
-            }
-        }
-
-        return updatedText
-    }
-
-    fun createFileWithParents(projectBasePath: String, relativePath: String, fileContent: String) {
-        val fullPath = "$projectBasePath/$relativePath"
-        val parentPath = fullPath.substringBeforeLast('/')
-
-        ApplicationManager.getApplication().runWriteAction {
-            try {
-                var parentDir = LocalFileSystem.getInstance().refreshAndFindFileByPath(parentPath)
-                if (parentDir == null) {
-                    parentDir = createParentDirectories(parentPath)
-                }
-                parentDir?.let {
-                    val newFile = it.createChildData(null, fullPath.substringAfterLast('/'))
-                    newFile.setBinaryContent(fileContent.toByteArray())
-                    VirtualFileManager.getInstance().syncRefresh()
-                }
-            } catch (e: IOException) {
-                e.printStackTrace()
-            }
-        }
-    }
-
-    @Throws(IOException::class)
-    private fun createParentDirectories(path: String): VirtualFile? {
-        val parts = path.split("/")
-        var currentPath = ""
-        var currentDir: VirtualFile? = null
-        for (part in parts) {
-            currentPath += "/$part"
-            val dir = LocalFileSystem.getInstance().refreshAndFindFileByPath(currentPath)
-            currentDir = if (dir == null) {
-                currentDir?.createChildDirectory(null, part) ?: LocalFileSystem.getInstance().createChildDirectory(null, LocalFileSystem.getInstance().refreshAndFindFileByPath("/")!!, part)
-            } else {
-                dir
-            }
-        }
-        return currentDir
-    }
-
-    /**
-     * 优化后的 findBestMatch 函数，基于行分块并忽略空格进行匹配
-     *
-     * @param text 待搜索的文本
-     * @param original 原始块，需要在 text 中找到最相似的块
-     * @param levenshteinDistance Levenshtein 距离计算器
-     * @return 最佳匹配的块，若无匹配则返回 null
-     */
-    fun findBestMatchOptimized(text: String, original: String, levenshteinDistance: LevenshteinDistance): String? {
-        // 将文本和原始块按行分割
-        val textLines = text.lines()
-        val originalLines = original.lines()
-        val blockSize = originalLines.size  // 使用与 original 块相同的行数进行分块
-
-        // 预处理：去除每行的所有空格
-        val normalizedTextLines = textLines.map { it.replace("\\s".toRegex(), "") }
-        val normalizedOriginalLines = originalLines.map { it.replace("\\s".toRegex(), "") }
-        val normalizedOriginal = normalizedOriginalLines.joinToString("\n")
-
-        // 构建哈希映射
-        val hashMap = HashMap<String, MutableList<Int>>()
-        for (i in 0..(normalizedTextLines.size - blockSize)) {
-            val block = normalizedTextLines.subList(i, i + blockSize).joinToString("\n")
-            val hash = block.hashCode().toString()
-            hashMap.computeIfAbsent(hash) { mutableListOf() }.add(i)
-        }
-
-        // 计算 original 块的哈希值
-        val originalHash = normalizedOriginal.hashCode().toString()
-        val candidateIndices = hashMap[originalHash] ?: emptyList()
-
-        var minDistance = Int.MAX_VALUE
-        var bestMatch: String? = null
-
-        // 优先检查哈希完全匹配的块
-        for (index in candidateIndices) {
-            val candidateBlock = textLines.subList(index, index + blockSize).joinToString("\n")
-            val distance = levenshteinDistance.apply(candidateBlock.replace("\\s".toRegex(), ""), original)
-            if (distance < minDistance) {
-                minDistance = distance
-                bestMatch = candidateBlock
-            }
-        }
-
-        // 如果没有找到哈希匹配的块，退回到滑动窗口并使用行分块进行优化
-        if (bestMatch == null) {
-
-            for (i in 0..(textLines.size - blockSize)) {
-                val block = textLines.subList(i, i + blockSize).joinToString("\n")
-                val normalizedBlock = block.replace("\\s".toRegex(), "")
-                val distance = levenshteinDistance.apply(normalizedBlock, normalizedOriginal)
-                if (distance < minDistance) {
-                    minDistance = distance
-                    bestMatch = block
-                }
-            }
-        }
-
-        return bestMatch
+        return ChangeApplier.updatedContent(text, changeItems)
     }
 
     // 辅助函数：计算 Levenshtein 距离
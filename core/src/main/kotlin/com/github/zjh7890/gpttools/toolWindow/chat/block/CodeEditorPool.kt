@@ -0,0 +1,86 @@
+package com.github.zjh7890.gpttools.toolWindow.chat.block
+
+import com.intellij.lang.Language
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.application.ReadAction
+import com.intellij.openapi.editor.EditorFactory
+import com.intellij.openapi.editor.EditorKind
+import com.intellij.openapi.editor.ex.EditorEx
+import com.intellij.openapi.editor.highlighter.EditorHighlighterFactory
+import com.intellij.openapi.fileTypes.PlainTextFileType
+import com.intellij.openapi.fileTypes.UnknownFileType
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.Disposer
+import com.intellij.openapi.util.text.StringUtil
+import com.intellij.testFramework.LightVirtualFile
+
+/**
+ * 代码块只读编辑器池。
+ *
+ * 消息滚出可视区域后，它的代码块编辑器归还到池里，给下一个要显示的代码块复用，
+ * 不再为每个代码块创建、并常驻一个编辑器。空闲编辑器超过上限时直接释放。
+ */
+class CodeEditorPool(private val project: Project, parentDisposable: Disposable) : Disposable {
+    private val idle = ArrayDeque<EditorEx>()
+    private var disposed = false
+
+    init {
+        Disposer.register(parentDisposable, this)
+    }
+
+    /**
+     * 取一个编辑器并装入代码；调用方负责在不再使用时 [release]
+     */
+    fun acquire(text: String, language: Language): EditorEx {
+        val editor = idle.removeLastOrNull() ?: createEditor()
+        setText(editor, text)
+
+        val file = LightVirtualFile(AUTODEV_SNIPPET_NAME, language, text)
+        if (file.fileType == UnknownFileType.INSTANCE) {
+            file.fileType = PlainTextFileType.INSTANCE
+        }
+        editor.setFile(file)
+        editor.highlighter = EditorHighlighterFactory.getInstance().createEditorHighlighter(project, file)
+        return editor
+    }
+
+    fun release(editor: EditorEx) {
+        if (editor.isDisposed) return
+        editor.headerComponent = null
+        editor.markupModel.removeAllHighlighters()
+        editor.selectionModel.removeSelection()
+        editor.component.parent?.remove(editor.component)
+        if (disposed || idle.size >= MAX_IDLE_EDITORS) {
+            EditorFactory.getInstance().releaseEditor(editor)
+            return
+        }
+        setText(editor, "")
+        idle.addLast(editor)
+    }
+
+    private fun setText(editor: EditorEx, text: String) {
+        ApplicationManager.getApplication().runWriteAction {
+            editor.document.setText(StringUtil.convertLineSeparators(text))
+        }
+    }
+
+    private fun createEditor(): EditorEx {
+        val document = EditorFactory.getInstance().createDocument("")
+        val editor = ReadAction.compute<EditorEx, Throwable> {
+            EditorFactory.getInstance().createViewer(document, project, EditorKind.PREVIEW) as EditorEx
+        }
+        CodeBlockView.configureViewer(editor)
+        return editor
+    }
+
+    override fun dispose() {
+        disposed = true
+        idle.forEach { EditorFactory.getInstance().releaseEditor(it) }
+        idle.clear()
+    }
+
+    companion object {
+        private const val MAX_IDLE_EDITORS = 8
+    }
+}
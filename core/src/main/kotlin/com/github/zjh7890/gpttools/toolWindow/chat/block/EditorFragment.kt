@@ -3,6 +3,7 @@ package com.github.zjh7890.gpttools.toolWindow.chat.block
 
 import com.github.zjh7890.gpttools.toolWindow.chat.ChatRole
 import com.intellij.icons.AllIcons
+import com.intellij.openapi.Disposable
 import com.intellij.openapi.editor.Editor
 import com.intellij.openapi.editor.event.CaretEvent
 import com.intellij.openapi.editor.event.CaretListener
@@ -34,15 +35,16 @@ class AIAssistantFoldLabel(side: ChatRole) : JBLabel("", 0) {
 }
 
 
-class EditorPadding(private val editor: Editor, pad: Int) :
+class EditorPadding(private val editor: Editor, pad: Int, parentDisposable: Disposable) :
     Box.Filler(Dimension(pad, 0), Dimension(pad, 0), Dimension(pad, 32767)) {
     init {
         setOpaque(true)
+        // 编辑器可能被池复用，监听器随所属代码块一起移除
         editor.caretModel.addCaretListener(object : CaretListener {
             override fun caretPositionChanged(event: CaretEvent) {
                 this@EditorPadding.repaint()
             }
-        })
+        }, parentDisposable)
     }
 
     override fun getBackground(): Color {
@@ -55,7 +57,12 @@ class EditorPadding(private val editor: Editor, pad: Int) :
 }
 
 
-class EditorFragment(private val project: Project, private val editor: EditorEx, message: CompletableMessage) {
+class EditorFragment(
+    private val project: Project,
+    private val editor: EditorEx,
+    message: CompletableMessage,
+    parentDisposable: Disposable
+) {
     private val editorLineThreshold = 6
     private val expandCollapseTextLabel: AIAssistantFoldLabel
     private val content: BorderLayoutPanel
@@ -91,9 +98,9 @@ class EditorFragment(private val project: Project, private val editor: EditorEx,
             )
         )
         content.setOpaque(false)
-        content.addToLeft((EditorPadding(editor, 5)))
+        content.addToLeft((EditorPadding(editor, 5, parentDisposable)))
         content.addToCenter((editor.component))
-        content.addToRight((EditorPadding(editor, 5)))
+        content.addToRight((EditorPadding(editor, 5, parentDisposable)))
         content.addToBottom((expandCollapseTextLabel))
 
         expandCollapseTextLabel.addMouseListener(object : MouseAdapter() {
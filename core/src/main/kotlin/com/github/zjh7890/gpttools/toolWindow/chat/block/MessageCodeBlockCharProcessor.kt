@@ -1,14 +1,15 @@
 package com.github.zjh7890.gpttools.toolWindow.chat.block
 
 import com.github.zjh7890.gpttools.toolWindow.chat.MessageBlockType
+import com.github.zjh7890.gpttools.utils.ChangeSetParser
 import com.intellij.lang.Language
 import com.intellij.openapi.diagnostic.logger
 
 class MessageCodeBlockCharProcessor {
     private val codeBlockChar: Char = '`'
     private val changeBlockChar: Char = '-'
-    private val changeStartBlock: String = "----- CHANGES START -----"
-    private val changeEndBlock: String = "----- CHANGES END -----"
+    private val changeStartBlock: String = ChangeSetParser.CHANGES_START
+    private val changeEndBlock: String = ChangeSetParser.CHANGES_END
     private val logger = logger<MessageCodeBlockCharProcessor>()
 
     fun getParts(message: CompletableMessage): MutableList<MessageBlock> {
@@ -1,34 +1,62 @@
 package com.github.zjh7890.gpttools.toolWindow.llmChat
 
 import com.github.zjh7890.gpttools.services.ChatCodingService
-import com.github.zjh7890.gpttools.services.ChatSession
+import com.github.zjh7890.gpttools.services.ChatHistoryIndexService
+import com.github.zjh7890.gpttools.services.MessagePreview
 import com.github.zjh7890.gpttools.services.SessionManager
+import com.github.zjh7890.gpttools.services.SessionSummary
 import com.github.zjh7890.gpttools.toolWindow.chat.ChatRole
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.application.ModalityState
 import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.text.StringUtil
+import com.intellij.ui.DocumentAdapter
+import com.intellij.ui.SearchTextField
 import com.intellij.ui.components.JBList
 import com.intellij.ui.components.JBScrollPane
 import com.intellij.util.ui.JBUI
+import com.intellij.xml.util.XmlStringUtil
 import java.awt.BorderLayout
 import java.awt.Component
 import java.text.SimpleDateFormat
 import java.util.*
 import javax.swing.*
+import javax.swing.event.DocumentEvent
 
 class ChatHistoryPanel(val project: Project) : JPanel() {
 
     private val chatCodingService = ChatCodingService.getInstance(project)
 
-    private val conversationListModel = DefaultListModel<ChatSession>()
-    private val conversationList = JBList<ChatSession>(conversationListModel)
+    // 会话列表只放摘要，消息正文在选中后按页取预览
+    private val conversationListModel = DefaultListModel<SessionSummary>()
+    private val conversationList = JBList<SessionSummary>(conversationListModel)
 
-    private val messageListModel = DefaultListModel<String>()
-    private val messageList = JBList<String>(messageListModel)
+    private val messageListModel = DefaultListModel<MessagePreview>()
+    private val messageList = JBList<MessagePreview>(messageListModel)
+    private val messageScrollPane = JBScrollPane(messageList)
+
+    private var loadedSessionId: String? = null
+    private var loadedMessageCount = 0
+    private var allMessagesLoaded = true
+
+    // 搜索时每个命中会话中分数最高的消息下标
+    private var searchHits: Map<String, Int> = emptyMap()
+    // 每次搜索加一，后台返回时不是最新一次的结果直接丢弃，只在 EDT 上读写
+    private var searchGeneration = 0
+    private val searchField = SearchTextField(false).apply {
+        textEditor.emptyText.text = "搜索聊天记录，\"...\" 表示短语"
+        addDocumentListener(object : DocumentAdapter() {
+            override fun textChanged(e: DocumentEvent) {
+                loadConversationList()
+            }
+        })
+    }
     val sessionManager = SessionManager.getInstance(project)
 
     // 新增按钮字段
     private val restoreButton = JButton("Restore Session").apply {
         addActionListener {
-            val selectedSession = conversationList.selectedValue
+            val selectedSession = conversationList.selectedValue?.let { sessionManager.getSession(it.id) }
             if (selectedSession != null) {
                 sessionManager.setCurrentSession(selectedSession, project)
                 val contentPanel = LLMChatToolWindowFactory.getPanel(project)
@@ -55,23 +83,29 @@ class ChatHistoryPanel(val project: Project) : JPanel() {
 
         conversationList.selectionMode = ListSelectionModel.SINGLE_SELECTION
         conversationList.addListSelectionListener {
+            if (it.valueIsAdjusting) return@addListSelectionListener
             val selectedSession = conversationList.selectedValue
-            if (selectedSession != null) {
+            if (selectedSession != null && selectedSession.id != loadedSessionId) {
                 loadMessagesForSession(selectedSession)
             }
         }
 
-        conversationList.cellRenderer = object : ListCellRenderer<ChatSession> {
+        val dateFormat = SimpleDateFormat("yyyy-MM-dd HH:mm:ss")
+        conversationList.cellRenderer = object : ListCellRenderer<SessionSummary> {
             override fun getListCellRendererComponent(
-                list: JList<out ChatSession>,
-                value: ChatSession,
+                list: JList<out SessionSummary>,
+                value: SessionSummary,
                 index: Int,
                 isSelected: Boolean,
                 cellHasFocus: Boolean
             ): Component {
-                val formattedTime = SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(Date(value.startTime))
-                val displayName = formattedTime
-                val label = JLabel(displayName)
+                val formattedTime = dateFormat.format(Date(value.startTime))
+                val title = value.title.ifEmpty { "(空会话)" }
+                val label = JLabel(
+                    "<html>${XmlStringUtil.escapeString(title)}<br>" +
+                            "<small>$formattedTime · ${value.messageCount} 条 · ${StringUtil.formatFileSize(value.size)}</small></html>"
+                )
+                label.border = JBUI.Borders.empty(2, 4)
                 label.isOpaque = true
                 if (isSelected) {
                     label.background = list.selectionBackground
@@ -84,16 +118,49 @@ class ChatHistoryPanel(val project: Project) : JPanel() {
             }
         }
 
+        messageList.cellRenderer = object : ListCellRenderer<MessagePreview> {
+            override fun getListCellRendererComponent(
+                list: JList<out MessagePreview>,
+                value: MessagePreview,
+                index: Int,
+                isSelected: Boolean,
+                cellHasFocus: Boolean
+            ): Component {
+                val role = if (value.role == ChatRole.user) "用户" else "助手"
+                val body = value.lines.joinToString("<br>") { XmlStringUtil.escapeString(it) }
+                val more = if (value.totalLines > value.lines.size) "<br><small>… 共 ${value.totalLines} 行</small>" else ""
+                val label = JLabel("<html><b>$role:</b><br>$body$more</html>")
+                label.border = JBUI.Borders.empty(4)
+                label.isOpaque = true
+                if (isSelected) {
+                    label.background = list.selectionBackground
+                    label.foreground = list.selectionForeground
+                } else {
+                    label.background = list.background
+                    label.foreground = list.foreground
+                }
+                return label
+            }
+        }
+
+        // 滚动到接近底部时加载下一页
+        messageScrollPane.verticalScrollBar.addAdjustmentListener {
+            if (!it.valueIsAdjusting) loadNextPageIfNeeded()
+        }
+
         // 左侧为会话列表，右侧为消息列表
         val splitPane = JPanel(BorderLayout())
 
         // 将 restoreButton 添加到 splitPane 的顶部
         val leftPanel = JPanel(BorderLayout())
-        leftPanel.add(restoreButton, BorderLayout.NORTH)
+        val topPanel = JPanel(BorderLayout())
+        topPanel.add(restoreButton, BorderLayout.NORTH)
+        topPanel.add(searchField, BorderLayout.SOUTH)
+        leftPanel.add(topPanel, BorderLayout.NORTH)
         leftPanel.add(JBScrollPane(conversationList), BorderLayout.CENTER)
         splitPane.add(leftPanel, BorderLayout.WEST)
 
-        splitPane.add(JBScrollPane(messageList), BorderLayout.CENTER)
+        splitPane.add(messageScrollPane, BorderLayout.CENTER)
         splitPane.border = JBUI.Borders.empty()
 
         add(splitPane, BorderLayout.CENTER)
@@ -101,21 +168,98 @@ class ChatHistoryPanel(val project: Project) : JPanel() {
 
     fun loadConversationList() {
         SwingUtilities.invokeLater {
-            conversationListModel.clear()
-            val sessions = sessionManager.getSessionList()
-                .filter { it.project == project }
-            val sortedSessions = sessions.sortedByDescending { it.startTime }
-            sortedSessions.forEach { session ->
-                conversationListModel.addElement(session)
+            val query = searchField.text.trim()
+            if (query.isEmpty()) {
+                searchGeneration++
+                searchHits = emptyMap()
+                showConversations(sessionManager.getSessionSummaries())
+                return@invokeLater
+            }
+            // 查询可能要读索引文件、等待后台更新，放到后台线程，只保留最后一次输入的结果
+            val generation = ++searchGeneration
+            ApplicationManager.getApplication().executeOnPooledThread {
+                val hits = searchBestHits(query)
+                ApplicationManager.getApplication().invokeLater({
+                    if (generation != searchGeneration) return@invokeLater
+                    searchHits = hits
+                    val byId = sessionManager.getSessionSummaries().associateBy { it.id }
+                    showConversations(hits.keys.mapNotNull { byId[it] })
+                }, ModalityState.stateForComponent(this)) { project.isDisposed }
             }
         }
     }
 
-    private fun loadMessagesForSession(session: ChatSession) {
+    private fun showConversations(summaries: List<SessionSummary>) {
+        if (summaries == conversationListModel.elements().toList()) {
+            return
+        }
+        val selectedId = conversationList.selectedValue?.id
+        conversationListModel.clear()
+        conversationListModel.addAll(summaries)
+        if (selectedId != null) {
+            val index = summaries.indexOfFirst { it.id == selectedId }
+            if (index >= 0) {
+                conversationList.selectedIndex = index
+                // 选中的会话有新消息时接着加载
+                if (summaries[index].messageCount > loadedMessageCount) {
+                    allMessagesLoaded = false
+                    loadNextPageIfNeeded()
+                }
+            }
+        }
+    }
+
+    /**
+     * 每个命中会话中分数最高的消息下标，按最高分排序
+     */
+    private fun searchBestHits(query: String): Map<String, Int> {
+        val hits = ChatHistoryIndexService.getInstance().search(query, project.name)
+        val bestHits = LinkedHashMap<String, Int>()
+        hits.forEach { bestHits.putIfAbsent(it.sessionId, it.messageIndex) }
+        return bestHits
+    }
+
+    private fun loadMessagesForSession(session: SessionSummary) {
+        loadedSessionId = session.id
+        loadedMessageCount = 0
+        allMessagesLoaded = false
         messageListModel.clear()
-        session.messages.forEach { message ->
-            val role = if (message.role == ChatRole.user) "用户" else "助手"
-            messageListModel.addElement("$role: ${message.content}")
+        loadNextPage()
+
+        // 搜索命中的消息可能不在第一页，加载到该消息并选中
+        val hitIndex = searchHits[session.id] ?: return
+        while (loadedMessageCount <= hitIndex && !allMessagesLoaded) {
+            loadNextPage()
+        }
+        if (hitIndex < messageListModel.size()) {
+            messageList.selectedIndex = hitIndex
+            messageList.ensureIndexIsVisible(hitIndex)
+        }
+    }
+
+    private fun loadNextPageIfNeeded() {
+        if (allMessagesLoaded) return
+        val scrollBar = messageScrollPane.verticalScrollBar
+        if (scrollBar.value + scrollBar.visibleAmount >= scrollBar.maximum - scrollBar.visibleAmount / 2) {
+            loadNextPage()
         }
     }
+
+    private fun loadNextPage() {
+        val sessionId = loadedSessionId ?: return
+        val previews = sessionManager.getMessagePreviews(
+            sessionId, loadedMessageCount, PAGE_SIZE, PREVIEW_MAX_LINES, PREVIEW_MAX_LINE_CHARS
+        )
+        loadedMessageCount += previews.size
+        allMessagesLoaded = previews.size < PAGE_SIZE
+        messageListModel.addAll(previews)
+        // 一页不足以填满可视区域时继续加载
+        SwingUtilities.invokeLater { loadNextPageIfNeeded() }
+    }
+
+    companion object {
+        private const val PAGE_SIZE = 30
+        private const val PREVIEW_MAX_LINES = 6
+        private const val PREVIEW_MAX_LINE_CHARS = 200
+    }
 }
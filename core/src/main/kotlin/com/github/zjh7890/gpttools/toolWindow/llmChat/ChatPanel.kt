@@ -6,6 +6,7 @@ import com.github.zjh7890.gpttools.settings.common.CommonSettings
 import com.github.zjh7890.gpttools.settings.common.CommonSettingsListener
 import com.github.zjh7890.gpttools.settings.llmSetting.LLMSettingsState
 import com.github.zjh7890.gpttools.toolWindow.chat.*
+import com.github.zjh7890.gpttools.toolWindow.chat.block.CodeEditorPool
 import com.github.zjh7890.gpttools.toolWindow.context.ChatFileTreeListPanel
 import com.github.zjh7890.gpttools.toolWindow.context.ContextFileToolWindowFactory
 import com.github.zjh7890.gpttools.utils.GptToolsIcon
@@ -29,7 +30,6 @@ import com.intellij.ui.JBColor
 import com.intellij.ui.components.JBLabel
 import com.intellij.ui.components.JBList
 import com.intellij.ui.components.JBScrollPane
-import com.intellij.ui.components.panels.VerticalLayout
 import com.intellij.ui.dsl.builder.panel
 import com.intellij.ui.util.preferredHeight
 import com.intellij.util.ui.JBFont
@@ -55,7 +55,8 @@ class ChatPanel(val disposable: Disposable?, val project: Project) :
 
     var progressBar: JProgressBar
     val myTitle = JBLabel("Conversation")
-    val myList = JPanel(VerticalLayout(JBUI.scale(10)))
+    val editorPool = CodeEditorPool(project, this)
+    val myList = ChatTranscriptPanel(JBUI.scale(10))
     var inputSection: AutoDevInputSection
     val chatFileTreeListPanel: ChatFileTreeListPanel = ChatFileTreeListPanel(project)
 
@@ -128,7 +129,9 @@ class ChatPanel(val disposable: Disposable?, val project: Project) :
             }
         }
 
-        myList.add(WelcomePanel())
+        myList.onRecycle = { (it as? Disposable)?.let { view -> Disposer.dispose(view) } }
+        myList.isPinned = { it === editingMessageView }
+        addWelcomeEntry()
         myTitle.foreground = JBColor.namedColor("Label.infoForeground", JBColor(Gray.x80, Gray.x8C))
         myTitle.font = JBFont.label()
 
@@ -370,16 +373,43 @@ class ChatPanel(val disposable: Disposable?, val project: Project) :
      * 重新加载当前对话
      */
     fun reloadConversation() {
-        myList.removeAll()
-        myList.add(WelcomePanel())
+        myList.clearEntries()
+        addWelcomeEntry()
         val currentSession = sessionManager.getCurrentSession()
+        // 只登记条目，滚动到底部后由 myList 创建可视区域附近的 MessageView
         currentSession.messages.forEach { message ->
-            addMessage(message.content, message.role == ChatRole.user, render = true, chatMessage = message)
+            myList.addEntry(messageEntry(message))
         }
+        myList.scrollToEnd()
         refreshFileList()  // 新增
         updateUI()
     }
 
+    private fun addWelcomeEntry() {
+        val welcomePanel = WelcomePanel()
+        myList.addEntry(ChatTranscriptPanel.Entry({ welcomePanel }, { welcomePanel.preferredSize.height }, pinned = true), welcomePanel)
+    }
+
+    /**
+     * 可从会话数据重建的消息条目，滚出可视区域后会被回收
+     */
+    private fun messageEntry(chatMessage: ChatContextMessage): ChatTranscriptPanel.Entry =
+        ChatTranscriptPanel.Entry(
+            factory = {
+                MessageView(chatMessage.content, chatMessage.role, chatMessage.content, project, true, chatMessage, this)
+            },
+            estimator = { width -> estimateMessageHeight(chatMessage.content, width) }
+        )
+
+    /**
+     * 未显示过的消息按行数粗略估算高度，显示后以实际测量值为准
+     */
+    private fun estimateMessageHeight(text: String, width: Int): Int {
+        val charsPerLine = maxOf(20, (width - JBUI.scale(40)) / JBUI.scale(7))
+        val lines = text.lineSequence().sumOf { maxOf(1, (it.length + charsPerLine - 1) / charsPerLine) }
+        return JBUI.scale(60) + lines * JBUI.scale(20)
+    }
+
     /**
      * 刷新文件列表
      */
@@ -497,21 +527,28 @@ class ChatPanel(val disposable: Disposable?, val project: Project) :
 
         val messageView = MessageView(message, role, displayText, project, render ?: (role == ChatRole.user), chatMessage, this)
 
-        myList.add(messageView)
-        updateLayout()
+        // 还在流式输出、或没有对应会话消息的视图无法重建，不参与回收
+        val entry = if (chatMessage != null) {
+            messageEntry(chatMessage)
+        } else {
+            ChatTranscriptPanel.Entry({ messageView }, { width -> estimateMessageHeight(messageView.message, width) }, pinned = true)
+        }
+        myList.addEntry(entry, messageView)
         scrollToBottom()
         updateUI()
         return messageView
     }
 
     /**
-     * 更新布局
+     * 流式输出结束、消息写入会话后调用，此后该视图滚出可视区域时可以回收
      */
-    private fun updateLayout() {
-        val layout = myList.layout
-        for (i in 0 until myList.componentCount) {
-            layout.removeLayoutComponent(myList.getComponent(i))
-            layout.addLayoutComponent(null, myList.getComponent(i))
+    fun bindMessage(messageView: MessageView, chatMessage: ChatContextMessage) {
+        ApplicationManager.getApplication().invokeLater {
+            val entry = myList.findEntry(messageView) ?: return@invokeLater
+            val rebuilt = messageEntry(chatMessage)
+            entry.factory = rebuilt.factory
+            entry.estimator = rebuilt.estimator
+            entry.pinned = false
         }
     }
 
@@ -569,8 +606,8 @@ class ChatPanel(val disposable: Disposable?, val project: Project) :
      * 移除聊天列表中的最后一条消息
      */
     fun removeLastMessage() {
-        if (myList.componentCount > 0) {
-            myList.remove(myList.componentCount - 1)
+        if (myList.entryCount > 0) {
+            myList.removeEntriesFrom(myList.entryCount - 1)
         }
 
         updateUI()
@@ -646,19 +683,16 @@ class ChatPanel(val disposable: Disposable?, val project: Project) :
      * 从指定的 MessageView 之后，移除所有的 MessageView
      */
     fun removeMessageViewsAfter(messageView: MessageView) {
-        val index = myList.components.indexOf(messageView)
-        if (index >= 0 && index < myList.componentCount - 1) {
+        val index = myList.indexOf(messageView)
+        if (index >= 0 && index < myList.entryCount - 1) {
             // 从 index + 1 开始移除
-            val removeCount = myList.componentCount - (index + 1)
-            for (i in 0 until removeCount) {
-                myList.remove(index + 1)
-            }
+            myList.removeEntriesFrom(index + 1)
             updateUI()
         }
     }
 
     override fun dispose() {
-        myList.removeAll()
+        myList.clearEntries()
         chatCodingService.stop()
         if (disposable is Disposable) {
             Disposer.dispose(disposable)
@@ -0,0 +1,231 @@
+package com.github.zjh7890.gpttools.toolWindow.llmChat
+
+import com.intellij.util.ui.JBUI
+import java.awt.Dimension
+import java.awt.Point
+import java.awt.Rectangle
+import javax.swing.JComponent
+import javax.swing.JPanel
+import javax.swing.JViewport
+import javax.swing.Scrollable
+import javax.swing.event.ChangeListener
+
+/**
+ * 虚拟化的对话列表，放在 JBScrollPane 中使用。
+ *
+ * - 只有可视区域上下各一屏范围内的条目才创建组件，其余条目只占位，高度用上次测量值或估算值
+ * - 滚出两屏以外的组件被回收（[onRecycle]），再次滚回时通过 [Entry.factory] 重新创建
+ * - 测量值替换估算值时，保持可视区域顶部条目的位置不跳动；原本停在底部时继续停在底部
+ */
+class ChatTranscriptPanel(private val gap: Int) : JPanel(null), Scrollable {
+
+    class Entry(
+        /** 创建组件；组件被回收后再次可见时会重新调用 */
+        var factory: () -> JComponent,
+        /** 没有测量值时的高度估算，参数是可用宽度 */
+        var estimator: (Int) -> Int,
+        /** 不能回收的条目，例如还在流式输出、无法从会话数据重建的消息 */
+        var pinned: Boolean = false
+    ) {
+        var component: JComponent? = null
+        var measuredHeight = -1
+        var measuredWidth = -1
+
+        fun height(width: Int): Int =
+            if (measuredHeight >= 0 && measuredWidth == width) measuredHeight else estimator(width)
+    }
+
+    private val entries = mutableListOf<Entry>()
+    private var scrollToEndPending = false
+    private var lastViewRect = Rectangle()
+
+    /** 组件被回收时调用，用于释放其持有的资源 */
+    var onRecycle: (JComponent) -> Unit = {}
+
+    /** 额外的不可回收判断，例如正在编辑的消息 */
+    var isPinned: (JComponent) -> Boolean = { false }
+
+    private val viewportListener = ChangeListener {
+        val viewRect = viewport?.viewRect ?: return@ChangeListener
+        if (viewRect != lastViewRect) {
+            revalidate()
+        }
+    }
+
+    /**
+     * 追加条目；component 不为空时直接作为该条目当前的组件
+     */
+    fun addEntry(entry: Entry, component: JComponent? = null) {
+        entries.add(entry)
+        if (component != null) {
+            entry.component = component
+            add(component)
+        }
+        revalidate()
+        repaint()
+    }
+
+    fun findEntry(component: JComponent): Entry? = entries.find { it.component === component }
+
+    fun indexOf(component: JComponent): Int = entries.indexOfFirst { it.component === component }
+
+    val entryCount: Int
+        get() = entries.size
+
+    /**
+     * 移除 [fromIndex, 末尾) 的条目
+     */
+    fun removeEntriesFrom(fromIndex: Int) {
+        if (fromIndex < 0 || fromIndex >= entries.size) return
+        while (entries.size > fromIndex) {
+            recycle(entries.removeAt(entries.size - 1))
+        }
+        revalidate()
+        repaint()
+    }
+
+    fun clearEntries() {
+        removeEntriesFrom(0)
+    }
+
+    /**
+     * 下一次布局时直接定位到底部，只创建底部附近的组件
+     */
+    fun scrollToEnd() {
+        scrollToEndPending = true
+        revalidate()
+        repaint()
+    }
+
+    private val viewport: JViewport?
+        get() = parent as? JViewport
+
+    override fun addNotify() {
+        super.addNotify()
+        viewport?.addChangeListener(viewportListener)
+    }
+
+    override fun removeNotify() {
+        viewport?.removeChangeListener(viewportListener)
+        super.removeNotify()
+    }
+
+    private fun availableWidth(): Int =
+        viewport?.extentSize?.width?.takeIf { it > 0 } ?: width
+
+    private fun totalHeight(width: Int): Int {
+        if (entries.isEmpty()) return insets.top + insets.bottom
+        return entries.sumOf { it.height(width) } + gap * (entries.size - 1) + insets.top + insets.bottom
+    }
+
+    override fun getPreferredSize(): Dimension {
+        val width = availableWidth()
+        return Dimension(width, totalHeight(width))
+    }
+
+    override fun doLayout() {
+        val width = availableWidth()
+        if (width <= 0) return
+        val vp = viewport
+        val extentHeight = vp?.extentSize?.height ?: height
+        val totalBefore = totalHeight(width)
+
+        val stickToBottom = scrollToEndPending ||
+                (vp != null && lastViewRect.height > 0 && lastViewRect.y + lastViewRect.height >= height - gap)
+        val viewTop = if (scrollToEndPending || (vp != null && stickToBottom)) {
+            maxOf(0, totalBefore - extentHeight)
+        } else {
+            vp?.viewPosition?.y ?: 0
+        }
+        scrollToEndPending = false
+
+        val overscan = maxOf(extentHeight, JBUI.scale(200))
+        val materializeFrom = viewTop - overscan
+        val materializeTo = viewTop + extentHeight + overscan
+        val keepFrom = viewTop - 2 * overscan
+        val keepTo = viewTop + extentHeight + 2 * overscan
+
+        // 记录可视区域顶部的条目及其相对位置，测量后据此修正滚动位置
+        var anchorIndex = -1
+        var anchorOffset = 0
+        var y = insets.top
+        for ((index, entry) in entries.withIndex()) {
+            val h = entry.height(width)
+            if (anchorIndex < 0 && y + h > viewTop) {
+                anchorIndex = index
+                anchorOffset = y - viewTop
+            }
+            y += h + gap
+        }
+
+        y = insets.top
+        var anchorY = 0
+        for ((index, entry) in entries.withIndex()) {
+            val estimated = entry.height(width)
+            val top = y
+            val bottom = y + estimated
+            if (entry.component == null && bottom >= materializeFrom && top <= materializeTo) {
+                val component = entry.factory()
+                entry.component = component
+                add(component)
+            }
+
+            val component = entry.component
+            if (component != null && (bottom < keepFrom || top > keepTo) && !entry.pinned && !isPinned(component)) {
+                recycle(entry)
+            }
+
+            val h = entry.component?.let { measure(entry, it, width) } ?: estimated
+            entry.component?.setBounds(insets.left, y, width - insets.left - insets.right, h)
+            if (index == anchorIndex) anchorY = y
+            y += h + gap
+        }
+
+        val total = totalHeight(width)
+        if (total != height || width != this.width) {
+            setSize(width, total)
+        }
+        if (vp != null) {
+            val newTop = when {
+                stickToBottom -> maxOf(0, total - extentHeight)
+                anchorIndex >= 0 -> maxOf(0, anchorY - anchorOffset)
+                else -> viewTop
+            }
+            if (newTop != vp.viewPosition.y) {
+                vp.viewPosition = Point(0, newTop)
+            }
+            lastViewRect = vp.viewRect
+        }
+    }
+
+    private fun measure(entry: Entry, component: JComponent, width: Int): Int {
+        val innerWidth = width - insets.left - insets.right
+        // 文本组件的首选高度依赖宽度，先给定宽度再取首选尺寸
+        if (component.width != innerWidth) {
+            component.setSize(innerWidth, component.height)
+        }
+        val h = component.preferredSize.height
+        entry.measuredHeight = h
+        entry.measuredWidth = width
+        return h
+    }
+
+    private fun recycle(entry: Entry) {
+        val component = entry.component ?: return
+        entry.component = null
+        remove(component)
+        onRecycle(component)
+    }
+
+    override fun getPreferredScrollableViewportSize(): Dimension = preferredSize
+
+    override fun getScrollableUnitIncrement(visibleRect: Rectangle, orientation: Int, direction: Int): Int =
+        JBUI.scale(16)
+
+    override fun getScrollableBlockIncrement(visibleRect: Rectangle, orientation: Int, direction: Int): Int =
+        visibleRect.height
+
+    override fun getScrollableTracksViewportWidth(): Boolean = true
+
+    override fun getScrollableTracksViewportHeight(): Boolean = false
+}
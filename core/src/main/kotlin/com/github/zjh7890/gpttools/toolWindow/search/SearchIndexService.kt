@@ -0,0 +1,214 @@
+package com.github.zjh7890.gpttools.toolWindow.search
+
+import com.github.zjh7890.gpttools.utils.FuzzyScorer
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.ReadAction
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.diagnostic.logger
+import com.intellij.openapi.progress.ProcessCanceledException
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ProjectFileIndex
+import com.intellij.openapi.vfs.VfsUtilCore
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.VirtualFileManager
+import com.intellij.openapi.vfs.newvfs.BulkFileListener
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent
+import com.intellij.psi.*
+import com.intellij.psi.search.FilenameIndex
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.util.concurrency.AppExecutorUtil
+import java.util.PriorityQueue
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * SearchPanel 的内存索引：项目中每个 Java 文件的类名、注解、public 方法名。
+ *
+ * 第一次查询时在后台全量构建一次，构建不受查询取消的影响；构建完成前的查询返回空结果。
+ * 之后 PSI / VFS 事件只把项目内容中变化的文件标记为脏，下次查询前重新索引这些文件。
+ * [search] 需要在读操作中调用。
+ */
+@Service(Service.Level.PROJECT)
+class SearchIndexService(private val project: Project) : Disposable {
+    private val logger = logger<SearchIndexService>()
+
+    class ClassEntry(
+        val name: String,
+        val file: VirtualFile,
+        val isInterface: Boolean,
+        val annotations: Set<String>,
+        val publicMethodNames: List<String>,
+        val pointer: SmartPsiElementPointer<PsiClass>
+    )
+
+    class Match(val entry: ClassEntry, val score: Int)
+
+    private val entries = ConcurrentHashMap<VirtualFile, List<ClassEntry>>()
+    private val dirtyFiles = ConcurrentHashMap.newKeySet<VirtualFile>()
+
+    @Volatile
+    private var initialized = false
+    private val buildScheduled = AtomicBoolean(false)
+
+    init {
+        PsiManager.getInstance(project).addPsiTreeChangeListener(object : PsiTreeChangeAdapter() {
+            override fun childAdded(event: PsiTreeChangeEvent) = markDirty(event)
+            override fun childRemoved(event: PsiTreeChangeEvent) = markDirty(event)
+            override fun childReplaced(event: PsiTreeChangeEvent) = markDirty(event)
+            override fun childMoved(event: PsiTreeChangeEvent) = markDirty(event)
+            override fun childrenChanged(event: PsiTreeChangeEvent) = markDirty(event)
+            override fun propertyChanged(event: PsiTreeChangeEvent) = markDirty(event)
+        }, this)
+
+        project.messageBus.connect(this).subscribe(VirtualFileManager.VFS_CHANGES, object : BulkFileListener {
+            override fun after(events: List<VFileEvent>) {
+                val fileIndex = ProjectFileIndex.getInstance(project)
+                for (event in events) {
+                    if (event is VFileContentChangeEvent) continue
+                    val file = event.file ?: continue
+                    // 删除的文件在查询前统一清理；项目内容以外（编译输出、排除目录、依赖）的事件忽略
+                    if (!file.isValid || !fileIndex.isInContent(file)) continue
+                    if (file.isDirectory) {
+                        // 新建或移入的目录不会为其中的文件单独发事件，逐个标记其中的 Java 文件
+                        VfsUtilCore.iterateChildrenRecursively(file, { fileIndex.isInContent(it) }) { child ->
+                            if (!child.isDirectory && child.extension == "java") dirtyFiles.add(child)
+                            true
+                        }
+                    } else if (file.extension == "java") {
+                        dirtyFiles.add(file)
+                    }
+                }
+            }
+        })
+    }
+
+    private fun markDirty(event: PsiTreeChangeEvent) {
+        val file = event.file?.virtualFile ?: return
+        if (file.extension == "java") {
+            dirtyFiles.add(file)
+        }
+    }
+
+    /**
+     * 提前在后台构建索引，搜索面板打开时调用
+     */
+    fun prepare() {
+        if (!initialized) scheduleBuild()
+    }
+
+    /**
+     * 返回按分数从高到低排序的前 limit 个匹配；类名命中优先，只有方法名命中的类分数打折
+     */
+    fun search(query: String, limit: Int = DEFAULT_LIMIT, filter: (ClassEntry) -> Boolean): List<Match> {
+        if (!initialized) {
+            scheduleBuild()
+            return emptyList()
+        }
+        updateDirtyFiles()
+        val top = PriorityQueue<Match>(compareBy { it.score })
+        for (fileEntries in entries.values) {
+            for (entry in fileEntries) {
+                ProgressManager.checkCanceled()
+                val score = scoreEntry(entry, query) ?: continue
+                if (top.size >= limit && score <= top.peek().score) continue
+                if (!filter(entry)) continue
+                top.add(Match(entry, score))
+                if (top.size > limit) top.poll()
+            }
+        }
+        return top.sortedByDescending { it.score }
+    }
+
+    private fun scoreEntry(entry: ClassEntry, query: String): Int? =
+        scoreClass(entry.name, entry.publicMethodNames, query)
+
+    /**
+     * 全量构建只执行一次，在独立的后台读操作中进行：遇到写操作会重试，不会被查询取消。
+     * 构建期间变化的文件仍留在 dirtyFiles 中，构建完成后的查询会重新索引
+     */
+    private fun scheduleBuild() {
+        if (!buildScheduled.compareAndSet(false, true)) return
+        ReadAction.nonBlocking<Map<VirtualFile, List<ClassEntry>>> {
+            val files = FilenameIndex.getAllFilesByExt(project, "java", GlobalSearchScope.projectScope(project))
+            val built = HashMap<VirtualFile, List<ClassEntry>>(files.size)
+            for (file in files) {
+                ProgressManager.checkCanceled()
+                built[file] = indexFile(file)
+            }
+            built
+        }
+            .inSmartMode(project)
+            .expireWith(this)
+            .submit(AppExecutorUtil.getAppExecutorService())
+            .onSuccess { built ->
+                entries.putAll(built)
+                initialized = true
+            }
+            .onError { e ->
+                if (e !is ProcessCanceledException) logger.warn("Failed to build search index", e)
+                // 下次查询重新安排
+                buildScheduled.set(false)
+            }
+    }
+
+    private fun updateDirtyFiles() {
+        entries.keys.removeIf { !it.isValid }
+        if (dirtyFiles.isEmpty()) return
+        val scope = GlobalSearchScope.projectScope(project)
+        for (file in dirtyFiles.toList()) {
+            dirtyFiles.remove(file)
+            try {
+                if (file.isValid && scope.contains(file)) {
+                    entries[file] = indexFile(file)
+                } else {
+                    entries.remove(file)
+                }
+            } catch (e: ProcessCanceledException) {
+                dirtyFiles.add(file)
+                throw e
+            }
+        }
+    }
+
+    private fun indexFile(file: VirtualFile): List<ClassEntry> {
+        val psiFile = PsiManager.getInstance(project).findFile(file) as? PsiJavaFile ?: return emptyList()
+        val pointerManager = SmartPointerManager.getInstance(project)
+        // 与原来一致，每个文件只取第一个顶层类
+        val psiClass = psiFile.classes.firstOrNull() ?: return emptyList()
+        return listOf(
+            ClassEntry(
+                name = psiClass.name ?: file.nameWithoutExtension,
+                file = file,
+                isInterface = psiClass.isInterface,
+                annotations = psiClass.annotations.mapNotNullTo(HashSet()) { it.qualifiedName },
+                publicMethodNames = psiClass.methods.filter { it.hasModifierProperty(PsiModifier.PUBLIC) }.map { it.name },
+                pointer = pointerManager.createSmartPsiElementPointer(psiClass)
+            )
+        )
+    }
+
+    override fun dispose() {
+        entries.clear()
+        dirtyFiles.clear()
+    }
+
+    companion object {
+        const val DEFAULT_LIMIT = 200
+
+        /**
+         * 类名命中取原分数，只有方法名命中时分数减半
+         */
+        fun scoreClass(className: String, methodNames: List<String>, query: String): Int? {
+            val classScore = FuzzyScorer.score(className, query)
+            val methodScore = methodNames.mapNotNull { FuzzyScorer.score(it, query) }.maxOrNull()?.let { it / 2 }
+            return listOfNotNull(classScore, methodScore).maxOrNull()
+        }
+
+        @JvmStatic
+        fun getInstance(project: Project): SearchIndexService {
+            return project.getService(SearchIndexService::class.java)
+        }
+    }
+}
@@ -1,24 +1,27 @@
 package com.github.zjh7890.gpttools.toolWindow.search
 
+import com.github.zjh7890.gpttools.services.JarMemberIndexService
 import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.application.ModalityState
+import com.intellij.openapi.application.ReadAction
 import com.intellij.openapi.fileEditor.FileEditorManager
 import com.intellij.openapi.fileEditor.OpenFileDescriptor
+import com.intellij.openapi.progress.ProgressManager
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.roots.OrderEnumerator
 import com.intellij.openapi.roots.OrderRootType
 import com.intellij.openapi.vfs.JarFileSystem
 import com.intellij.openapi.vfs.VirtualFile
 import com.intellij.psi.*
-import com.intellij.psi.search.FilenameIndex
-import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.ui.DocumentAdapter
+import com.intellij.util.concurrency.AppExecutorUtil
 import java.awt.BorderLayout
 import java.awt.Toolkit
 import java.awt.datatransfer.StringSelection
-import java.awt.event.KeyAdapter
-import java.awt.event.KeyEvent
 import java.awt.event.MouseAdapter
 import java.awt.event.MouseEvent
 import javax.swing.*
+import javax.swing.event.DocumentEvent
 import javax.swing.tree.DefaultMutableTreeNode
 import javax.swing.tree.DefaultTreeModel
 
@@ -35,16 +38,20 @@ class SearchPanel(private val project: Project) {
         resultTree.model = DefaultTreeModel(root)
         resultTree.isRootVisible = false // Hide the root node to remove the extra layer
 
-        // Add a KeyListener to handle "Enter" key press
-        searchField.addKeyListener(object : KeyAdapter() {
-            override fun keyPressed(e: KeyEvent) {
-                if (e.keyCode == KeyEvent.VK_ENTER) {
-                    val query = searchField.text
-                    updateSearchResults(query) // Call updateSearchResults when Enter is pressed
-                }
+        // 每次输入都在后台查询，新的查询会取消还没完成的上一次
+        searchField.document.addDocumentListener(object : DocumentAdapter() {
+            override fun textChanged(e: DocumentEvent) {
+                updateSearchResults(searchField.text)
             }
         })
 
+        // 提前在后台为项目文件和 -api jar 建索引
+        SearchIndexService.getInstance(project).prepare()
+        ReadAction.nonBlocking<List<String>> { apiJarPaths() }
+            .expireWith(project)
+            .submit(AppExecutorUtil.getAppExecutorService())
+            .onSuccess { JarMemberIndexService.getInstance().prepare(it) }
+
         // Add right-click context menu to the result tree
         addContextMenu(resultTree)
 
@@ -73,29 +80,26 @@ class SearchPanel(private val project: Project) {
         get() = mainPanel
 
     private fun updateSearchResults(query: String) {
-        // Run the search operation in a background thread
-        ApplicationManager.getApplication().executeOnPooledThread {
-            ApplicationManager.getApplication().runReadAction {
-                val results = mutableListOf<SearchResult>()
-
-                // Search project files
-                results.addAll(searchProjectFiles(query))
-
-                // Search JAR files ending with `-api`
-                results.addAll(searchJarFiles(query))
+        val trimmed = query.trim()
+        if (trimmed.isEmpty()) {
+            resultTree.model = DefaultTreeModel(DefaultMutableTreeNode())
+            return
+        }
+        // 可取消的后台读操作；同一个面板上只保留最新的一次查询
+        ReadAction.nonBlocking<List<SearchResult>> {
+            val results = mutableListOf<SearchResult>()
 
-                // Process search results to add methods (this is slow and should be done off the EDT)
-                results.forEach { result ->
-                    val psiClass = getPsiClassFromVirtualFile(result.virtualFile)
-                    result.psiClass = psiClass
-                }
+            // Search project files
+            results.addAll(searchProjectFiles(trimmed))
 
-                // Once search is done, update the UI on the EDT
-                SwingUtilities.invokeLater {
-                    updateResultTree(results)
-                }
-            }
+            // Search JAR files ending with `-api`
+            results.addAll(searchJarFiles(trimmed))
+            results
         }
+            .coalesceBy(this)
+            .expireWith(project)
+            .finishOnUiThread(ModalityState.any()) { updateResultTree(it) }
+            .submit(AppExecutorUtil.getAppExecutorService())
     }
 
     private fun updateResultTree(results: List<SearchResult>) {
@@ -187,31 +191,12 @@ class SearchPanel(private val project: Project) {
     }
 
     private fun searchProjectFiles(query: String): List<SearchResult> {
-        val resultFiles = mutableListOf<SearchResult>()
-        val projectFiles = FilenameIndex.getAllFilesByExt(project, "java", GlobalSearchScope.projectScope(project))
-
-        projectFiles.forEach { virtualFile ->
-            val psiClass = getPsiClassFromVirtualFile(virtualFile)
-            if (psiClass != null && isJumpMatch(virtualFile.name, query)) {
-                if (hasSpringOrCustomAnnotationsForProject(psiClass)) {
-                    resultFiles.add(SearchResult(virtualFile.name, true, virtualFile, psiClass))
-                }
+        return SearchIndexService.getInstance(project)
+            .search(query) { hasSpringOrCustomAnnotationsForProject(it) }
+            .mapNotNull { match ->
+                val psiClass = match.entry.pointer.element ?: return@mapNotNull null
+                SearchResult(match.entry.file.name, true, match.entry.file, psiClass)
             }
-        }
-        return resultFiles
-    }
-
-    private fun isJumpMatch(filename: String, query: String): Boolean {
-        var queryIndex = 0
-        for (char in filename.toLowerCase()) {
-            if (queryIndex < query.length && char == query[queryIndex].toLowerCase()) {
-                queryIndex++
-            }
-            if (queryIndex == query.length) {
-                return true
-            }
-        }
-        return queryIndex == query.length
     }
 
     // Add context menu for copying method references
@@ -237,105 +222,65 @@ class SearchPanel(private val project: Project) {
     }
 
     private fun searchJarFiles(query: String): List<SearchResult> {
-        val resultFiles = mutableListOf<SearchResult>()
+        val jarIndexService = JarMemberIndexService.getInstance()
+        val matches = mutableListOf<JarMatch>()
+
+        for (jarPath in apiJarPaths()) {
+            // 索引还没建好的 jar 这次先跳过，后台构建完成后下次查询即可命中
+            val index = jarIndexService.getIndex(jarPath) ?: continue
+            for (entry in index.classes) {
+                ProgressManager.checkCanceled()
+                if (!isInterfaceOrHasSpringAnnotationsForJar(entry)) continue
+                val score = SearchIndexService.scoreClass(entry.name, entry.methods.map { it.substringBefore('(') }, query)
+                    ?: continue
+                matches.add(JarMatch(jarPath, entry, score))
+            }
+        }
 
+        // 只为排名靠前的结果解析 VirtualFile 和 PsiClass
+        return matches
+            .sortedByDescending { it.score }
+            .take(SearchIndexService.DEFAULT_LIMIT)
+            .mapNotNull { match ->
+                val virtualFile = JarFileSystem.getInstance()
+                    .findFileByPath("${match.jarPath}${JarFileSystem.JAR_SEPARATOR}${match.entry.entryPath}")
+                    ?: return@mapNotNull null
+                SearchResult(virtualFile.name, false, virtualFile, getPsiClassFromVirtualFile(virtualFile), match.score)
+            }
+    }
+
+    private fun apiJarPaths(): List<String> {
+        val paths = LinkedHashSet<String>()
         OrderEnumerator.orderEntries(project).librariesOnly().forEachLibrary { library ->
             library.getFiles(OrderRootType.CLASSES).forEach { classRoot ->
                 val jarFile = JarFileSystem.getInstance().getVirtualFileForJar(classRoot)
                 if (jarFile != null && isApiJarFile(jarFile)) {
-                    searchInJar(jarFile, query, resultFiles)
+                    paths.add(jarFile.path)
                 }
             }
             true
         }
-        return resultFiles.filter { result ->
-            val psiClass = getPsiClassFromVirtualFile(result.virtualFile)
-            psiClass != null && isInterfaceOrHasSpringAnnotationsForJar(psiClass)
-        }
+        return paths.toList()
     }
 
-    private fun hasSpringOrCustomAnnotationsForProject(psiClass: PsiClass): Boolean {
-        if (psiClass.name?.endsWith("Mapper") == true) {
+    private class JarMatch(val jarPath: String, val entry: JarMemberIndexService.JarClassEntry, val score: Int)
+
+    private fun hasSpringOrCustomAnnotationsForProject(entry: SearchIndexService.ClassEntry): Boolean {
+        if (entry.name.endsWith("Mapper")) {
             return true
         }
-
-        val springAnnotations = listOf(
-            "org.springframework.stereotype.Service",
-            "org.springframework.stereotype.Component",
-            "org.springframework.stereotype.Controller",
-            "org.springframework.web.bind.annotation.RestController",
-            "org.springframework.scheduling.annotation.Scheduled"
-        )
-
-        val customAnnotations = listOf(
-            "com.yupaopao.framework.spring.boot.aries.annotation.AriesCronJobListener",
-            "org.apache.dubbo.config.annotation.DubboService"
-        )
-
-        val allAnnotations = springAnnotations + customAnnotations
-
         // 检查类是否包含上述注解
-        psiClass.annotations.forEach { annotation ->
-            val qualifiedName = annotation.qualifiedName
-            if (qualifiedName != null && allAnnotations.contains(qualifiedName)) {
-                return true
-            }
-        }
-
-        return false
+        return entry.annotations.any { it in projectEntryAnnotations }
     }
 
-    private fun isInterfaceOrHasSpringAnnotationsForJar(psiClass: PsiClass): Boolean {
-        val springAnnotations = listOf(
-            "org.springframework.stereotype.Service",
-            "org.springframework.stereotype.Component",
-            "org.springframework.stereotype.Controller",
-            "org.springframework.web.bind.annotation.RestController",
-            "org.springframework.scheduling.annotation.Scheduled"
-        )
-
+    private fun isInterfaceOrHasSpringAnnotationsForJar(entry: JarMemberIndexService.JarClassEntry): Boolean {
         // 检查类是否是接口或是否带有 Spring 注解
-        if (psiClass.isInterface) {
-            return true
-        }
-
-        psiClass.annotations.forEach { annotation ->
-            val qualifiedName = annotation.qualifiedName
-            if (qualifiedName != null && springAnnotations.contains(qualifiedName)) {
-                return true
-            }
-        }
-
-        return false
+        return entry.interfaceType || entry.annotations.any { it in springAnnotations }
     }
 
     private fun isApiJarFile(jarFile: VirtualFile): Boolean {
         // Check if the JAR file matches the pattern `*-api-<version>.jar`
-        return jarFile.path.contains("yupaopao") && jarFile.name.matches(Regex(".*-api-.*.jar"))
-    }
-
-    private fun searchInJar(jarFile: VirtualFile, query: String, results: MutableList<SearchResult>) {
-        // 确保是 JAR 文件的根路径
-        val jarRoot = JarFileSystem.getInstance().getJarRootForLocalFile(jarFile) ?: return
-
-        // 递归搜索 JAR 文件中的类和资源文件
-        jarRoot.children.forEach { file ->
-            searchInJarRecursive(file, query, results)
-        }
-    }
-
-    private fun searchInJarRecursive(virtualFile: VirtualFile, query: String, results: MutableList<SearchResult>) {
-        if (virtualFile.isDirectory) {
-            // If it's a directory, continue recursively searching
-            virtualFile.children.forEach { child ->
-                searchInJarRecursive(child, query, results)
-            }
-        } else {
-            // If it's a file, check if the name matches the query using jump match
-            if (isJumpMatch(virtualFile.name, query)) {
-                results.add(SearchResult(virtualFile.name, false, virtualFile))
-            }
-        }
+        return jarFile.path.contains("yupaopao") && apiJarNameRegex.matches(jarFile.name)
     }
 
     private fun copyMethodReference(method: PsiMethod) {
@@ -359,13 +304,31 @@ class SearchPanel(private val project: Project) {
             fileEditorManager.openTextEditor(descriptor, true)
         }
     }
+
+    companion object {
+        private val apiJarNameRegex = Regex(".*-api-.*.jar")
+
+        private val springAnnotations = setOf(
+            "org.springframework.stereotype.Service",
+            "org.springframework.stereotype.Component",
+            "org.springframework.stereotype.Controller",
+            "org.springframework.web.bind.annotation.RestController",
+            "org.springframework.scheduling.annotation.Scheduled"
+        )
+
+        private val projectEntryAnnotations = springAnnotations + setOf(
+            "com.yupaopao.framework.spring.boot.aries.annotation.AriesCronJobListener",
+            "org.apache.dubbo.config.annotation.DubboService"
+        )
+    }
 }
 
 data class SearchResult(
     val name: String,
     val isProjectFile: Boolean,
     val virtualFile: VirtualFile,
-    var psiClass: PsiClass? = null
+    var psiClass: PsiClass? = null,
+    val score: Int = 0
 ) {
     override fun toString(): String {
         return name // 确保树中只显示文件名
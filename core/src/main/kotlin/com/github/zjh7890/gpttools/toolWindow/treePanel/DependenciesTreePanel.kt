@@ -9,7 +9,6 @@ import com.intellij.openapi.actionSystem.AnActionEvent
 import com.intellij.openapi.actionSystem.DefaultActionGroup
 import com.intellij.openapi.fileEditor.FileEditorManager
 import com.intellij.openapi.project.Project
-import com.intellij.psi.PsiClass
 import com.intellij.psi.PsiField
 import com.intellij.psi.PsiMethod
 import com.intellij.ui.treeStructure.Tree
@@ -31,7 +30,6 @@ class DependenciesTreePanel(val project: Project) : JPanel() {
     val root = TriStateTreeNode()
     val tree = Tree(root)
 
-    private val addedDependencies = mutableSetOf<PsiClass>()
     private var scrollPane: JScrollPane
     private var emptyPanel: JPanel
 
@@ -100,15 +98,13 @@ class DependenciesTreePanel(val project: Project) : JPanel() {
                     val userObject = node?.userObject
                     when (userObject) {
                         is ProjectClass -> {
-                            val psiClass = userObject.psiClass
-                            val virtualFile = psiClass.containingFile?.virtualFile
+                            val virtualFile = userObject.psiClass?.containingFile?.virtualFile
                             if (virtualFile != null) {
                                 FileEditorManager.getInstance(project).openFile(virtualFile, true)
                             }
                         }
                         is ProjectMethod -> {
-                            val psiMethod = userObject.psiMethod
-                            val virtualFile = psiMethod.containingFile?.virtualFile
+                            val virtualFile = userObject.psiMethod?.containingFile?.virtualFile
                             if (virtualFile != null) {
                                 val editors = FileEditorManager.getInstance(project).openFile(virtualFile, true)
                                 if (editors.isNotEmpty()) {
@@ -124,160 +120,84 @@ class DependenciesTreePanel(val project: Project) : JPanel() {
     }
 
     fun updateDependencies(appFileTree: AppFileTree) {
+        val snapshot = snapshot(appFileTree)
+        val model = tree.model as DefaultTreeModel
+
         // 1. 若没有任何 projectFileTrees，视为没有依赖
         if (appFileTree.projectFileTrees.isEmpty()) {
-            remove(scrollPane)
-            add(emptyPanel, BorderLayout.CENTER)
-            revalidate()
-            repaint()
+            syncChildren(root, emptyList(), model)
+            showTree(false)
             return
         }
 
-        // 显示树面板
-        remove(emptyPanel)
-        add(scrollPane, BorderLayout.CENTER)
-        root.removeAllChildren()
-
         // 设置 root 的 userObject 和 state
-        root.userObject = appFileTree
-
-        addedDependencies.clear()
-
-        // ------------------ 构建所有层级节点 ------------------
-        appFileTree.projectFileTrees.forEach { projectFileTree ->
-            // 1) project 节点
-            val projectNode = TriStateTreeNode().apply {
-                userObject = projectFileTree
-            }
-
-            // ------------- (A) Local Packages -------------
-            projectFileTree.localPackages.forEach { packageDependency ->
-                val packageNode = TriStateTreeNode().apply {
-                    userObject = packageDependency
-                }
-
-                packageDependency.files.forEach { file ->
-                    val classes = file.classes
-
-                    // 如果只有一个类且与文件名重名（去掉.kt/.java后缀），直接展示类节点
-                    if (classes.size == 1 && classes[0].psiClass.name == file.virtualFile.nameWithoutExtension) {
-                        val pClass = classes[0]
-                        val classNode = TriStateTreeNode().apply {
-                            userObject = pClass
-                        }
-                        addedDependencies.add(pClass.psiClass)
-
-                        // 方法节点
-                        pClass.methods.forEach { pm ->
-                            val methodNode = TriStateTreeNode().apply {
-                                userObject = pm
-                            }
-                            classNode.add(methodNode)
-                        }
-                        packageNode.add(classNode)
-                    } else {
-                        // 原有的处理逻辑：创建文件节点，然后添加类节点
-                        val fileNode = TriStateTreeNode().apply {
-                            userObject = file
-                        }
+        if (root.userObject !== appFileTree) {
+            root.userObject = appFileTree
+            model.nodeChanged(root)
+        }
 
-                        // 类节点
-                        classes.forEach { pClass ->
-                            val classNode = TriStateTreeNode().apply {
-                                userObject = pClass
-                            }
-                            addedDependencies.add(pClass.psiClass)
+        // 只对变化的节点发事件，保留展开、选中状态；勾选状态保存在 userObject 上
+        val firstUpdate = root.childCount == 0
+        syncChildren(root, snapshot.children, model)
+        if (firstUpdate) {
+            expandDefaultNodes()
+        }
+        showTree(true)
+    }
 
-                            // 方法节点
-                            pClass.methods.forEach { pm ->
-                                val methodNode = TriStateTreeNode().apply {
-                                    userObject = pm
-                                }
-                                classNode.add(methodNode)
-                            }
-                            fileNode.add(classNode)
-                        }
+    private fun showTree(show: Boolean) {
+        val current = if (show) scrollPane else emptyPanel
+        if (current.parent === this) return
+        remove(if (show) emptyPanel else scrollPane)
+        add(current, BorderLayout.CENTER)
+        revalidate()
+        repaint()
+    }
 
-                        packageNode.add(fileNode)
-                    }
-                }
-                projectNode.add(packageNode)
+    /**
+     * 按 key 对比现有子节点和快照：删除多余的，插入新增的，复用相同 key 的节点并递归对比
+     */
+    private fun syncChildren(parent: TriStateTreeNode, specs: List<DependencyTreeSnapshot>, model: DefaultTreeModel) {
+        val wanted = specs.mapTo(HashSet()) { it.key }
+        val existing = HashMap<String, TriStateTreeNode>()
+        val stale = mutableListOf<TriStateTreeNode>()
+        for (i in 0 until parent.childCount) {
+            val child = parent.getChildAt(i) as TriStateTreeNode
+            // 同 key 的节点只复用第一个，其余删除
+            if (child.key !in wanted || existing.putIfAbsent(child.key, child) != null) {
+                stale.add(child)
             }
-
-            // ------------- (B) Maven Dependencies -------------
-            if (projectFileTree.mavenDependencies.isNotEmpty()) {
-                projectFileTree.mavenDependencies.forEach { mavenDep ->
-                    val mavenDepNode = TriStateTreeNode().apply {
-                        userObject = mavenDep
-                    }
-
-                    // 使用扁平路径构建结构
-                    mavenDep.packages.forEach { packageDependency ->
-                        val packageNode = TriStateTreeNode().apply {
-                            userObject = packageDependency
-                        }
-
-                        packageDependency.files.forEach { file ->
-                            val classes = file.classes
-
-                            // 如果只有一个类且与文件名重名（去掉.class后缀），直接展示类节点
-                            if (classes.size == 1 && classes[0].psiClass.name == file.virtualFile.nameWithoutExtension) {
-                                val pClass = classes[0]
-                                val classNode = TriStateTreeNode().apply {
-                                    userObject = pClass
-                                }
-                                addedDependencies.add(pClass.psiClass)
-
-                                // 方法节点
-                                pClass.methods.forEach { pm ->
-                                    val methodNode = TriStateTreeNode().apply {
-                                        userObject = pm
-                                    }
-                                    classNode.add(methodNode)
-                                }
-                                packageNode.add(classNode)
-                            } else {
-                                // 原有的处理逻辑：创建文件节点，然后添加类节点
-                                val fileNode = TriStateTreeNode().apply {
-                                    userObject = file
-                                }
-
-                                // 类节点
-                                classes.forEach { pClass ->
-                                    val classNode = TriStateTreeNode().apply {
-                                        userObject = pClass
-                                    }
-                                    addedDependencies.add(pClass.psiClass)
-
-                                    // 方法节点
-                                    pClass.methods.forEach { pm ->
-                                        val methodNode = TriStateTreeNode().apply {
-                                            userObject = pm
-                                        }
-                                        classNode.add(methodNode)
-                                    }
-                                    fileNode.add(classNode)
-                                }
-
-                                packageNode.add(fileNode)
-                            }
-                        }
-
-                        mavenDepNode.add(packageNode)
-                    }
-
-                    projectNode.add(mavenDepNode)
+        }
+        stale.forEach { model.removeNodeFromParent(it) }
+
+        specs.forEachIndexed { index, spec ->
+            val node = existing.remove(spec.key)
+            if (node == null) {
+                val newNode = buildNode(spec)
+                model.insertNodeInto(newNode, parent, index)
+                // 新节点默认展开，但不展开用户已折叠的父节点
+                if (parent === root || tree.isExpanded(TreePath(parent.path))) {
+                    expandNodeRecursively(newNode)
                 }
+                return@forEachIndexed
             }
-
-            root.add(projectNode)
+            if (parent.getIndex(node) != index) {
+                model.removeNodeFromParent(node)
+                model.insertNodeInto(node, parent, index)
+            }
+            if (node.userObject !== spec.userObject) {
+                node.userObject = spec.userObject
+                model.nodeChanged(node)
+            }
+            syncChildren(node, spec.children, model)
         }
+    }
 
-        // 刷新树并展开
-        (tree.model as DefaultTreeModel).reload(root)
-        expandDefaultNodes()
-        revalidate()
-        repaint()
+    private fun buildNode(spec: DependencyTreeSnapshot): TriStateTreeNode {
+        val node = TriStateTreeNode(spec.userObject)
+        node.key = spec.key
+        spec.children.forEach { node.add(buildNode(it)) }
+        return node
     }
 
     fun expandDefaultNodes() {
@@ -312,71 +232,107 @@ class DependenciesTreePanel(val project: Project) : JPanel() {
     }
 
     companion object {
-        fun toMarkdownString(appFileTree: AppFileTree): String {
-            if (appFileTree.projectFileTrees.isEmpty()) {
-                return "(no dependencies)"
+        fun toMarkdownString(appFileTree: AppFileTree): String = snapshot(appFileTree).toMarkdown()
+
+        /**
+         * 取依赖树的结构快照，和树面板展示的层级一致：
+         * 文件只有一个同名类时直接展示类节点，否则展示文件节点再展示其中的类
+         */
+        fun snapshot(appFileTree: AppFileTree): DependencyTreeSnapshot {
+            val projects = appFileTree.projectFileTrees.map { projectFileTree ->
+                val packages = projectFileTree.localPackages.map { packageSnapshot(it) }
+                val mavenDependencies = projectFileTree.mavenDependencies.map { mavenDep ->
+                    val gav = "${mavenDep.groupId}:${mavenDep.artifactId}:${mavenDep.version}"
+                    DependencyTreeSnapshot("maven:$gav", mavenDep, gav, mavenDep.packages.map { packageSnapshot(it) })
+                }
+                // 同名的项目用路径区分
+                DependencyTreeSnapshot(
+                    "project:${projectFileTree.project.basePath ?: projectFileTree.project.name}",
+                    projectFileTree,
+                    "Project: ${projectFileTree.project.name}",
+                    (packages + mavenDependencies).withUniqueKeys()
+                )
             }
-            val sb = StringBuilder()
-            appFileTree.projectFileTrees.forEach { projectFileTree ->
-                sb.append("- Project: ${projectFileTree.project.name}\n")
-
-                // 1) Local Packages
-                projectFileTree.localPackages.forEach { packageDependency ->
-                    sb.append("  - Package: ${packageDependency.packageName}\n")
-                    packageDependency.files.forEach { file ->
-                        // 使用 file.classes 以复用 updateDependencies 中的逻辑
-                        val classes = file.classes
-                        if (classes.size == 1 && classes[0].psiClass.name == file.virtualFile.nameWithoutExtension) {
-                            // 直接展示类节点
-                            val pClass = classes[0]
-                            sb.append("    - Class: ${pClass.psiClass.name}\n")
-                            pClass.methods.forEach { pm ->
-                                sb.append("      - Method: ${pm.psiMethod.name}\n")
-                            }
-                        } else {
-                            // 展示文件节点，再展示文件下的类节点
-                            sb.append("    - File: ${file.virtualFile.name}\n")
-                            classes.forEach { pClass ->
-                                sb.append("      - Class: ${pClass.psiClass.name}\n")
-                                pClass.methods.forEach { pm ->
-                                    sb.append("        - Method: ${pm.psiMethod.name}\n")
-                                }
-                            }
-                        }
-                    }
+            return DependencyTreeSnapshot("root", appFileTree, "Dependencies", projects.withUniqueKeys())
+        }
+
+        private fun packageSnapshot(packageDependency: PackageDependency): DependencyTreeSnapshot {
+            val children = packageDependency.files.map { file ->
+                val classes = file.classes
+                if (classes.size == 1 && classes[0].className == file.nameWithoutExtension) {
+                    classSnapshot(classes[0])
+                } else {
+                    DependencyTreeSnapshot("file:${file.filePath}", file, "File: ${file.fileName}", classes.map { classSnapshot(it) }.withUniqueKeys())
+                }
+            }.withUniqueKeys()
+            return DependencyTreeSnapshot(
+                "package:${packageDependency.packageName}",
+                packageDependency,
+                "Package: ${packageDependency.packageName}",
+                children
+            )
+        }
+
+        private fun classSnapshot(pClass: ProjectClass): DependencyTreeSnapshot {
+            val methods = pClass.methods.map { pm ->
+                DependencyTreeSnapshot("method:${pm.key}", pm, "Method: ${pm.methodName}", emptyList())
+            }
+            // 同一文件中可能有同名的嵌套类，用添加时记下的 qualifiedName 区分，不在 EDT 上解析 PSI
+            val key = pClass.qualifiedName ?: pClass.className
+            return DependencyTreeSnapshot("class:$key", pClass, "Class: ${pClass.className}", methods)
+        }
+
+        /**
+         * 保证同一父节点下的 key 唯一，重复的 key 按出现顺序加序号
+         */
+        private fun List<DependencyTreeSnapshot>.withUniqueKeys(): List<DependencyTreeSnapshot> {
+            val counts = HashMap<String, Int>()
+            return map { snapshot ->
+                val count = counts.merge(snapshot.key, 1, Int::plus)!!
+                if (count == 1) {
+                    snapshot
+                } else {
+                    DependencyTreeSnapshot("${snapshot.key}#$count", snapshot.userObject, snapshot.markdownLabel, snapshot.children)
                 }
+            }
+        }
+    }
+}
 
-                // 2) Maven Dependencies
-                if (projectFileTree.mavenDependencies.isNotEmpty()) {
-                    sb.append("  - Maven Dependencies\n")
-                    projectFileTree.mavenDependencies.forEach { mavenDep ->
-                        val gav = "${mavenDep.groupId}:${mavenDep.artifactId}:${mavenDep.version}"
-                        sb.append("    - $gav\n")
-                        mavenDep.packages.forEach { packageDependency ->
-                            sb.append("      - Package: ${packageDependency.packageName}\n")
-                            packageDependency.files.forEach { file ->
-                                val classes = file.classes
-                                if (classes.size == 1 && classes[0].psiClass.name == file.virtualFile.nameWithoutExtension) {
-                                    val pClass = classes[0]
-                                    sb.append("        - Class: ${pClass.psiClass.name}\n")
-                                    pClass.methods.forEach { pm ->
-                                        sb.append("          - Method: ${pm.psiMethod.name}\n")
-                                    }
-                                } else {
-                                    sb.append("        - File: ${file.virtualFile.name}\n")
-                                    classes.forEach { pClass ->
-                                        sb.append("          - Class: ${pClass.psiClass.name}\n")
-                                        pClass.methods.forEach { pm ->
-                                            sb.append("            - Method: ${pm.psiMethod.name}\n")
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
+/**
+ * 依赖树某一时刻的结构快照。节点和文本在创建时就确定，之后不再读取会话里可变的节点，
+ * 可以放到后台线程渲染 Markdown，也用于 [DependenciesTreePanel] 做增量更新。
+ */
+class DependencyTreeSnapshot(
+    /** 同一父节点下唯一，用于对比新旧树 */
+    val key: String,
+    val userObject: Any,
+    val markdownLabel: String,
+    val children: List<DependencyTreeSnapshot>
+) {
+    fun toMarkdown(): String {
+        if (children.isEmpty()) {
+            return "(no dependencies)"
+        }
+        val sb = StringBuilder()
+        children.forEach { appendMarkdown(sb, it, 0) }
+        return sb.toString()
+    }
+
+    private fun appendMarkdown(sb: StringBuilder, node: DependencyTreeSnapshot, depth: Int) {
+        sb.append("  ".repeat(depth)).append("- ").append(node.markdownLabel).append("\n")
+        var mavenHeaderWritten = false
+        node.children.forEach { child ->
+            if (child.userObject is MavenDependency) {
+                // Maven 依赖统一放在一个分组下
+                if (!mavenHeaderWritten) {
+                    sb.append("  ".repeat(depth + 1)).append("- Maven Dependencies\n")
+                    mavenHeaderWritten = true
                 }
+                appendMarkdown(sb, child, depth + 2)
+            } else {
+                appendMarkdown(sb, child, depth + 1)
             }
-            return sb.toString()
         }
     }
 }
@@ -409,6 +365,9 @@ class ClassDependencyInfo(var isAtomicClass: Boolean = false) {
 
 // 2. 定义 TriStateTreeNode，支持三态并同步到用户对象
 class TriStateTreeNode(userObject: Any? = null) : DefaultMutableTreeNode(userObject) {
+    /** 对应 [DependencyTreeSnapshot.key]，增量更新时用来匹配节点 */
+    var key: String = ""
+
     fun updateState(value: CheckState) {
         if (userObjectState() != value) {
             syncToUserObject(value)
@@ -559,15 +518,15 @@ class TriStateCheckboxTreeCellRenderer : DefaultTreeCellRenderer() {
                         com.intellij.icons.AllIcons.Nodes.Record
                     else
                         com.intellij.icons.AllIcons.Nodes.Class
-                    text = userObj.psiClass.name
+                    text = userObj.className
                 }
                 is ProjectMethod -> {
                     icon = com.intellij.icons.AllIcons.Nodes.Method
-                    text = userObj.psiMethod.name
+                    text = userObj.methodName
                 }
                 is ProjectFile -> {
                     icon = com.intellij.icons.AllIcons.FileTypes.Any_type
-                    text = userObj.virtualFile.name
+                    text = userObj.fileName
                 }
                 is PackageDependency -> {
                     icon = com.intellij.icons.AllIcons.Nodes.Package
@@ -2,6 +2,7 @@
 
 package com.github.zjh7890.gpttools.toolWindow.treePanel
 
+import com.github.zjh7890.gpttools.context.DataClassStructureExtractor
 import com.github.zjh7890.gpttools.services.*
 import com.github.zjh7890.gpttools.utils.ClipboardUtils
 import com.github.zjh7890.gpttools.utils.FileUtil
@@ -140,7 +141,7 @@ class FileTreeListPanel(private val project: Project) : JPanel() {
                     for (i in 0 until classNode.childCount) {
                         val methodNode = classNode.getChildAt(i) as? TriStateTreeNode
                         if (methodNode?.userObjectState() == CheckState.SELECTED) {
-                            val methodName = (methodNode.userObject as? ProjectMethod)?.psiMethod?.name
+                            val methodName = (methodNode.userObject as? ProjectMethod)?.methodName
                             val method = psiClass.methods.find { it.name == methodName }
                             if (method != null) {
                                 analyzeMethodDependencies(method, psiClass, classGraph)
@@ -192,7 +193,7 @@ class FileTreeListPanel(private val project: Project) : JPanel() {
         var classNode: TriStateTreeNode? = null
         for (i in 0 until rootClassNode.childCount) {
             val node = rootClassNode.getChildAt(i) as? TriStateTreeNode
-            if ((node?.userObject as? ProjectClass)?.psiClass?.name == psiClass.name) {
+            if ((node?.userObject as? ProjectClass)?.className == psiClass.name) {
                 classNode = node
                 break
             }
@@ -202,7 +203,7 @@ class FileTreeListPanel(private val project: Project) : JPanel() {
             // 找到对应的方法节点并设置选中状态
             for (i in 0 until classNode.childCount) {
                 val node = classNode.getChildAt(i) as? TriStateTreeNode
-                if ((node?.userObject as? ProjectMethod)?.psiMethod?.name == method.name) {
+                if ((node?.userObject as? ProjectMethod)?.methodName == method.name) {
                     break
                 }
             }
@@ -479,6 +480,9 @@ class FileTreeListPanel(private val project: Project) : JPanel() {
             }
         }
 
+        /**
+         * 收集数据类及其字段中引用到的项目内数据类，展开层数和类的数量有上限
+         */
         fun analyzeDataClass(
             psiClass: PsiClass,
             classGraph: MutableMap<PsiClass, ClassDependencyInfo>
@@ -488,24 +492,15 @@ class FileTreeListPanel(private val project: Project) : JPanel() {
                 return
             }
 
-            classGraph.getOrPut(psiClass) { ClassDependencyInfo(isAtomicClass = true) }
-            // 处理整个类中的所有元素
-            PsiTreeUtil.processElements(psiClass) { element ->
-                when (element) {
-                    is PsiTypeElement -> {
-                        val typeClass = resolveClassFromType(element.type)
-                        if (typeClass != null) {
-                            val virtualFile = typeClass.containingFile?.virtualFile
-                            if (virtualFile != null && PsiUtils.ifProjectFile(typeClass.project, virtualFile)) {
-                                if (PsiUtils.isAtomicClass(typeClass)) {
-                                    analyzeDataClass(typeClass, classGraph)
-                                }
-                            }
-                        }
-                    }
-                }
-                true
+            // 已经在图中的类不再展开
+            val dataClasses = DataClassStructureExtractor.collect(psiClass) { typeClass ->
+                val virtualFile = typeClass.containingFile?.virtualFile
+                classGraph[typeClass] == null &&
+                        virtualFile != null &&
+                        PsiUtils.ifProjectFile(typeClass.project, virtualFile) &&
+                        PsiUtils.isAtomicClass(typeClass)
             }
+            dataClasses.forEach { classGraph.getOrPut(it) { ClassDependencyInfo(isAtomicClass = true) } }
         }
     }
 }
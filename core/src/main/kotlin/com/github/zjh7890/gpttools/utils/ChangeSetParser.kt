@@ -0,0 +1,134 @@
+package com.github.zjh7890.gpttools.utils
+
+import CodeChangeFile
+import FileChangeItem
+
+/**
+ * 解析模型返回的文件变更（CHANGES START / CHANGE START / <<<< ORIGINAL / ==== / >>>> UPDATED 格式）。
+ *
+ * 按行扫描一遍，不回头看已经处理过的内容，耗时与文本长度成正比。
+ */
+object ChangeSetParser {
+    const val CHANGES_START = "----- CHANGES START -----"
+    const val CHANGES_END = "----- CHANGES END -----"
+    private const val CHANGE_START = "----- CHANGE START -----"
+    private const val CHANGE_END = "----- CHANGE END -----"
+    private const val ORIGINAL_START = "<<<< ORIGINAL"
+    private const val SEPARATOR = "===="
+    private const val UPDATED_END = ">>>> UPDATED"
+    private const val PATH_PREFIX = "path: "
+    private const val CHANGE_TYPE_PREFIX = "changeType: "
+
+    /**
+     * 解析完整文本，相同路径的变更合并成一个文件，按路径首次出现的顺序返回
+     */
+    fun parseChangeFiles(text: String): List<CodeChangeFile> {
+        val changesByPath = LinkedHashMap<String, MutableList<Change>>()
+        val parser = LineParser { change -> changesByPath.getOrPut(change.path) { mutableListOf() }.add(change) }
+        text.split('\n').forEach { parser.processLine(it) }
+        parser.finish()
+        return changesByPath.map { (path, changes) ->
+            CodeChangeFile(
+                path = path,
+                dirPath = path.substringBeforeLast('/', missingDelimiterValue = ""),
+                filename = path.substringAfterLast('/'),
+                changeItems = changes.flatMap { it.items },
+                isMerged = false,
+                changeType = changes[0].changeType
+            )
+        }
+    }
+
+    private class Change(val path: String, val changeType: String, val items: List<FileChangeItem>)
+
+    private class LineParser(private val onChange: (Change) -> Unit) {
+        private enum class State { OUTSIDE, IN_CHANGE_SET, IN_CHANGE, IN_ORIGINAL, IN_UPDATED }
+
+        private var state = State.OUTSIDE
+        private var path: String? = null
+        private var changeType: String? = null
+        private val items = mutableListOf<FileChangeItem>()
+        private val original = StringBuilder()
+        private val updated = StringBuilder()
+        private var originalLines = 0
+        private var updatedLines = 0
+
+        fun processLine(rawLine: String) {
+            // 兼容 \r\n
+            val line = rawLine.removeSuffix("\r")
+            val trimmed = line.trim()
+            when (state) {
+                State.OUTSIDE -> if (trimmed == CHANGES_START) state = State.IN_CHANGE_SET
+                State.IN_CHANGE_SET -> when (trimmed) {
+                    CHANGES_END -> state = State.OUTSIDE
+                    CHANGE_START -> {
+                        state = State.IN_CHANGE
+                        path = null
+                        changeType = null
+                        items.clear()
+                    }
+                }
+                State.IN_CHANGE -> when {
+                    trimmed == CHANGE_END -> finishChange()
+                    trimmed == ORIGINAL_START -> state = State.IN_ORIGINAL
+                    path == null && line.startsWith(PATH_PREFIX) -> path = line.substringAfter(PATH_PREFIX)
+                    changeType == null && line.startsWith(CHANGE_TYPE_PREFIX) ->
+                        changeType = line.substringAfter(CHANGE_TYPE_PREFIX)
+                }
+                State.IN_ORIGINAL -> when (trimmed) {
+                    SEPARATOR -> state = State.IN_UPDATED
+                    CHANGE_END -> {
+                        finishItem()
+                        finishChange()
+                    }
+                    else -> {
+                        if (originalLines++ > 0) original.append('\n')
+                        original.append(line)
+                    }
+                }
+                State.IN_UPDATED -> when (trimmed) {
+                    UPDATED_END -> finishItem()
+                    CHANGE_END -> {
+                        finishItem()
+                        finishChange()
+                    }
+                    else -> {
+                        if (updatedLines++ > 0) updated.append('\n')
+                        updated.append(line)
+                    }
+                }
+            }
+        }
+
+        /**
+         * 文本结束时调用，没有闭合的 CHANGE 块按已有内容处理
+         */
+        fun finish() {
+            when (state) {
+                State.IN_ORIGINAL, State.IN_UPDATED -> {
+                    finishItem()
+                    finishChange()
+                }
+                State.IN_CHANGE -> finishChange()
+                else -> {}
+            }
+        }
+
+        private fun finishItem() {
+            items.add(FileChangeItem(original.toString(), updated.toString()))
+            original.setLength(0)
+            updated.setLength(0)
+            originalLines = 0
+            updatedLines = 0
+            state = State.IN_CHANGE
+        }
+
+        private fun finishChange() {
+            state = State.IN_CHANGE_SET
+            // 与原来的行为一致：没有 ORIGINAL/UPDATED 的 CHANGE 块忽略
+            if (items.isEmpty()) return
+            onChange(Change(path ?: "Unknown path", changeType ?: "Unknown", items.toList()))
+            items.clear()
+        }
+    }
+}
@@ -1,24 +1,28 @@
 package com.github.zjh7890.gpttools.utils
 
-import com.fasterxml.jackson.module.kotlin.jacksonObjectMapper
-import com.fasterxml.jackson.module.kotlin.readValue
-import com.github.zjh7890.gpttools.services.ToolsService
+import com.github.zjh7890.gpttools.services.ToolRegistry
+import com.intellij.openapi.progress.ProcessCanceledException
 import com.intellij.openapi.project.Project
+import com.intellij.util.execution.ParametersListUtil
+import kotlinx.coroutines.runBlocking
 import java.io.File
-import kotlin.reflect.full.findAnnotation
-import kotlin.reflect.full.memberFunctions
-import kotlin.reflect.jvm.jvmErasure
 
 /**
  * @Date: 2024/9/30 14:03
  */
 object CmdUtils {
-    fun executeCmd(cmd: String, commandType: String, project: Project) : String {
-        val functions = ToolsService::class.memberFunctions.filter { function ->
-            function.findAnnotation<Desc>() != null
-        }
+    const val DEFAULT_SHELL_TIMEOUT_MILLIS = 60_000L
 
-        if (commandType == "custom" || functions.any { cmd.contains(it.name) }) {
+    /**
+     * @param timeoutMillis shell 命令的超时时间，小于等于 0 表示不限时
+     */
+    fun executeCmd(
+        cmd: String,
+        commandType: String,
+        project: Project,
+        timeoutMillis: Long = DEFAULT_SHELL_TIMEOUT_MILLIS
+    ) : String {
+        if (isCustomCommand(cmd, commandType)) {
             val funcNameAndArgs = parseCustomCommand(cmd)
             if (funcNameAndArgs != null) {
                 val (funcName, functionArguments) = funcNameAndArgs
@@ -31,12 +35,23 @@ object CmdUtils {
             }
         } else if(commandType == "shell") {
             try {
-                val process = Runtime.getRuntime().exec(cmd, null, File(project.basePath))
-                val output = process.inputStream.bufferedReader().readText()
-                val errorOutput = process.errorStream.bufferedReader().readText()
+                // stdout 和 stderr 同时读取，超时后结束进程，已读到的输出照常返回
+                val result = runBlocking {
+                    ProcessRunner.execute(
+                        ParametersListUtil.parse(cmd),
+                        File(project.basePath),
+                        timeoutMillis = timeoutMillis
+                    )
+                }
+                val output = result.stdout
+                val errorOutput = if (result.timedOut) {
+                    result.stderr + "\n命令执行超过 ${timeoutMillis / 1000} 秒，已结束"
+                } else result.stderr
 
                 val message = "命令执行成功：${cmd}\n输出：\n```\n$output\n```\n错误输出：$errorOutput"
                 return message
+            } catch (e: ProcessCanceledException) {
+                throw e
             } catch (e: Exception) {
                 val message = "命令执行失败：${cmd}\n${e.message}"
                 return message
@@ -46,6 +61,13 @@ object CmdUtils {
         }
     }
 
+    /**
+     * 是否是调用 ToolsService 的自定义命令，否则按 shell 命令执行
+     */
+    fun isCustomCommand(cmd: String, commandType: String): Boolean {
+        return commandType == "custom" || ToolRegistry.getInstance().getTools().any { cmd.contains(it.name) }
+    }
+
     // 更新 parseCustomCommand 方法
     private fun parseCustomCommand(cmd: String): Pair<String, String>? {
         val regex = Regex("""(\w+)\s*(\{.*\})""", RegexOption.DOT_MATCHES_ALL)
@@ -60,44 +82,16 @@ object CmdUtils {
     }
 
     private fun executeCustom(funcName: String, functionArguments: String, project: Project): Any {
-//        val cast = toolCall.cast<ChatCompletionsFunctionToolCall>()
-//        val funcName = cast.function.name
-//        val functionArguments = cast.function.arguments
-
         // functionArguments 示例: {"path": "live-service/api/File.txt"}
-        // 反射找到对应的方法自动填充参数并调用
-
-        // 反序列化 JSON 参数
-        val objectMapper = jacksonObjectMapper()
-
-        // 使用反射查找并调用函数
-        val func = ToolsService::class.memberFunctions.find { it.name == funcName }
-        return func?.let { function ->
-            try {
-                // 构造正确的参数类型
-                val parameters =
-                    function.parameters.drop(1)  // Drop the first parameter (receiver object)
-                val args = mutableListOf<Any?>()
-                val argsMap: Map<String, Any> = objectMapper.readValue(functionArguments)
-                parameters.forEach { param ->
-                    val paramName = param.name!!
-                    val paramValue = argsMap[paramName]
-                    val typedValue =
-                        objectMapper.convertValue(paramValue, param.type.jvmErasure.javaObjectType)
-                    args.add(typedValue)
-                }
-
-                val service = project.getService(ToolsService::class.java)
-                // 调用函数
-                val call = function.call(service, *args.toTypedArray())
-                // 如果 call 是 string 类型，直接返回，否则 toJson
-
-                val result = if (call is String) call else objectMapper.writeValueAsString(call)
-                "Function '$funcName' executed with result: $result"
-                return@let result
-            } catch (e: Exception) {
-                "Error executing function '$funcName': ${e.message}"
-            }
-        } ?: "Function '$funcName' not found"
+        // 按名字查找注册好的工具，参数按声明的类型反序列化后直接调用
+        val tool = ToolRegistry.getInstance().findTool(funcName) ?: return "Function '$funcName' not found"
+        return try {
+            tool.invoke(project, functionArguments)
+        } catch (e: ProcessCanceledException) {
+            // 超时或写操作取消，交给调用方重试或按超时处理
+            throw e
+        } catch (e: Exception) {
+            "Error executing function '$funcName': ${e.message}"
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,215 @@
+package com.github.zjh7890.gpttools.utils
+
+import com.intellij.openapi.application.runReadAction
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.diff.impl.patch.PatchLine
+import com.intellij.openapi.diff.impl.patch.TextFilePatch
+import com.intellij.openapi.fileTypes.FileTypeManager
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.text.StringUtil
+import com.intellij.openapi.vcs.changes.Change
+import com.intellij.psi.*
+import com.intellij.psi.util.PsiTreeUtil
+
+/**
+ * 把 diff hunk 映射到受影响的方法上。
+ *
+ * 每个文件只构建一次方法行区间树，每个变更区间在树上做一次 O(log n + k) 的查询；
+ * 结果按 (文件, 修改前版本, 修改后版本) 缓存。
+ */
+@Service(Service.Level.PROJECT)
+class DiffMethodMapper(private val project: Project) {
+
+    /**
+     * @param pointer 修改后文件中的方法；删除文件里的方法没有 pointer
+     * @param text 删除文件里方法在修改前版本中的代码，其他情况为 null
+     */
+    data class MethodSpan(
+        val name: String,
+        val startLine: Int,
+        val endLine: Int,
+        val pointer: SmartPsiElementPointer<PsiMethod>?,
+        val text: String? = null
+    ) {
+        /**
+         * 方法的代码，需要在读操作中调用
+         */
+        fun resolveText(): String? = pointer?.element?.text ?: text
+    }
+
+    private data class RevisionKey(val path: String, val before: String?, val after: String?)
+
+    private val cache = object : LinkedHashMap<RevisionKey, List<MethodSpan>>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<RevisionKey, List<MethodSpan>>): Boolean =
+            size > MAX_CACHED_FILES
+    }
+
+    /**
+     * 返回该变更影响到的方法，按起始行排序
+     */
+    fun findAffectedMethods(change: Change, patch: TextFilePatch): List<MethodSpan> = runReadAction {
+        when (change.type) {
+            // 新增文件：修改后文件里的方法全部受影响
+            Change.Type.NEW -> {
+                val psiFile = findAfterFile(change) ?: return@runReadAction emptyList()
+                val key = RevisionKey(psiFile.virtualFile.path, null, psiFile.modificationStamp.toString())
+                cached(key) { buildSpans(psiFile, withPointers = true) }
+            }
+
+            // 删除文件：用修改前的内容构建临时 PSI，方法全部受影响，代码从修改前的内容中取
+            Change.Type.DELETED -> {
+                val beforeRevision = change.beforeRevision ?: return@runReadAction emptyList()
+                val key = RevisionKey(beforeRevision.file.path, beforeRevision.revisionNumber.asString(), null)
+                cached(key) {
+                    val content = beforeRevision.content ?: return@cached emptyList()
+                    val fileType = FileTypeManager.getInstance().getFileTypeByFileName(beforeRevision.file.name)
+                    val psiFile = PsiFileFactory.getInstance(project)
+                        .createFileFromText(beforeRevision.file.name, fileType, StringUtil.convertLineSeparators(content))
+                    buildSpans(psiFile, withPointers = false)
+                }
+            }
+
+            // 修改和移动（重命名）：在修改后文件上查询变更行
+            else -> {
+                val psiFile = findAfterFile(change) ?: return@runReadAction emptyList()
+                val key = RevisionKey(
+                    psiFile.virtualFile.path,
+                    change.beforeRevision?.revisionNumber?.asString(),
+                    psiFile.modificationStamp.toString()
+                )
+                cached(key) {
+                    val tree = LineIntervalTree(buildSpans(psiFile, withPointers = true))
+                    stabHunks(tree, patch)
+                }
+            }
+        }
+    }
+
+    private fun findAfterFile(change: Change): PsiFile? {
+        val virtualFile = change.afterRevision?.file?.virtualFile ?: return null
+        if (!virtualFile.isValid) return null
+        return PsiManager.getInstance(project).findFile(virtualFile)
+    }
+
+    private fun cached(key: RevisionKey, compute: () -> List<MethodSpan>): List<MethodSpan> {
+        synchronized(cache) { cache[key] }?.let { return it }
+        val spans = compute()
+        synchronized(cache) { cache[key] = spans }
+        return spans
+    }
+
+    private fun buildSpans(psiFile: PsiFile, withPointers: Boolean): List<MethodSpan> {
+        val document = PsiDocumentManager.getInstance(project).getDocument(psiFile)
+            ?: psiFile.viewProvider.document
+            ?: return emptyList()
+        val pointerManager = SmartPointerManager.getInstance(project)
+
+        return PsiTreeUtil.findChildrenOfType(psiFile, PsiMethod::class.java)
+            .map { method ->
+                val range = method.textRange
+                MethodSpan(
+                    name = method.name,
+                    startLine = document.getLineNumber(range.startOffset),
+                    endLine = document.getLineNumber(range.endOffset),
+                    pointer = if (withPointers) pointerManager.createSmartPsiElementPointer(method) else null,
+                    text = if (withPointers) null else method.text
+                )
+            }
+            .sortedBy { it.startLine }
+    }
+
+    /**
+     * 逐个 hunk 计算修改后文件中的变更行（0-based），在区间树上查询
+     */
+    private fun stabHunks(tree: LineIntervalTree, patch: TextFilePatch): List<MethodSpan> {
+        val affected = LinkedHashSet<MethodSpan>()
+
+        for (hunk in patch.hunks) {
+            var afterLine = hunk.startLineAfter
+            var addStart = -1
+
+            fun flushAdditions() {
+                if (addStart >= 0) {
+                    affected.addAll(tree.query(addStart, afterLine - 1))
+                    addStart = -1
+                }
+            }
+
+            for (line in hunk.lines) {
+                when (line.type) {
+                    PatchLine.Type.ADD -> {
+                        if (addStart < 0) addStart = afterLine
+                        afterLine++
+                    }
+
+                    PatchLine.Type.REMOVE -> {
+                        flushAdditions()
+                        // 删除发生在 afterLine - 1 与 afterLine 之间，与这两行有交集的方法都算受影响，
+                        // 例如删除方法的注解、注释或方法体第一行
+                        // 在文件开头删除时 afterLine 为 0，查询 [-1, 0] 只会命中第 0 行
+                        affected.addAll(tree.query(afterLine - 1, afterLine))
+                    }
+
+                    else -> {
+                        flushAdditions()
+                        afterLine++
+                    }
+                }
+            }
+            flushAdditions()
+        }
+
+        return affected.sortedBy { it.startLine }
+    }
+
+    companion object {
+        private const val MAX_CACHED_FILES = 1000
+
+        @JvmStatic
+        fun getInstance(project: Project): DiffMethodMapper {
+            return project.getService(DiffMethodMapper::class.java)
+        }
+    }
+}
+
+/**
+ * 静态的增强区间树：区间按起始行排序后隐式构成平衡二叉树，每个节点记录子树的最大结束行。
+ */
+internal class LineIntervalTree(spans: List<DiffMethodMapper.MethodSpan>) {
+    private val sorted = spans.sortedBy { it.startLine }
+    private val maxEnd = IntArray(sorted.size)
+
+    init {
+        build(0, sorted.size)
+    }
+
+    private fun build(from: Int, to: Int): Int {
+        if (from >= to) return Int.MIN_VALUE
+        val mid = (from + to) ushr 1
+        maxEnd[mid] = maxOf(sorted[mid].endLine, build(from, mid), build(mid + 1, to))
+        return maxEnd[mid]
+    }
+
+    /**
+     * 返回与 [startLine, endLine] 相交的所有区间
+     */
+    fun query(startLine: Int, endLine: Int): List<DiffMethodMapper.MethodSpan> {
+        val result = mutableListOf<DiffMethodMapper.MethodSpan>()
+        query(0, sorted.size, startLine, endLine, result)
+        return result
+    }
+
+    private fun query(from: Int, to: Int, startLine: Int, endLine: Int, result: MutableList<DiffMethodMapper.MethodSpan>) {
+        if (from >= to) return
+        val mid = (from + to) ushr 1
+        if (maxEnd[mid] < startLine) return
+
+        query(from, mid, startLine, endLine, result)
+        val span = sorted[mid]
+        if (span.startLine > endLine) return
+        if (span.endLine >= startLine) {
+            result.add(span)
+        }
+        query(mid + 1, to, startLine, endLine, result)
+    }
+}
@@ -1,125 +1,287 @@
 package com.github.zjh7890.gpttools.utils
 
-import org.w3c.dom.Element
+import java.io.BufferedInputStream
+import java.io.ByteArrayInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.StringReader
 import java.net.URLDecoder
 import java.util.*
-import javax.xml.parsers.DocumentBuilderFactory
+import java.util.zip.Inflater
+import java.util.zip.InflaterInputStream
+import javax.xml.stream.XMLInputFactory
+import javax.xml.stream.XMLStreamConstants
+import javax.xml.stream.XMLStreamReader
 
-object DrawioToMermaidConverter {
-    private val idMap = mutableMapOf<String, Int>()
-    private val reverseIdMap = mutableMapOf<Int, String>()
-    private var idCounter = 1  // Start counting from 1 for mermaid nodes
-    private val vertices = mutableMapOf<String, Vertex>()
-    private val edges = mutableListOf<Edge>()
-    private val incomingEdges = mutableMapOf<String, MutableList<String>>()
-    private val visitedEdges = mutableListOf<Edge>()
+/**
+ * draw.io 图转 Mermaid 流程图。
+ *
+ * - 每次转换使用独立实例，可以在多个线程、多个 Action 中同时调用
+ * - StAX 单次流式解析，只保留节点和边，不构建 DOM
+ * - 压缩的页面内容（base64 + deflate + URL 编码）边解压边解析
+ * - 多页文档按页分别输出，每页是一张独立的 Mermaid 图
+ */
+class DrawioToMermaidConverter private constructor() {
+    private val pages = mutableListOf<Page>()
 
-    fun convert(encodedData: String): String {
-        // Decode the URL-encoded XML data
-        val decodedData = URLDecoder.decode(encodedData, "UTF-8")
+    private class Page(val name: String) {
+        val vertices = LinkedHashMap<String, Vertex>()
+        val edges = mutableListOf<EdgeCell>()
+        val edgeLabels = mutableMapOf<String, String>() // 存储边ID与标签的映射
+    }
 
-        // Parse the XML
-        val dbFactory = DocumentBuilderFactory.newInstance()
-        val dBuilder = dbFactory.newDocumentBuilder()
-        val doc = dBuilder.parse(decodedData.byteInputStream())
-        doc.documentElement.normalize()
+    private class EdgeCell(val id: String, val source: String, val target: String)
 
-        val rootElement = doc.documentElement
-        val mxCells = rootElement.getElementsByTagName("mxCell")
+    /**
+     * @param name 页面名称，只有一页且没有名称时为空
+     * @param mermaid 以 graph TD 开头的 Mermaid 图
+     */
+    class Diagram(val name: String, val mermaid: String)
 
-        // Process nodes and edges
-        processCells(mxCells)
+    private fun run(encodedData: String): List<Diagram> {
+        // 从浏览器复制的内容是 URL 编码的 XML
+        val trimmed = encodedData.trim()
+        val xml = if (trimmed.startsWith("<")) trimmed else URLDecoder.decode(trimmed, "UTF-8")
 
-        // Find roots and perform BFS
-        val bfsResult = performBFS()
+        val reader = INPUT_FACTORY.createXMLStreamReader(StringReader(xml))
+        try {
+            parseDocument(reader)
+        } finally {
+            reader.close()
+        }
 
-        return constructGraph(bfsResult)
+        if (pages.isEmpty()) {
+            return listOf(Diagram("", constructGraph(Page(""))))
+        }
+        // 一个代码块里只能有一个 graph，多页分别生成
+        return pages.map { Diagram(it.name, constructGraph(it)) }
     }
 
-    private fun processCells(mxCells: org.w3c.dom.NodeList) {
-        val edgeLabels = mutableMapOf<String, String>() // 存储边ID与标签的映射
+    /**
+     * 顶层文档：mxfile 下的每个 diagram 是一页；也可能直接是 mxGraphModel
+     */
+    private fun parseDocument(reader: XMLStreamReader) {
+        var page: Page? = null
+        var diagramDepth = -1
+        var depth = 0
+        val compressed = StringBuilder()
+        var wrapper: Map<String, String>? = null
 
-        // 首先收集所有的标签
-        for (i in 0 until mxCells.length) {
-            val cell = mxCells.item(i) as Element
-            if (cell.getAttribute("style").contains("edgeLabel")) {
-                // 这是一个边的标签
-                val parentEdgeId = cell.getAttribute("parent")
-                val labelValue = cell.getAttribute("value")
-                edgeLabels[parentEdgeId] = labelValue // 将标签值与边的ID关联
+        while (reader.hasNext()) {
+            when (reader.next()) {
+                XMLStreamConstants.START_ELEMENT -> {
+                    depth++
+                    when (reader.localName) {
+                        "diagram" -> {
+                            page = Page(reader.getAttributeValue(null, "name") ?: "Page-${pages.size + 1}")
+                            pages.add(page)
+                            diagramDepth = depth
+                            compressed.setLength(0)
+                        }
+                        "UserObject", "object" -> wrapper = attributes(reader)
+                        "mxCell" -> {
+                            val current = page ?: Page("Page-1").also { page = it; pages.add(it) }
+                            addCell(current, attributes(reader), wrapper)
+                        }
+                    }
+                }
+                XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA -> {
+                    // 压缩的页面内容是 diagram 的直接文本
+                    if (depth == diagramDepth) compressed.append(reader.text)
+                }
+                XMLStreamConstants.END_ELEMENT -> {
+                    when (reader.localName) {
+                        "diagram" -> {
+                            val data = compressed.trim()
+                            if (data.isNotEmpty()) {
+                                parseCompressed(data.toString(), page!!)
+                            }
+                            diagramDepth = -1
+                            page = null
+                        }
+                        "UserObject", "object" -> wrapper = null
+                    }
+                    depth--
+                }
             }
         }
+    }
 
-        // 然后处理节点和边
-        for (i in 0 until mxCells.length) {
-            val cell = mxCells.item(i) as Element
-            if (cell.hasAttribute("vertex") && cell.getAttribute("vertex") == "1" && !cell.getAttribute("style").startsWith("edgeLabel")) {
-                val id = cell.getAttribute("id")
-                val value = cell.getAttribute("value").replace("\n", " ").replace("\"", "")
-                val style = cell.getAttribute("style")
-                val type = if (style.contains("rhombus")) NodeType.DECISION else NodeType.NORMAL
-                vertices[id] = Vertex(id, value, type)
-                incomingEdges.putIfAbsent(id, mutableListOf())
-            } else if (cell.hasAttribute("edge") && cell.getAttribute("edge") == "1") {
-                val source = cell.getAttribute("source")
-                val target = cell.getAttribute("target")
-                val edgeId = cell.getAttribute("id")
-                val label = edgeLabels[edgeId] ?: "" // 从映射中获取标签，如果没有则为空字符串
-                edges.add(Edge(source, target, label))
-                incomingEdges.computeIfAbsent(target) { mutableListOf() }.add(source)
+    private fun parseCompressed(data: String, page: Page) {
+        val inflater = Inflater(true)
+        try {
+            val bytes = Base64.getMimeDecoder().decode(data)
+            val input = PercentDecodingInputStream(
+                BufferedInputStream(InflaterInputStream(ByteArrayInputStream(bytes), inflater))
+            )
+            val reader = INPUT_FACTORY.createXMLStreamReader(input, "UTF-8")
+            try {
+                parseCells(reader, page)
+            } finally {
+                reader.close()
             }
+        } finally {
+            inflater.end()
         }
     }
 
-    private fun constructGraph(visitOrder: List<String>): String {
+    private fun parseCells(reader: XMLStreamReader, page: Page) {
+        var wrapper: Map<String, String>? = null
+        while (reader.hasNext()) {
+            when (reader.next()) {
+                XMLStreamConstants.START_ELEMENT -> when (reader.localName) {
+                    "UserObject", "object" -> wrapper = attributes(reader)
+                    "mxCell" -> addCell(page, attributes(reader), wrapper)
+                }
+                XMLStreamConstants.END_ELEMENT -> when (reader.localName) {
+                    "UserObject", "object" -> wrapper = null
+                }
+            }
+        }
+    }
+
+    /**
+     * 带自定义属性的节点由 UserObject / object 包裹，id 和文本在外层元素上
+     */
+    private fun addCell(page: Page, cell: Map<String, String>, wrapper: Map<String, String>?) {
+        val id = cell["id"] ?: wrapper?.get("id") ?: return
+        val style = cell["style"] ?: ""
+        val value = cell["value"] ?: wrapper?.get("label") ?: ""
+
+        if (style.contains("edgeLabel")) {
+            // 这是一个边的标签，边可能在标签之前或之后出现，生成时再关联
+            page.edgeLabels[cell["parent"] ?: ""] = value
+        }
+        if (cell["vertex"] == "1" && !style.startsWith("edgeLabel")) {
+            val type = if (style.contains("rhombus")) NodeType.DECISION else NodeType.NORMAL
+            page.vertices[id] = Vertex(id, value.replace("\n", " ").replace("\"", ""), type)
+        } else if (cell["edge"] == "1") {
+            page.edges.add(EdgeCell(id, cell["source"] ?: "", cell["target"] ?: ""))
+        }
+    }
+
+    private fun attributes(reader: XMLStreamReader): Map<String, String> {
+        val result = HashMap<String, String>(reader.attributeCount * 2)
+        for (i in 0 until reader.attributeCount) {
+            result[reader.getAttributeLocalName(i)] = reader.getAttributeValue(i)
+        }
+        return result
+    }
+
+    private fun constructGraph(page: Page): String {
+        // 两端不都是节点的边（悬空、连到其他边上）无法表示，跳过
+        val edges = page.edges
+            .filter { it.source in page.vertices && it.target in page.vertices }
+            .map { Edge(it.source, it.target, page.edgeLabels[it.id] ?: "") }
+        val (visitOrder, idMap, visitedEdges) = performBFS(page, edges)
+
         val sb = StringBuilder("graph TD\n")
         visitOrder.forEach { nodeId ->
-            val vertex = vertices[nodeId]
-            when (vertex!!.type) {
+            val vertex = page.vertices.getValue(nodeId)
+            when (vertex.type) {
                 NodeType.DECISION -> sb.append("${idMap[nodeId]}{\"${vertex.value}\"}\n")  // 菱形节点用花括号标识
                 else -> sb.append("${idMap[nodeId]}[\"${vertex.value}\"]\n")  // 默认方形节点
             }
         }
         visitedEdges.forEach { edge ->
-            val sourceId = idMap[edge.source]!!
-            val targetId = idMap[edge.target]!!
+            val sourceId = idMap.getValue(edge.source)
+            val targetId = idMap.getValue(edge.target)
             val label = if (edge.label.isNotEmpty()) "|${edge.label}|" else ""  // 添加边的标签
             sb.append("$sourceId --> $label $targetId\n")
         }
         return sb.toString()
     }
 
+    private fun performBFS(page: Page, edges: List<Edge>): Triple<List<String>, Map<String, Int>, Set<Edge>> {
+        val outgoing = edges.groupBy { it.source }
+        val hasIncoming = edges.mapTo(HashSet()) { it.target }
+        val idMap = LinkedHashMap<String, Int>()
+        val visitedEdges = LinkedHashSet<Edge>()
+        val queue: Queue<String> = ArrayDeque()
 
-    private fun performBFS(): List<String> {
-        val queue: Queue<String> = LinkedList()
-        val visitedOrder = mutableListOf<String>()
+        fun drain() {
+            while (queue.isNotEmpty()) {
+                val currentId = queue.poll()
+                if (idMap.containsKey(currentId)) continue
+                idMap[currentId] = idMap.size + 1  // Start counting from 1 for mermaid nodes
+                outgoing[currentId]?.forEach { edge ->
+                    if (!idMap.containsKey(edge.target)) {
+                        queue.add(edge.target)
+                    }
+                    visitedEdges.add(edge) // Mark edge as visited
+                }
+            }
+        }
 
         // Enqueue all roots
-        vertices.keys.filter { incomingEdges[it]?.isEmpty() == true }.forEach { queue.add(it) }
-
-        while (queue.isNotEmpty()) {
-            val currentId = queue.poll()
-            if (!idMap.containsKey(currentId)) {
-                val currentIdNumber = idCounter++
-                idMap[currentId] = currentIdNumber
-                reverseIdMap[currentIdNumber] = currentId
-                visitedOrder.add(currentId)
+        page.vertices.keys.filter { it !in hasIncoming }.forEach { queue.add(it) }
+        drain()
+        // 整个连通部分都在环上、没有入度为 0 的起点时，按文档顺序补充起点
+        page.vertices.keys.forEach {
+            if (!idMap.containsKey(it)) {
+                queue.add(it)
+                drain()
             }
-            edges.filter { it.source == currentId }.forEach { edge ->
-                if (!idMap.containsKey(edge.target)) {
-                    queue.add(edge.target)
-                }
-                if (!visitedEdges.contains(edge)) {
-                    visitedEdges.add(edge) // Mark edge as visited
+        }
+        return Triple(idMap.keys.toList(), idMap, visitedEdges)
+    }
+
+    /**
+     * 解码 encodeURIComponent 的结果，不会出现表示空格的 '+'
+     */
+    private class PercentDecodingInputStream(private val input: InputStream) : InputStream() {
+        override fun read(): Int {
+            val b = input.read()
+            if (b != '%'.code) return b
+            return decode(input.read(), input.read())
+        }
+
+        /**
+         * 整块读入后原地解码，解码后的长度不会超过读入的长度；块尾被截断的 %XX 从底层流补齐
+         */
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            if (len == 0) return 0
+            val n = input.read(b, off, len)
+            if (n <= 0) return n
+            val end = off + n
+            var i = off
+            var out = off
+            while (i < end) {
+                val c = b[i++].toInt() and 0xff
+                if (c != '%'.code) {
+                    b[out++] = c.toByte()
+                    continue
                 }
+                val hi = if (i < end) b[i++].toInt() and 0xff else input.read()
+                val lo = if (i < end) b[i++].toInt() and 0xff else input.read()
+                b[out++] = decode(hi, lo).toByte()
             }
+            return out - off
+        }
+
+        private fun decode(hiChar: Int, loChar: Int): Int {
+            val hi = Character.digit(hiChar, 16)
+            val lo = Character.digit(loChar, 16)
+            if (hi < 0 || lo < 0) throw IOException("Malformed percent encoding in diagram")
+            return (hi shl 4) or lo
         }
 
-        return visitedOrder
+        override fun close() = input.close()
     }
 
     data class Vertex(val id: String, val value: String, val type: NodeType = NodeType.NORMAL)
     data class Edge(val source: String, val target: String, val label: String = "")
+
+    companion object {
+        // 配置完成后只用于创建 reader，可以多线程共用
+        private val INPUT_FACTORY: XMLInputFactory = XMLInputFactory.newInstance().apply {
+            setProperty(XMLInputFactory.SUPPORT_DTD, false)
+            setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false)
+            setProperty(XMLInputFactory.IS_COALESCING, true)
+        }
+
+        fun convert(encodedData: String): List<Diagram> = DrawioToMermaidConverter().run(encodedData)
+    }
 }
 
 enum class NodeType {
@@ -0,0 +1,76 @@
+package com.github.zjh7890.gpttools.utils
+
+/**
+ * 大小写不敏感的子序列模糊匹配打分，分数越高越相关，不匹配返回 null。
+ *
+ * 命中单词开头（首字母、驼峰大写、'_' / '.' / '$' 之后）和连续命中加分，跳过的字符扣分，
+ * 所以 "USvc" 匹配 UserService 的分数会高于匹配 UnusedServiceConfig。
+ */
+object FuzzyScorer {
+    private const val MATCH = 16
+    private const val FIRST_CHAR_BONUS = 24
+    private const val WORD_START_BONUS = 20
+    private const val CONSECUTIVE_BONUS = 12
+    private const val CASE_BONUS = 2
+    private const val GAP_PENALTY = 3
+    private const val EXACT_BONUS = 100
+    private const val PREFIX_BONUS = 40
+
+    private const val NONE = Int.MIN_VALUE / 2
+
+    fun score(name: String, query: String): Int? {
+        if (query.isEmpty()) return 0
+        val n = name.length
+        val m = query.length
+        if (m > n) return null
+
+        // prev[j] / cur[j]：query 当前字符正好落在 name[j] 时的最高分
+        var prev = IntArray(n) { NONE }
+        var cur = IntArray(n)
+        for (i in 0 until m) {
+            val qc = query[i]
+            // 非连续命中：max(prev[k] - (j - k - 1) * GAP) = max(prev[k] + k * GAP) - (j - 1) * GAP，k <= j - 2
+            var bestJump = NONE
+            for (j in 0 until n) {
+                if (j >= 2 && prev[j - 2] > NONE) {
+                    bestJump = maxOf(bestJump, prev[j - 2] + (j - 2) * GAP_PENALTY)
+                }
+                cur[j] = NONE
+                if (!name[j].equals(qc, ignoreCase = true)) continue
+
+                val charScore = MATCH + boundaryBonus(name, j) + if (name[j] == qc) CASE_BONUS else 0
+                if (i == 0) {
+                    cur[j] = charScore - j * GAP_PENALTY + if (j == 0) FIRST_CHAR_BONUS else 0
+                } else {
+                    val consecutive = if (j >= 1 && prev[j - 1] > NONE) prev[j - 1] + CONSECUTIVE_BONUS else NONE
+                    val jump = if (bestJump > NONE) bestJump - (j - 1) * GAP_PENALTY else NONE
+                    val base = maxOf(consecutive, jump)
+                    if (base > NONE) cur[j] = base + charScore
+                }
+            }
+            val tmp = prev
+            prev = cur
+            cur = tmp
+        }
+
+        val best = prev.max()
+        if (best <= NONE) return null
+        return best + when {
+            name.equals(query, ignoreCase = true) -> EXACT_BONUS
+            name.startsWith(query, ignoreCase = true) -> PREFIX_BONUS
+            else -> 0
+        } - (n - m)  // 同等命中时短名字优先
+    }
+
+    private fun boundaryBonus(name: String, index: Int): Int {
+        if (index == 0) return WORD_START_BONUS
+        val c = name[index]
+        val before = name[index - 1]
+        return when {
+            before == '_' || before == '.' || before == '$' || before == '-' || before == ' ' -> WORD_START_BONUS
+            c.isUpperCase() && before.isLowerCase() -> WORD_START_BONUS
+            c.isDigit() && !before.isDigit() -> WORD_START_BONUS / 2
+            else -> 0
+        }
+    }
+}
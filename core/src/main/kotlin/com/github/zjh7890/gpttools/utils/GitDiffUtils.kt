@@ -10,9 +10,7 @@ import com.intellij.openapi.vcs.changes.Change
 import com.intellij.openapi.vfs.VirtualFile
 import com.intellij.psi.PsiDocumentManager
 import com.intellij.psi.PsiFile
-import com.intellij.psi.PsiManager
 import com.intellij.psi.PsiMethod
-import com.intellij.psi.util.PsiTreeUtil
 
 /**
  * @Author: zhujunhua
@@ -86,86 +84,28 @@ object GitDiffUtils {
     }
 
     fun extractAffectedMethodsLines(project: Project, fileChanges: List<FileChange>): MutableMap<String, List<PsiMethod>> {
-        val map = mutableMapOf<String,List<PsiMethod>>()
+        val map = mutableMapOf<String, List<PsiMethod>>()
         fileChanges.forEach { change ->
             if (change.filePath.contains("src/test")) {
                 return@forEach
             }
-            val psiFile = PsiManager.getInstance(project).findFile(project.baseDir.findFileByRelativePath(change.filePath)!!)
-            psiFile?.let { file ->
-                var methods = PsiTreeUtil.findChildrenOfType(file, PsiMethod::class.java)
-                // methods 根据 method.textRange.startOffset  重排序
-                methods = methods.sortedBy { it.textRange.startOffset }
-
-                val affectedMethods = mutableListOf<PsiMethod>()
-                map.put(change.filePath, affectedMethods)
-                methods.forEach { method ->
-                    val methodStartOffset = method.textRange.startOffset
-                    val methodEndOffset = method.textRange.endOffset
-
-                    change.additions.forEach { range ->
-                        val startOffset = getLineStartOffset(file, range.startLine)
-                        val endOffset = getLineEndOffset(file, range.endLine)
-                        if (!affectedMethods.contains(method) && methodStartOffset <= endOffset && methodEndOffset >= startOffset) {
-                            affectedMethods.add(method)
-                        }
-                    }
-
-                    change.deletions.forEach { range ->
-                        if (range.startLine == 0 || range.endLine > getLineCount(psiFile)) {
-                            return@forEach
-                        }
-                        val startOffset = getLineStartOffset(file, range.startLine)
-                        val endOffset = getLineEndOffset(file, range.endLine)
-                        if (!affectedMethods.contains(method) && methodStartOffset < endOffset && methodEndOffset > startOffset) {
-                            affectedMethods.add(method)
-                        }
-                    }
-                }
-            }
+            map[change.filePath] = extractAffectedMethodsLines(project, change)
         }
         return map
     }
 
+    /**
+     * 受影响的方法由 [DiffMethodMapper] 通过区间树计算并按版本缓存；删除文件中的方法没有对应的 PsiMethod，不会返回
+     */
     fun extractAffectedMethodsLines(project: Project, fileChange: FileChange): List<PsiMethod> {
-        val affectedMethods = mutableListOf<PsiMethod>()
-
         if (fileChange.filePath.contains("test")) {
-            return affectedMethods // Skip test files
-        }
-
-        val psiFile = PsiManager.getInstance(project).findFile(project.baseDir.findFileByRelativePath(fileChange.filePath)!!)
-        psiFile?.let { file ->
-            var methods = PsiTreeUtil.findChildrenOfType(file, PsiMethod::class.java)
-            // Sort methods by their start offset in the file
-            methods = methods.sortedBy { it.textRange.startOffset }
-
-            methods.forEach { method ->
-                val methodStartOffset = method.textRange.startOffset
-                val methodEndOffset = method.textRange.endOffset
-
-                fileChange.additions.forEach { range ->
-                    val startOffset = getLineStartOffset(file, range.startLine)
-                    val endOffset = getLineEndOffset(file, range.endLine)
-                    if (!affectedMethods.contains(method) && methodStartOffset <= endOffset && methodEndOffset >= startOffset) {
-                        affectedMethods.add(method)
-                    }
-                }
-
-                fileChange.deletions.forEach { range ->
-                    if (range.startLine == 0 || range.endLine > getLineCount(psiFile)) {
-                        return@forEach
-                    }
-                    val startOffset = getLineStartOffset(file, range.startLine)
-                    val endOffset = getLineEndOffset(file, range.endLine)
-                    if (!affectedMethods.contains(method) && methodStartOffset < endOffset && methodEndOffset > startOffset) {
-                        affectedMethods.add(method)
-                    }
-                }
-            }
+            return emptyList() // Skip test files
         }
 
-        return affectedMethods
+        val patch = fileChange.filePatch as? TextFilePatch ?: return emptyList()
+        return DiffMethodMapper.getInstance(project)
+            .findAffectedMethods(fileChange.change, patch)
+            .mapNotNull { it.pointer?.element }
     }
 
     fun getLineCount(psiFile: PsiFile): Int {
@@ -15,6 +15,9 @@ import com.intellij.openapi.vfs.LocalFileSystem
 
 object ParseUtils {
     private val objectMapper: ObjectMapper = jacksonObjectMapper()
+    private val OLD_FILE_REGEX = """---\s+([^\s]+)(?:\s+.*)?""".toRegex()
+    private val NEW_FILE_REGEX = """\+\+\+\s+([^\s]+)(?:\s+.*)?""".toRegex()
+    private val PATH_PREFIX_REGEX = Regex("^a/|^b/")
 
     fun parse(response: String): MutableList<MessageBlock> {
         val message = SimpleMessage(response, response, ChatRole.assistant)
@@ -27,14 +30,8 @@ object ParseUtils {
         val fileDiff = textContent
 
         // Match old and new file paths
-        val oldFileRegex = """---\s+([^\s]+)(?:\s+.*)?""".toRegex()
-        val newFileRegex = """\+\+\+\s+([^\s]+)(?:\s+.*)?""".toRegex()
-
-        val oldFileMatch = oldFileRegex.find(fileDiff)
-        val newFileMatch = newFileRegex.find(fileDiff)
-
-        val oldFilePath = oldFileMatch?.groups?.get(1)?.value
-        val newFilePath = newFileMatch?.groups?.get(1)?.value
+        val oldFilePath = OLD_FILE_REGEX.find(fileDiff)?.groups?.get(1)?.value
+        val newFilePath = NEW_FILE_REGEX.find(fileDiff)?.groups?.get(1)?.value
 
         // Determine changeType and filePath
         val changeType: String
@@ -56,7 +53,7 @@ object ParseUtils {
         }
 
         // Remove any prefixes (like a/ or b/)
-        val filePathClean = filePath.replace(Regex("^a/|^b/"), "")
+        val filePathClean = filePath.replace(PATH_PREFIX_REGEX, "")
 
         // Get filename and dirPath
         val pathParts = filePathClean.split("/").let {
@@ -66,33 +63,27 @@ object ParseUtils {
         // Extract hunks
         val changeItems = mutableListOf<FileChangeItem>()
 
-        // Hunk regex
-        val hunkRegex = """(@@.*?@@)(.*?)(?=^@@|\Z)""".toRegex(setOf(RegexOption.DOT_MATCHES_ALL, RegexOption.MULTILINE))
-
-        hunkRegex.findAll(fileDiff).forEach { hunkMatch ->
-            val hunkHeader = hunkMatch.groups[1]?.value ?: ""
-            val hunkContent = hunkMatch.groups[2]?.value ?: ""
-            val originalLines = mutableListOf<String>()
-            val updatedLines = mutableListOf<String>()
-
-            hunkContent.lines().forEach { line ->
-                when {
-                    line.startsWith("-") -> originalLines.add(line.substring(1))
-                    line.startsWith("+") -> updatedLines.add(line.substring(1))
-                    line.startsWith(" ") || line.isEmpty() -> {
-                        originalLines.add(line.trimStart())
-                        updatedLines.add(line.trimStart())
-                    }
-                    else -> {
-                        originalLines.add(line)
-                        updatedLines.add(line)
-                    }
+        // 按行扫描一遍，每个 @@ 行开始一个新的 hunk，hunk 头所在行 @@ 之后的内容也算作第一行
+        var originalLines: MutableList<String>? = null
+        var updatedLines: MutableList<String>? = null
+        for (line in fileDiff.lines()) {
+            val headerEnd = if (line.startsWith("@@")) line.indexOf("@@", 2) else -1
+            val content = if (headerEnd >= 0) {
+                if (originalLines != null) {
+                    changeItems.add(FileChangeItem(originalLines.joinToString("\n"), updatedLines!!.joinToString("\n")))
                 }
+                originalLines = mutableListOf()
+                updatedLines = mutableListOf()
+                line.substring(headerEnd + 2)
+            } else if (originalLines == null) {
+                continue
+            } else {
+                line
             }
-
-            val originalChunk = originalLines.joinToString("\n")
-            val updatedChunk = updatedLines.joinToString("\n")
-            changeItems.add(FileChangeItem(originalChunk, updatedChunk))
+            addHunkLine(content, originalLines!!, updatedLines!!)
+        }
+        if (originalLines != null) {
+            changeItems.add(FileChangeItem(originalLines.joinToString("\n"), updatedLines!!.joinToString("\n")))
         }
 
         // Handle CREATE or DELETE if no hunks
@@ -129,6 +120,21 @@ object ParseUtils {
         )
     }
 
+    private fun addHunkLine(line: String, originalLines: MutableList<String>, updatedLines: MutableList<String>) {
+        when {
+            line.startsWith("-") -> originalLines.add(line.substring(1))
+            line.startsWith("+") -> updatedLines.add(line.substring(1))
+            line.startsWith(" ") || line.isEmpty() -> {
+                originalLines.add(line.trimStart())
+                updatedLines.add(line.trimStart())
+            }
+            else -> {
+                originalLines.add(line)
+                updatedLines.add(line)
+            }
+        }
+    }
+
     fun processResponse(response: String): LLMAgentResponse {
         val trimmedResponse = response.trim()
         val lines = trimmedResponse.lines()
@@ -137,7 +143,7 @@ object ParseUtils {
         var isShell = false
         var isCustom = false
         var isJson = false
-        var jsonResponse = ""
+        val jsonResponse = StringBuilder()
 
         for (line in lines) {
             when {
@@ -174,7 +180,7 @@ object ParseUtils {
                 }
                 isJson -> {
                     // 将 JSON 内容收集起来
-                    jsonResponse += line.trim()
+                    jsonResponse.append(line.trim())
                 }
             }
         }
@@ -184,7 +190,7 @@ object ParseUtils {
             customCommands.isNotEmpty() -> LLMAgentResponse(shellCommands = null, customCommands = customCommands, fileList = null)
             jsonResponse.isNotBlank() -> {
                 // 反序列化 JSON 文件列表
-                val fileList: List<String> = objectMapper.readValue(jsonResponse)
+                val fileList: List<String> = objectMapper.readValue(jsonResponse.toString())
                 LLMAgentResponse(shellCommands = null, customCommands = null, fileList = fileList)
             }
             else -> LLMAgentResponse(shellCommands = null, customCommands = null, fileList = null)
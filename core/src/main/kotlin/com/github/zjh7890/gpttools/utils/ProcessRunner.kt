@@ -0,0 +1,134 @@
+package com.github.zjh7890.gpttools.utils
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.emitAll
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runInterruptible
+import kotlinx.coroutines.withTimeoutOrNull
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+
+/**
+ * 执行外部进程：
+ * - stdout 和 stderr 同时读取，不会因为其中一个流写满而卡住
+ * - 输出按行以 Flow 提供，可以边执行边消费；取消收集、超时时结束进程
+ * - stdin 启动后立即关闭，等待输入的命令（如不带文件参数的 grep）会直接结束而不是一直挂起
+ */
+object ProcessRunner {
+    const val DEFAULT_MAX_LINES = 2000
+    private const val MAX_LINE_CHARS = 2000
+
+    class OutputLine(val text: String, val isError: Boolean)
+
+    /**
+     * @param exitCode 超时被结束时为 null
+     * @param stdout 只保留最后 maxLines 行，前面省略的行数会写在开头
+     */
+    class ProcessResult(
+        val exitCode: Int?,
+        val stdout: String,
+        val stderr: String,
+        val timedOut: Boolean
+    )
+
+    /**
+     * 收集时启动进程，按输出顺序发出 stdout 和 stderr 的行
+     */
+    fun lines(
+        command: List<String>,
+        workingDirectory: File? = null,
+        environment: Map<String, String> = emptyMap()
+    ): Flow<OutputLine> = flow {
+        emitAll(output(start(command, workingDirectory, environment)))
+    }
+
+    /**
+     * 执行到结束或超时，输出保存在有界的环形缓冲区中
+     * @param timeoutMillis 小于等于 0 表示不限时
+     */
+    suspend fun execute(
+        command: List<String>,
+        workingDirectory: File? = null,
+        environment: Map<String, String> = emptyMap(),
+        timeoutMillis: Long = 0,
+        maxLines: Int = DEFAULT_MAX_LINES
+    ): ProcessResult {
+        val process = start(command, workingDirectory, environment)
+        val stdout = LineRingBuffer(maxLines)
+        val stderr = LineRingBuffer(maxLines)
+        val exitCode = withTimeoutOrNull(if (timeoutMillis > 0) timeoutMillis else Long.MAX_VALUE) {
+            output(process).collect { line ->
+                if (line.isError) stderr.add(line.text) else stdout.add(line.text)
+            }
+            runInterruptible(Dispatchers.IO) { process.waitFor() }
+        }
+        if (exitCode == null) {
+            // 超时时 output 已经结束了进程，这里兜底处理流关闭后进程仍在运行的情况
+            process.destroyForcibly()
+        }
+        return ProcessResult(exitCode, stdout.toString(), stderr.toString(), exitCode == null)
+    }
+
+    private fun start(command: List<String>, workingDirectory: File?, environment: Map<String, String>): Process {
+        val process = ProcessBuilder(command)
+            .directory(workingDirectory)
+            .apply { environment().putAll(environment) }
+            .start()
+        process.outputStream.close()
+        return process
+    }
+
+    private fun output(process: Process): Flow<OutputLine> = channelFlow {
+        var completed = false
+        try {
+            val out = launch(Dispatchers.IO) { pump(process.inputStream, false) { send(it) } }
+            val err = launch(Dispatchers.IO) { pump(process.errorStream, true) { send(it) } }
+            out.join()
+            err.join()
+            completed = true
+        } finally {
+            // 被取消时结束进程，阻塞在读取上的协程会因为流关闭而结束
+            if (!completed) process.destroyForcibly()
+        }
+    }
+
+    private suspend fun pump(stream: InputStream, isError: Boolean, send: suspend (OutputLine) -> Unit) {
+        stream.bufferedReader().use { reader ->
+            while (true) {
+                val line = try {
+                    reader.readLine()
+                } catch (e: IOException) {
+                    // 进程被结束时流会关闭
+                    null
+                } ?: break
+                val text = if (line.length > MAX_LINE_CHARS) line.substring(0, MAX_LINE_CHARS) + "..." else line
+                send(OutputLine(text, isError))
+            }
+        }
+    }
+
+    /**
+     * 只保留最后 capacity 行
+     */
+    private class LineRingBuffer(private val capacity: Int) {
+        private val lines = ArrayDeque<String>()
+        private var dropped = 0
+
+        fun add(line: String) {
+            if (lines.size >= capacity) {
+                lines.removeFirst()
+                dropped++
+            }
+            lines.addLast(line)
+        }
+
+        override fun toString(): String = buildString {
+            if (dropped > 0) append("...（省略前 $dropped 行）\n")
+            lines.joinTo(this, "\n")
+        }
+    }
+}
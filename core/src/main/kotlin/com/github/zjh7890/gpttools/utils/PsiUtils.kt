@@ -4,17 +4,15 @@ import com.intellij.openapi.editor.Document
 import com.intellij.openapi.fileEditor.FileDocumentManager
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.roots.ProjectRootManager
-import com.intellij.openapi.vfs.LocalFileSystem
 import com.intellij.openapi.vfs.VirtualFile
-import com.intellij.openapi.vfs.VirtualFileManager
 import com.intellij.psi.*
 import com.intellij.psi.impl.compiled.ClsTypeParameterImpl
 import com.intellij.psi.util.PsiTreeUtil
 import com.intellij.psi.util.PsiUtil
+import com.github.zjh7890.gpttools.services.LibrarySourceService
 import com.github.zjh7890.gpttools.settings.other.OtherSettingsState
 import com.github.zjh7890.gpttools.toolWindow.treePanel.FileTreeListPanel.Companion.ifGetterOrSetter
 import com.github.zjh7890.gpttools.toolWindow.treePanel.FileTreeListPanel.Companion.isStandardClassMethod
-import java.util.jar.JarFile
 
 
 object PsiUtils {
@@ -84,21 +82,8 @@ object PsiUtils {
                     }
                     if (!psiClass.qualifiedName?.startsWith("java.")!!) {
                         visited.add(psiType)
-                        val psiFile = psiClass.containingFile
-                        val classSourceCode: String
-
-                        if (psiFile.name.endsWith(".class")) {
-                            val findSourceCode = findSourceCode(psiClass)
-                            if (findSourceCode != null) {
-                                classSourceCode = PsiManager.getInstance(project).findFile(findSourceCode)!!.text  // 获取类的源代码
-                            } else {
-                                classSourceCode = psiFile.text  // 获取类的源代码
-                            }
-                            // 处理编译后的字节码文件
-                            // 可能需要使用反编译工具来获取源代码，或者寻找其他方式处理
-                        } else {
-                            classSourceCode = psiFile.text  // 获取类的源代码
-                        }
+                        // jar 中的类优先取 sources jar 源码，否则取反编译文本，均有缓存
+                        val classSourceCode = LibrarySourceService.getInstance().getSourceText(psiClass)
 
                         result.add(ClassSourceInfo(psiClass.qualifiedName ?: "Anonymous", classSourceCode))
                         // 递归处理成员变量
@@ -130,47 +115,7 @@ object PsiUtils {
     }
 
     fun findSourceCode(psiElement: PsiElement): VirtualFile? {
-        val classFile = psiElement.containingFile.virtualFile ?: return null
-
-        // 假设 classFile 路径类似于 jar://path/to/your.jar!/com/example/MyClass.class
-        val classFilePath = classFile.path
-        if (!classFilePath.contains(".jar!")) {
-            return classFile
-        }
-
-        val jarSeparatorIndex = classFilePath.indexOf("!/")
-        if (jarSeparatorIndex == -1) {
-            return null
-        }
-
-        val jarPath = classFilePath.substring(0, jarSeparatorIndex)
-        val classEntryPath = classFilePath.substring(jarSeparatorIndex + 2)
-
-        // 替换 jar 文件路径为 sources jar 文件路径
-        val sourcesJarPath = jarPath.replace(".jar", "-sources.jar")
-        val sourcesJarFile = LocalFileSystem.getInstance().findFileByPath(sourcesJarPath) ?: return null
-
-        if (sourcesJarFile == null) {
-            return null
-        }
-
-        // 获取源代码对应的路径
-        val sourceEntryPath = classEntryPath.replace(".class", ".java")
-
-        return try {
-            JarFile(sourcesJarFile.path).use { jarFile ->
-                val sourceEntry = jarFile.getEntry(sourceEntryPath)
-                if (sourceEntry != null) {
-                    val sourceFileUrl = "jar://${sourcesJarFile.path}!/$sourceEntryPath"
-                    VirtualFileManager.getInstance().findFileByUrl(sourceFileUrl)
-                } else {
-                    null
-                }
-            }
-        } catch (e: Exception) {
-            e.printStackTrace()
-            null
-        }
+        return LibrarySourceService.getInstance().findSourceFile(psiElement)
     }
 
     fun getDependencies(file: VirtualFile, project: Project): List<VirtualFile> {
@@ -0,0 +1,242 @@
+package com.github.zjh7890.gpttools.utils
+
+import com.intellij.openapi.application.runReadAction
+import com.intellij.openapi.diagnostic.logger
+import com.intellij.openapi.diff.impl.patch.IdeaTextPatchBuilder
+import com.intellij.openapi.diff.impl.patch.PatchLine
+import com.intellij.openapi.diff.impl.patch.TextFilePatch
+import com.intellij.openapi.progress.ProgressIndicator
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.vcs.changes.Change
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import java.nio.file.Path
+
+/**
+ * 构建 code review 的 diff 上下文：
+ * 1. 有限并发地为每个 change 生成 patch
+ * 2. 按相关性排序（业务源码 > 测试 > 配置/文档 > 生成代码，同类中改动行数多的在前）
+ * 3. 按 token 预算装箱：先保证所有文件头，再依次放入 diff，最后放入受影响方法的完整代码
+ */
+class ReviewContextBuilder(
+    private val project: Project,
+    private val tokenBudget: Int,
+    private val parallelism: Int = DEFAULT_PARALLELISM
+) {
+    private val logger = logger<ReviewContextBuilder>()
+
+    private class ReviewItem(
+        val fileChange: FileChange,
+        val category: Int,
+        val changedLines: Int,
+        val header: String,
+        val diff: String,
+        methodsProvider: () -> String
+    ) {
+        // 受影响方法只有在前两轮装箱后仍有预算时才会渲染
+        val methods: String by lazy(methodsProvider)
+        var includeDiff = false
+        var includeMethods = false
+    }
+
+    fun build(changes: List<Change>, indicator: ProgressIndicator? = null): String {
+        val basePath = project.basePath ?: throw RuntimeException("Project base path is null.")
+        val fileChanges = buildFileChanges(changes, Path.of(basePath), indicator)
+
+        val items = fileChanges.mapNotNull { toReviewItem(it) }
+            .sortedWith(compareBy<ReviewItem> { it.category }.thenByDescending { it.changedLines })
+        if (items.isEmpty()) {
+            return "Nothing..."
+        }
+        return pack(items)
+    }
+
+    private fun buildFileChanges(changes: List<Change>, basePath: Path, indicator: ProgressIndicator?): List<FileChange> {
+        val semaphore = Semaphore(parallelism)
+        return runBlocking {
+            changes.map { change ->
+                async(Dispatchers.IO) {
+                    semaphore.withPermit {
+                        indicator?.checkCanceled()
+                        buildFileChange(change, basePath)
+                    }
+                }
+            }.awaitAll().filterNotNull()
+        }
+    }
+
+    private fun buildFileChange(change: Change, basePath: Path): FileChange? {
+        val filePatch = try {
+            IdeaTextPatchBuilder.buildPatch(project, listOf(change), basePath, false, false).firstOrNull()
+        } catch (e: Exception) {
+            logger.warn("Failed to create patch for change: $change", e)
+            null
+        } ?: return null
+
+        return FileChange(
+            filePath = filePatch.afterName ?: filePatch.beforeName,
+            changeType = when {
+                filePatch.isNewFile -> "create"
+                filePatch.isDeletedFile -> "delete"
+                else -> "modified"
+            },
+            change = change,
+            filePatch = filePatch
+        )
+    }
+
+    private fun toReviewItem(fileChange: FileChange): ReviewItem? {
+        val patch = fileChange.filePatch as? TextFilePatch ?: return null
+        if (patch.hunks.isEmpty() && fileChange.change.type != Change.Type.MOVED) return null
+
+        val header = when (fileChange.change.type) {
+            Change.Type.MOVED -> "${fileChange.filePath} (moved from ${patch.beforeName})"
+            else -> fileChange.filePath
+        }
+        val diff = when (fileChange.change.type) {
+            Change.Type.NEW -> patch.hunks.firstOrNull()?.lines.orEmpty().joinToString("\n") { "+ ${it.text}" }
+            Change.Type.DELETED -> patch.hunks.firstOrNull()?.lines.orEmpty().joinToString("\n") { "- ${it.text}" }
+            else -> renderHunks(fileChange, patch)
+        }
+        val changedLines = patch.hunks.sumOf { hunk -> hunk.lines.count { it.type != PatchLine.Type.CONTEXT } }
+
+        return ReviewItem(
+            fileChange = fileChange,
+            category = categorize(fileChange.filePath),
+            changedLines = changedLines,
+            header = header,
+            diff = diff,
+            methodsProvider = { renderAffectedMethods(fileChange, patch) }
+        )
+    }
+
+    private fun renderHunks(fileChange: FileChange, patch: TextFilePatch): String {
+        if (patch.hunks.isEmpty()) return ""
+        val sb = StringBuilder()
+        // 在后台任务中调用，读取 Document 需要读操作
+        val lineCount = fileChange.change.afterRevision?.file?.virtualFile
+            ?.let { runReadAction { GitDiffUtils.getLineCount(it) } } ?: 0
+        var prev = 0
+        for (hunk in patch.hunks) {
+            if (prev != hunk.startLineAfter) {
+                sb.append("// ...\n")
+            }
+            for (line in hunk.lines) {
+                sb.appendLine(
+                    when (line.type) {
+                        PatchLine.Type.CONTEXT -> "  ${line.text}"
+                        PatchLine.Type.ADD -> "+ ${line.text}"
+                        PatchLine.Type.REMOVE -> "- ${line.text}"
+                    }
+                )
+            }
+            prev = hunk.endLineAfter
+        }
+        if (prev != lineCount) {
+            sb.append("// ...\n")
+        }
+        return sb.toString().trim()
+    }
+
+    /**
+     * 修改、移动、删除文件中受影响方法的完整代码，只在预算充足时放入；删除文件的方法取修改前的代码
+     */
+    private fun renderAffectedMethods(fileChange: FileChange, patch: TextFilePatch): String {
+        if (fileChange.change.type == Change.Type.NEW) return ""
+        if (categorize(fileChange.filePath) != CATEGORY_SOURCE) return ""
+
+        val spans = DiffMethodMapper.getInstance(project).findAffectedMethods(fileChange.change, patch)
+        if (spans.isEmpty()) return ""
+        return runReadAction {
+            spans.mapNotNull { it.resolveText() }.joinToString("\n\n")
+        }
+    }
+
+    private fun pack(items: List<ReviewItem>): String {
+        // 文件头总是优先保留，超出预算时只保留排名靠前的
+        var remaining = tokenBudget
+        val included = mutableListOf<ReviewItem>()
+        for (item in items) {
+            val cost = estimateTokens(item.header) + BLOCK_OVERHEAD_TOKENS
+            if (cost > remaining) break
+            remaining -= cost
+            included.add(item)
+        }
+
+        for (item in included) {
+            val cost = estimateTokens(item.diff)
+            if (item.diff.isNotEmpty() && cost <= remaining) {
+                item.includeDiff = true
+                remaining -= cost
+            }
+        }
+
+        for (item in included) {
+            if (!item.includeDiff || remaining <= BLOCK_OVERHEAD_TOKENS) continue
+            val cost = estimateTokens(item.methods) + BLOCK_OVERHEAD_TOKENS
+            if (item.methods.isNotEmpty() && cost <= remaining) {
+                item.includeMethods = true
+                remaining -= cost
+            }
+        }
+
+        val res = StringBuilder()
+        for (item in included) {
+            res.appendLine(item.header)
+            if (item.includeDiff) {
+                res.appendLine("```")
+                    .appendLine(item.diff)
+                    .appendLine("```")
+            } else if (item.diff.isNotEmpty()) {
+                res.appendLine("// diff omitted, about ${estimateTokens(item.diff)} tokens")
+            }
+            if (item.includeMethods) {
+                res.appendLine("Affected methods:")
+                    .appendLine("```")
+                    .appendLine(item.methods)
+                    .appendLine("```")
+            }
+            res.appendLine()
+        }
+        if (included.size < items.size) {
+            res.appendLine("// ${items.size - included.size} more changed files omitted")
+        }
+        return res.toString()
+    }
+
+    companion object {
+        private const val DEFAULT_PARALLELISM = 8
+        private const val BLOCK_OVERHEAD_TOKENS = 4
+
+        private const val CATEGORY_SOURCE = 0
+        private const val CATEGORY_TEST = 1
+        private const val CATEGORY_OTHER = 2
+        private const val CATEGORY_GENERATED = 3
+
+        private val sourceExtensions = setOf(
+            "java", "kt", "kts", "scala", "groovy", "go", "py", "rs", "js", "jsx", "ts", "tsx", "c", "cc", "cpp", "h", "hpp"
+        )
+        private val generatedMarkers = listOf(
+            "/generated/", "/generated-sources/", "/build/", "/target/", "/dist/", "/node_modules/", ".min.js", ".lock", "-lock.json"
+        )
+
+        private fun categorize(path: String): Int {
+            val normalized = "/" + path.replace('\\', '/')
+            return when {
+                generatedMarkers.any { normalized.contains(it) } -> CATEGORY_GENERATED
+                normalized.contains("/test/") || normalized.contains("/tests/") -> CATEGORY_TEST
+                normalized.substringAfterLast('.', "") in sourceExtensions -> CATEGORY_SOURCE
+                else -> CATEGORY_OTHER
+            }
+        }
+
+        /**
+         * 粗略估算：约 4 个字符一个 token
+         */
+        fun estimateTokens(text: String): Int = (text.length + 3) / 4
+    }
+}
@@ -1,6 +1,63 @@
 package com.github.zjh7890.gpttools.utils
 
+import java.util.Collections
+
 object TemplateUtils {
+    // 正则表达式用于匹配 ${GPT_} 格式的占位符
+    private val PLACEHOLDER_REGEX = "\\$\\{(GPT_[a-zA-Z0-9_]+)\\}".toRegex()
+    private const val MAX_CACHED_TEMPLATES = 64
+
+    /**
+     * 解析后的模板：原文片段和占位符交替排列，渲染时不再做正则匹配
+     */
+    class CompiledTemplate internal constructor(
+        private val texts: List<String>,
+        /** 占位符键名，texts[i] 之后是 placeholders[i] */
+        private val placeholders: List<String>
+    ) {
+        /** 模板中引用的变量，去重，按首次出现的顺序 */
+        val variables: List<String> = placeholders.distinct()
+
+        /**
+         * @param resolve 返回变量的值；返回 null 时保留占位符原文。每个变量只解析一次，未引用的变量不会被解析
+         */
+        fun render(resolve: (String) -> String?): String {
+            val values = HashMap<String, String?>(variables.size * 2)
+            val sb = StringBuilder()
+            for (i in texts.indices) {
+                sb.append(texts[i])
+                if (i < placeholders.size) {
+                    val key = placeholders[i]
+                    val value = if (values.containsKey(key)) values[key] else resolve(key).also { values[key] = it }
+                    sb.append(value ?: "\${$key}")
+                }
+            }
+            return sb.toString()
+        }
+    }
+
+    // 按模板内容缓存，模板来自设置和内置资源，数量有限
+    private val compiledTemplates: MutableMap<String, CompiledTemplate> = Collections.synchronizedMap(
+        object : LinkedHashMap<String, CompiledTemplate>(16, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, CompiledTemplate>): Boolean =
+                size > MAX_CACHED_TEMPLATES
+        }
+    )
+
+    fun compile(template: String): CompiledTemplate {
+        compiledTemplates[template]?.let { return it }
+        val texts = mutableListOf<String>()
+        val placeholders = mutableListOf<String>()
+        var last = 0
+        PLACEHOLDER_REGEX.findAll(template).forEach { match ->
+            texts.add(template.substring(last, match.range.first))
+            placeholders.add(match.groupValues[1])
+            last = match.range.last + 1
+        }
+        texts.add(template.substring(last))
+        return CompiledTemplate(texts, placeholders).also { compiledTemplates[template] = it }
+    }
+
     /**
      * 替换字符串中的 ${GPT_} 格式的占位符。
      * @param template 包含占位符的字符串。
@@ -8,14 +65,8 @@ object TemplateUtils {
      * @return 替换后的字符串。
      */
     fun replacePlaceholders(template: String, replacements: Map<String, String>): String {
-        // 正则表达式用于匹配 ${GPT_} 格式的占位符
-        val regex = "\\$\\{(GPT_[a-zA-Z0-9_]+)\\}".toRegex()
-        return regex.replace(template) { matchResult ->
-            // 提取占位符内部的键名
-            val key = matchResult.groups[1]?.value
-            // 根据键名从替换映射中获取替换值，如果未找到，则保留原文本
-            replacements[key] ?: matchResult.value
-        }
+        // 根据键名从替换映射中获取替换值，如果未找到，则保留原文本
+        return compile(template).render { replacements[it] }
     }
 
     /**
@@ -25,12 +76,6 @@ object TemplateUtils {
      * @return A list of missing variable names. Empty if all variables are present.
      */
     fun checkVariables(template: String, variablesMap: Map<String, String>): List<String> {
-        // Regex to match placeholders like ${GPT_}
-        val regex = "\\$\\{(GPT_[a-zA-Z0-9_]+)\\}".toRegex()
-        // Find all unique variables in the template
-        val variablesInTemplate = regex.findAll(template).map { it.groupValues[1] }.toSet()
-        // Identify missing variables
-        val missingVariables = variablesInTemplate.filter { variablesMap[it].isNullOrBlank() }
-        return missingVariables
+        return compile(template).variables.filter { variablesMap[it].isNullOrBlank() }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,108 @@
+package com.github.zjh7890.gpttools.utils
+
+/**
+ * 全文检索用的分词，结果全部小写：
+ * - 英文、数字按标识符切分，保留完整标识符，同时拆出驼峰和下划线的各段，如 getUserName -> getusername, get, user, name
+ * - 中日韩文字按相邻两字切分，如 上下文 -> 上下, 下文；只有一个字时保留单字
+ *
+ * 同一标识符拆出的各段占用连续的位置。查询按同样规则分词，短语按相对位置匹配，
+ * 所以 "user name" 也能命中 getUserName。
+ */
+object TextTokenizer {
+    class Token(val term: String, val position: Int)
+
+    private const val MIN_WORD_LENGTH = 2
+
+    fun tokenize(text: String): List<Token> {
+        val tokens = ArrayList<Token>()
+        var position = 0
+        var i = 0
+        val n = text.length
+        while (i < n) {
+            val c = text[i]
+            when {
+                isCjk(c) -> {
+                    var j = i
+                    while (j < n && isCjk(text[j])) j++
+                    if (j - i == 1) {
+                        tokens.add(Token(text.substring(i, j), position++))
+                    } else {
+                        for (k in i until j - 1) {
+                            tokens.add(Token(text.substring(k, k + 2), position++))
+                        }
+                    }
+                    i = j
+                }
+                isWordChar(c) -> {
+                    var j = i
+                    while (j < n && isWordChar(text[j])) j++
+                    position = addIdentifier(text.substring(i, j), position, tokens)
+                    i = j
+                }
+                else -> i++
+            }
+        }
+        return tokens
+    }
+
+    private fun addIdentifier(word: String, start: Int, tokens: MutableList<Token>): Int {
+        val parts = splitIdentifier(word)
+        if (parts.isEmpty()) return start
+        val full = word.trim('_').lowercase()
+        if (full.length >= MIN_WORD_LENGTH) {
+            tokens.add(Token(full, start))
+        }
+        if (parts.size > 1) {
+            parts.forEachIndexed { index, part ->
+                // 单个字母的分段不入索引，但仍占位置，保证短语位置一致
+                if (part.length >= MIN_WORD_LENGTH) tokens.add(Token(part, start + index))
+            }
+        }
+        return start + parts.size
+    }
+
+    /**
+     * 按下划线、大小写变化、字母数字边界拆分：getHTTPResponse2 -> get, http, response, 2
+     */
+    private fun splitIdentifier(word: String): List<String> {
+        val parts = mutableListOf<String>()
+        val current = StringBuilder()
+        fun flush() {
+            if (current.isNotEmpty()) {
+                parts.add(current.toString().lowercase())
+                current.setLength(0)
+            }
+        }
+        for (i in word.indices) {
+            val c = word[i]
+            if (c == '_') {
+                flush()
+                continue
+            }
+            if (current.isNotEmpty()) {
+                val prev = word[i - 1]
+                val next = word.getOrNull(i + 1)
+                val boundary = (c.isUpperCase() && prev.isLowerCase()) ||
+                        (c.isUpperCase() && prev.isUpperCase() && next != null && next.isLowerCase()) ||
+                        (c.isDigit() != prev.isDigit())
+                if (boundary) flush()
+            }
+            current.append(c)
+        }
+        flush()
+        return parts
+    }
+
+    private fun isWordChar(c: Char): Boolean = c == '_' || (c.isLetterOrDigit() && !isCjk(c))
+
+    private fun isCjk(c: Char): Boolean {
+        if (c.code < 0x2E80) return false
+        return when (Character.UnicodeScript.of(c.code)) {
+            Character.UnicodeScript.HAN,
+            Character.UnicodeScript.HIRAGANA,
+            Character.UnicodeScript.KATAKANA,
+            Character.UnicodeScript.HANGUL -> true
+            else -> false
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.zjh7890.gpttools
+
+import FileChangeItem
+import com.github.zjh7890.gpttools.services.ChangeApplier
+import org.apache.commons.text.similarity.LevenshteinDistance
+
+fun main() {
+    val levenshteinDistance = LevenshteinDistance()
+    val text = "class A {\n    fun foo() {\n        println(1)\n    }\n\n    fun bar() {\n        println(2)\n    }\n}"
+    val barStart = text.indexOf("    fun bar")
+    val barEnd = text.lastIndexOf("    }") + "    }".length
+
+    // 只有空白不同，按完全一致处理
+    val exact = ChangeApplier.findBestMatch(text, "fun bar() {\nprintln(2)\n}", levenshteinDistance)
+    check(exact != null && exact.distance == 0 && exact.startOffset == barStart && exact.endOffset == barEnd)
+
+    // 改了一个字符，选中距离最小的 bar 而不是 foo
+    val near = ChangeApplier.findBestMatch(text, "fun bar() {\n    println(3)\n}", levenshteinDistance)
+    check(near != null && near.distance == 1 && near.startOffset == barStart && near.endOffset == barEnd)
+
+    // 差异过大，没有匹配
+    check(ChangeApplier.findBestMatch(text, "fun baz(x: Int) {\nreturn x * 2\n}", levenshteinDistance) == null)
+
+    // 阈值边界：长度 10 的原始块最多允许距离 2
+    check(ChangeApplier.findBestMatch("abcdefghij", "abcdefghXY", levenshteinDistance)?.distance == 2)
+    check(ChangeApplier.findBestMatch("abcdefghij", "abcdefgXYZ", levenshteinDistance) == null)
+
+    // 原始块行数比文本多
+    check(ChangeApplier.findBestMatch("a", "a\nb", levenshteinDistance) == null)
+
+    // 替换匹配到的位置，保留缩进，前面相同的行不受影响
+    val updated = ChangeApplier.updatedContent(
+        "    call()\n}\nfun b() {\n    call()\n}",
+        listOf(FileChangeItem("fun b() {\ncall()\n}", "fun b() {\n    call2()\n}"))
+    )
+    check(updated == "    call()\n}\nfun b() {\n    call2()\n}") { updated }
+
+    val indented = ChangeApplier.updatedContent(
+        "fun a() {\n    val x = 1\n}\n",
+        listOf(FileChangeItem("val x = 1", "val x = 2"))
+    )
+    check(indented == "fun a() {\n    val x = 2\n}\n") { indented }
+
+    // 没有匹配时原样返回
+    check(ChangeApplier.updatedContent("abc", listOf(FileChangeItem("xyz123", "q"))) == "abc")
+    println("ok")
+}
@@ -0,0 +1,64 @@
+package com.github.zjh7890.gpttools
+
+import FileChangeItem
+import com.github.zjh7890.gpttools.utils.ChangeSetParser
+
+fun main() {
+    val text = """
+        说明文字
+        ----- CHANGES START -----
+        ----- CHANGE START -----
+        path: src/A.kt
+        changeType: MODIFY
+        <<<< ORIGINAL
+        val a = 1
+        ====
+        val a = 2
+        >>>> UPDATED
+        ----- CHANGE END -----
+        ----- CHANGE START -----
+        path: src/B.kt
+        changeType: CREATE
+        ----- CHANGE END -----
+        ----- CHANGE START -----
+        path: src/A.kt
+        changeType: MODIFY
+        <<<< ORIGINAL
+        fun f() {
+            return 1
+        }
+        ====
+        fun f() {
+            return 2
+        }
+        >>>> UPDATED
+        ----- CHANGE END -----
+        ----- CHANGES END -----
+    """.trimIndent()
+
+    val files = ChangeSetParser.parseChangeFiles(text)
+    // 相同路径合并；没有 ORIGINAL/UPDATED 的 B.kt 被忽略
+    check(files.size == 1) { files }
+    val a = files[0]
+    check(a.path == "src/A.kt" && a.dirPath == "src" && a.filename == "A.kt" && a.changeType == "MODIFY")
+    check(
+        a.changeItems == listOf(
+            FileChangeItem("val a = 1", "val a = 2"),
+            FileChangeItem("fun f() {\n    return 1\n}", "fun f() {\n    return 2\n}")
+        )
+    ) { a.changeItems }
+
+    // \r\n 换行，结果与 \n 相同
+    check(ChangeSetParser.parseChangeFiles(text.replace("\n", "\r\n")) == files)
+
+    // 没有闭合的 CHANGE 块按已有内容处理
+    val unclosed = ChangeSetParser.parseChangeFiles(
+        "${ChangeSetParser.CHANGES_START}\n----- CHANGE START -----\npath: C.kt\n<<<< ORIGINAL\nx\n====\ny"
+    )
+    check(unclosed.single().changeItems == listOf(FileChangeItem("x", "y")) && unclosed.single().changeType == "Unknown")
+    check(unclosed.single().dirPath == "" && unclosed.single().filename == "C.kt")
+
+    // CHANGES START 之外的块不解析
+    check(ChangeSetParser.parseChangeFiles(text.substringAfter(ChangeSetParser.CHANGES_START)).isEmpty())
+    println("ok")
+}
@@ -0,0 +1,27 @@
+package com.github.zjh7890.gpttools
+
+import com.github.zjh7890.gpttools.utils.FuzzyScorer
+
+fun main() {
+    val userService = FuzzyScorer.score("UserService", "USvc")
+    val unusedServiceConfig = FuzzyScorer.score("UnusedServiceConfig", "USvc")
+    println("USvc: UserService=$userService, UnusedServiceConfig=$unusedServiceConfig")
+    // UserService=111, UnusedServiceConfig=109
+    check(userService != null && unusedServiceConfig != null && userService > unusedServiceConfig)
+
+    // 完全一致 > 前缀 > 中间命中
+    val exact = FuzzyScorer.score("User", "user")!!
+    val prefix = FuzzyScorer.score("UserService", "user")!!
+    val middle = FuzzyScorer.score("SuperUser", "user")!!
+    check(exact > prefix && prefix > middle) { "$exact $prefix $middle" }
+
+    // 驼峰开头的命中优先
+    check(FuzzyScorer.score("getUserName", "gun")!! > FuzzyScorer.score("getuname", "gun")!!)
+    check(FuzzyScorer.score("ChatService", "CS")!! > FuzzyScorer.score("Chatservice", "CS")!!)
+
+    // 不是子序列、查询比名字长时不匹配；空查询总是匹配
+    check(FuzzyScorer.score("Foo", "xyz") == null)
+    check(FuzzyScorer.score("ab", "abc") == null)
+    check(FuzzyScorer.score("abc", "") == 0)
+    println("ok")
+}
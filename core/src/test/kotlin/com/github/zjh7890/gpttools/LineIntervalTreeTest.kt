@@ -0,0 +1,43 @@
+package com.github.zjh7890.gpttools
+
+import com.github.zjh7890.gpttools.utils.DiffMethodMapper.MethodSpan
+import com.github.zjh7890.gpttools.utils.LineIntervalTree
+import kotlin.random.Random
+
+fun main() {
+    // 包含嵌套区间（匿名类里的方法）和单行方法
+    val spans = listOf(
+        MethodSpan("a", 2, 10, null),
+        MethodSpan("inner", 4, 6, null),
+        MethodSpan("b", 12, 12, null),
+        MethodSpan("c", 14, 30, null),
+        MethodSpan("d", 20, 22, null),
+    )
+    val tree = LineIntervalTree(spans)
+    check(tree.query(5, 5).map { it.name } == listOf("a", "inner"))
+    check(tree.query(11, 11).isEmpty())
+    check(tree.query(12, 12).map { it.name } == listOf("b"))
+    check(tree.query(10, 14).map { it.name } == listOf("a", "b", "c"))
+    check(tree.query(-1, 0).isEmpty())
+    check(tree.query(31, 40).isEmpty())
+    check(LineIntervalTree(emptyList()).query(0, 100).isEmpty())
+
+    // 随机区间与暴力过滤对比
+    val random = Random(42)
+    repeat(200) {
+        val randomSpans = List(random.nextInt(0, 50)) { i ->
+            val start = random.nextInt(0, 200)
+            MethodSpan("m$i", start, start + random.nextInt(0, 40), null)
+        }
+        val randomTree = LineIntervalTree(randomSpans)
+        val sorted = randomSpans.sortedBy { it.startLine }
+        repeat(50) {
+            val start = random.nextInt(-5, 250)
+            val end = start + random.nextInt(0, 20)
+            val expected = sorted.filter { it.startLine <= end && it.endLine >= start }
+            val actual = randomTree.query(start, end)
+            check(actual == expected) { "[$start, $end]: $actual != $expected" }
+        }
+    }
+    println("ok")
+}
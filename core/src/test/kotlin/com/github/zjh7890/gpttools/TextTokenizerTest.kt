@@ -0,0 +1,24 @@
+package com.github.zjh7890.gpttools
+
+import com.github.zjh7890.gpttools.utils.TextTokenizer
+
+private fun tokens(text: String): List<Pair<String, Int>> = TextTokenizer.tokenize(text).map { it.term to it.position }
+
+fun main() {
+    check(tokens("getUserName") == listOf("getusername" to 0, "get" to 0, "user" to 1, "name" to 2)) { tokens("getUserName") }
+    check(tokens("上下文") == listOf("上下" to 0, "下文" to 1))
+    check(tokens("字") == listOf("字" to 0))
+
+    // 单字符分段不入索引但占位置
+    check(tokens("getHTTPResponse2 next") ==
+            listOf("gethttpresponse2" to 0, "get" to 0, "http" to 1, "response" to 2, "next" to 4)) { tokens("getHTTPResponse2 next") }
+
+    // 中英文混排，位置连续
+    check(tokens("调用 getUser 方法") ==
+            listOf("调用" to 0, "getuser" to 1, "get" to 1, "user" to 2, "方法" to 3)) { tokens("调用 getUser 方法") }
+
+    // "user name" 与 getUserName 拆出的分段相对位置一致，短语可以命中
+    check(tokens("user name") == listOf("user" to 0, "name" to 1))
+    check(tokens("__init__, x") == listOf("init" to 0))
+    println("ok")
+}
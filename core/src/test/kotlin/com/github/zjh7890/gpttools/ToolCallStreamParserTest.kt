@@ -0,0 +1,107 @@
+package com.github.zjh7890.gpttools
+
+import com.github.zjh7890.gpttools.services.Action
+import com.github.zjh7890.gpttools.services.ToolCallStreamParser
+
+/**
+ * 原来 ToolsCallManager.parseModelReply 的正则实现，用来对比新解析器的输出
+ */
+private fun legacyParseModelReply(reply: String): List<Action> {
+    val actions = mutableListOf<Action>()
+    var captureCommand = false
+    var commandType = ""
+    var actionDesc: String? = null
+    val actionCommand = mutableListOf<String>()
+    var foundActionResponse = false
+
+    for (line in reply.split('\n')) {
+        val trimmedLine = line.trim()
+        if ("GPT_ACTION_RESPONSE" in trimmedLine) {
+            foundActionResponse = true
+            continue
+        }
+        if (!foundActionResponse) {
+            continue
+        }
+        if (trimmedLine.startsWith("```")) {
+            if (captureCommand) {
+                actions.add(Action(actionDesc ?: "", commandType, actionCommand.joinToString("\n")))
+                captureCommand = false
+                actionCommand.clear()
+                commandType = ""
+                actionDesc = ""
+            } else {
+                captureCommand = true
+                val match = Regex("""```(\w+)?""").matchEntire(trimmedLine)
+                commandType = match?.groupValues?.get(1) ?: ""
+            }
+            continue
+        }
+        if (captureCommand) {
+            actionCommand.add(trimmedLine)
+        } else if (trimmedLine.isNotEmpty()) {
+            actionDesc = trimmedLine
+        }
+    }
+    if (captureCommand && actionCommand.isNotEmpty()) {
+        actions.add(Action(actionDesc ?: "", commandType, actionCommand.joinToString("\n")))
+    }
+    return actions
+}
+
+private fun streamParse(vararg chunks: String): List<Action> {
+    val actions = mutableListOf<Action>()
+    val parser = ToolCallStreamParser { actions.add(it) }
+    chunks.forEach { parser.feed(it) }
+    parser.finish()
+    return actions
+}
+
+private fun checkSameAsLegacy(name: String, reply: String) {
+    val expected = legacyParseModelReply(reply)
+    check(streamParse(reply) == expected) { "$name: ${streamParse(reply)} != $expected" }
+    // 任意位置切成两段喂进去，结果也要一样
+    for (i in 0..reply.length) {
+        val actual = streamParse(reply.substring(0, i), reply.substring(i))
+        check(actual == expected) { "$name split at $i: $actual != $expected" }
+    }
+    println("$name: $expected")
+}
+
+fun main() {
+    checkSameAsLegacy(
+        "normal",
+        "先看一下文件\nGPT_ACTION_RESPONSE\nRead the file\n```custom\nreadFile a.txt\n```\nRun tests\n```shell\n./gradlew test\n```\n"
+    )
+    // 2 个动作：(Read the file, custom, readFile a.txt)、(Run tests, shell, ./gradlew test)
+
+    checkSameAsLegacy("unclosed fence", "GPT_ACTION_RESPONSE\nList files\n```shell\nls -la\ncd src")
+    // 1 个动作：(List files, shell, "ls -la\ncd src")
+
+    checkSameAsLegacy("unclosed fence with trailing newline", "GPT_ACTION_RESPONSE\nList files\n```shell\nls -la\n")
+    // 1 个动作，命令末尾保留空行："ls -la\n"
+
+    checkSameAsLegacy("empty unclosed fence", "GPT_ACTION_RESPONSE\nList files\n```shell\n")
+    // 1 个动作，命令为空字符串
+
+    checkSameAsLegacy("marker inside fence", "GPT_ACTION_RESPONSE\nEcho\n```shell\necho GPT_ACTION_RESPONSE\nls\n```")
+    // 1 个动作，命令只有 ls，标记行被跳过
+
+    checkSameAsLegacy("fence before marker", "```shell\nrm -rf /\n```\nGPT_ACTION_RESPONSE\nPwd\n```shell\npwd\n```")
+    // 1 个动作：(Pwd, shell, pwd)
+
+    checkSameAsLegacy("fence with trailing text", "GPT_ACTION_RESPONSE\nRun\n```shell script\nls\n```")
+    // 1 个动作，命令类型为空
+
+    checkSameAsLegacy("crlf", "GPT_ACTION_RESPONSE\r\nRun\r\n```shell\r\nls\r\n```\r\n")
+    // 1 个动作：(Run, shell, ls)
+
+    checkSameAsLegacy("no marker", "Run\n```shell\nls\n```")
+    // 没有动作
+
+    check(streamParse("GPT_ACTION_RESPONSE\nList files\n```shell\nls -la\ncd src").single() ==
+            Action("List files", "shell", "ls -la\ncd src"))
+    check(streamParse("GPT_ACTION_RESPONSE\nEcho\n```shell\necho GPT_ACTION_RESPONSE\nls\n```").single() ==
+            Action("Echo", "shell", "ls"))
+    println("ok")
+}
@@ -27,45 +27,18 @@ class CppPromptContextBuilder : PromptContextBuilder {
         val clazz = PsiTreeUtil.getParentOfType(elementAtCaret, OCDeclaration::class.java)
         val method = PsiTreeUtil.getParentOfType(elementAtCaret, OCFunctionDefinition::class.java)
 
-        var methodInfo = ""
-        var simplifyClassText = ""
-        var methodName = ""
-        var completeSignature = ""
-        var className = ""
-        val methodText = method?.text ?: ""
-
-        if (method != null) {
-            methodName = method.name ?: ""
-            completeSignature = method.text?.lines()?.firstOrNull() ?: ""
-        }
-
-        if (clazz != null) {
-            className = clazz.type.name
-        }
-
-        val classText = clazz?.text ?: ""
-
-        // 简化类文本处理
-        if (method != null && clazz != null) {
-            val newClass = clazz.copy() as OCDeclaration
-
-            // 由于结构变化，可能需要调整这部分逻辑
-            try {
-                // 这里可能需要根据实际的 OCDeclaration 结构调整
-                simplifyClassText = newClass.text
-            } catch (ex: Exception) {
-                // 忽略异常
-            }
-        }
-
+        // 各字段用到时才计算
         val promptContext = PromptContext(
-            methodInfo = methodInfo,
-            simplifyClassText = simplifyClassText,
-            methodName = methodName,
-            completeSignature = completeSignature,
-            className = className,
-            methodText = methodText,
-            classText = classText
+            methodInfo = { "" },
+            // 简化类文本处理，由于结构变化，可能需要根据实际的 OCDeclaration 结构调整
+            simplifyClassText = {
+                if (method != null && clazz != null) (clazz.copy() as OCDeclaration).text else ""
+            },
+            methodName = { method?.name ?: "" },
+            completeSignature = { method?.text?.lines()?.firstOrNull() ?: "" },
+            className = { clazz?.type?.name ?: "" },
+            methodText = { method?.text ?: "" },
+            classText = { clazz?.text ?: "" }
         )
 
         PromptContextBuilder.fillCommonField(psiElement, editor, promptContext)
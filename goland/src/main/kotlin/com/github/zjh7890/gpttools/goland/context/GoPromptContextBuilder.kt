@@ -28,37 +28,17 @@ class GoPromptContextBuilder : PromptContextBuilder {
         val function = PsiTreeUtil.getParentOfType(elementAtCaret, GoFunctionDeclaration::class.java)
         val typeSpec = PsiTreeUtil.getParentOfType(elementAtCaret, GoTypeSpec::class.java)
 
-        // 初始化上下文变量
-        var methodInfo = ""
-        var simplifyClassText = ""
-        var methodName = ""
-        var completeSignature = ""
-        var className = ""
-        val methodText = function?.text ?: ""
-
-        if (function != null) {
-            methodName = function.name ?: ""
-            // 构建完整的函数签名
-            completeSignature = buildFunctionSignature(function)
-            methodInfo = function.text
-        }
-
-        if (typeSpec != null) {
-            className = typeSpec.name ?: ""
-            simplifyClassText = typeSpec.text
-        }
-
-        // 获取完整的类型声明文本
-        val classText = typeSpec?.text ?: ""
-
+        // 各字段用到时才计算
         val promptContext = PromptContext(
-            methodInfo = methodInfo,
-            simplifyClassText = simplifyClassText,
-            methodName = methodName,
-            completeSignature = completeSignature,
-            className = className,
-            methodText = methodText,
-            classText = classText
+            methodInfo = { function?.text ?: "" },
+            simplifyClassText = { typeSpec?.text ?: "" },
+            methodName = { function?.name ?: "" },
+            // 构建完整的函数签名
+            completeSignature = { function?.let { buildFunctionSignature(it) } ?: "" },
+            className = { typeSpec?.name ?: "" },
+            methodText = { function?.text ?: "" },
+            // 获取完整的类型声明文本
+            classText = { typeSpec?.text ?: "" }
         )
 
         PromptContextBuilder.fillCommonField(psiElement, editor, promptContext)
@@ -26,64 +26,48 @@ class JavaPromptContextBuilder : PromptContextBuilder {
         val clazz = PsiTreeUtil.getParentOfType(elementAtCaret, PsiClass::class.java)
         val method = PsiTreeUtil.getParentOfType(elementAtCaret, PsiMethod::class.java)
 
-        // Initialize context variables with default empty values
-        var methodInfo = ""
-        var simplifyClassText = ""
-        var methodName = ""
-        var completeSignature = ""
-        var className = ""
-        val methodText = method?.text ?: ""
-
-        if (method != null) {
-            methodName = method.name
-            completeSignature = generateSignature(method, true)
-            try {
-                val classes = findClassesFromMethod(method, project)
-                methodInfo = classes.joinToString("\n") { it.className }
-            } catch (ex: Exception) {
-                // If unable to find classes, keep methodInfo empty
-                methodInfo = ""
-            }
-        }
-
-        if (clazz != null) {
-            className = clazz.name ?: ""
-        }
-
-        // 获取完整的类文本
-        val classText = clazz?.text ?: ""
+        // 各字段用到时才计算，没有方法或类时为空
+        val promptContext = PromptContext(
+            methodInfo = {
+                if (method == null) ""
+                else try {
+                    findClassesFromMethod(method, project).joinToString("\n") { it.className }
+                } catch (ex: Exception) {
+                    // If unable to find classes, keep methodInfo empty
+                    ""
+                }
+            },
+            simplifyClassText = {
+                if (method != null && clazz != null) simplifyClassText(clazz, method) else ""
+            },
+            methodName = { method?.name ?: "" },
+            completeSignature = { method?.let { generateSignature(it, true) } ?: "" },
+            className = { clazz?.name ?: "" },
+            methodText = { method?.text ?: "" },
+            // 获取完整的类文本
+            classText = { clazz?.text ?: "" },
+        )
+        PromptContextBuilder.fillCommonField(psiElement, editor, promptContext)
+        return promptContext
+    }
 
-        // Populate context variables if possible
-        if (method != null && clazz != null) {
-            val signature = generateSignature(method, false)
-            val newClass = clazz.copy() as PsiClass
+    // Remove other methods and fields to simplify the class text
+    private fun simplifyClassText(clazz: PsiClass, method: PsiMethod): String {
+        val signature = generateSignature(method, false)
+        val newClass = clazz.copy() as PsiClass
 
-            // Remove other methods and fields to simplify the class text
-            newClass.methods.filter {
-                generateSignature(it, false) != signature
-            }.forEach { newClass.deleteChildRange(it, it) }
+        newClass.methods.filter {
+            generateSignature(it, false) != signature
+        }.forEach { newClass.deleteChildRange(it, it) }
 
-            newClass.fields.filterNotNull().forEach { field ->
-                try {
-                    newClass.deleteChildRange(field, field)
-                } catch (ex: Exception) {
-                    // Ignored to maintain robustness
-                }
+        newClass.fields.filterNotNull().forEach { field ->
+            try {
+                newClass.deleteChildRange(field, field)
+            } catch (ex: Exception) {
+                // Ignored to maintain robustness
             }
-
-            simplifyClassText = newClass.text
         }
 
-        val promptContext = PromptContext(
-            methodInfo = methodInfo,
-            simplifyClassText = simplifyClassText,
-            methodName = methodName,
-            completeSignature = completeSignature,
-            className = className,
-            methodText = methodText,
-            classText = classText,  // 添加 classText 字段
-        )
-        PromptContextBuilder.fillCommonField(psiElement, editor, promptContext)
-        return promptContext
+        return newClass.text
     }
 }
\ No newline at end of file
@@ -28,51 +28,20 @@ class JavaScriptPromptContextBuilder : PromptContextBuilder {
         val clazz = PsiTreeUtil.getParentOfType(elementAtCaret, JSClass::class.java)
         val method = PsiTreeUtil.getParentOfType(elementAtCaret, JSFunction::class.java)
 
-        // 初始化上下文变量
-        var methodInfo = ""
-        var simplifyClassText = ""
-        var methodName = ""
-        var completeSignature = ""
-        var className = ""
-        val methodText = method?.text ?: ""
-
-        if (method != null) {
-            methodName = method.name ?: ""
-            // 构建方法签名
-            completeSignature = buildMethodSignature(method)
-        }
-
-        if (clazz != null) {
-            className = clazz.name ?: ""
-        }
-
-        // 获取完整的类文本
-        val classText = clazz?.text ?: ""
-
-        // 如果存在方法和类，创建简化的类文本
-        if (method != null && clazz != null) {
-            val newClass = clazz.copy() as JSClass
-
-            // 移除其他方法，只保留当前方法
-            newClass.functions.filter { it.name != method.name }.forEach { function ->
-                try {
-                    newClass.deleteChildRange(function, function)
-                } catch (ex: Exception) {
-                    // 忽略异常以保持健壮性
-                }
-            }
-
-            simplifyClassText = newClass.text
-        }
-
+        // 各字段用到时才计算
         val promptContext = PromptContext(
-            methodInfo = methodInfo,
-            simplifyClassText = simplifyClassText,
-            methodName = methodName,
-            completeSignature = completeSignature,
-            className = className,
-            methodText = methodText,
-            classText = classText
+            methodInfo = { "" },
+            // 如果存在方法和类，创建简化的类文本
+            simplifyClassText = {
+                if (method != null && clazz != null) simplifyClassText(clazz, method) else ""
+            },
+            methodName = { method?.name ?: "" },
+            // 构建方法签名
+            completeSignature = { method?.let { buildMethodSignature(it) } ?: "" },
+            className = { clazz?.name ?: "" },
+            methodText = { method?.text ?: "" },
+            // 获取完整的类文本
+            classText = { clazz?.text ?: "" }
         )
 
         PromptContextBuilder.fillCommonField(psiElement, editor, promptContext)
@@ -86,4 +55,19 @@ class JavaScriptPromptContextBuilder : PromptContextBuilder {
         val returnType = method.returnType?.typeText ?: "void"
         return "${method.name}(${params}): ${returnType}"
     }
-}
\ No newline at end of file
+
+    private fun simplifyClassText(clazz: JSClass, method: JSFunction): String {
+        val newClass = clazz.copy() as JSClass
+
+        // 移除其他方法，只保留当前方法
+        newClass.functions.filter { it.name != method.name }.forEach { function ->
+            try {
+                newClass.deleteChildRange(function, function)
+            } catch (ex: Exception) {
+                // 忽略异常以保持健壮性
+            }
+        }
+
+        return newClass.text
+    }
+}
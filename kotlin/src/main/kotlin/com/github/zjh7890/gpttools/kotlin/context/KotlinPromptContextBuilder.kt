@@ -28,47 +28,20 @@ class KotlinPromptContextBuilder : PromptContextBuilder {
         val clazz = PsiTreeUtil.getParentOfType(elementAtCaret, KtClass::class.java)
         val method = PsiTreeUtil.getParentOfType(elementAtCaret, KtNamedFunction::class.java)
 
-        // 初始化上下文变量
-        var methodInfo = ""
-        var simplifyClassText = ""
-        var methodName = ""
-        var completeSignature = ""
-        var className = ""
-        val methodText = method?.text ?: ""
-
-        if (method != null) {
-            methodName = method.name ?: ""
-            completeSignature = method.text.lines().first() // 获取方法签名（简化处理）
-            try {
-                // 这里可以添加获取方法相关类的逻辑
-                methodInfo = "" // 根据需要实现
-            } catch (ex: Exception) {
-                methodInfo = ""
-            }
-        }
-
-        if (clazz != null) {
-            className = clazz.name ?: ""
-        }
-
-        // 获取完整的类文本
-        val classText = clazz?.text ?: ""
-
-        // 简化类文本处理
-        if (method != null && clazz != null) {
-            val newClass = clazz.copy() as KtClass
-            // 这里可以添加简化类文本的逻辑，移除其他方法和字段
-            simplifyClassText = newClass.text
-        }
-
+        // 各字段用到时才计算
         val promptContext = PromptContext(
-            methodInfo = methodInfo,
-            simplifyClassText = simplifyClassText,
-            methodName = methodName,
-            completeSignature = completeSignature,
-            className = className,
-            methodText = methodText,
-            classText = classText
+            // 这里可以添加获取方法相关类的逻辑
+            methodInfo = { "" },
+            simplifyClassText = {
+                // 这里可以添加简化类文本的逻辑，移除其他方法和字段
+                if (method != null && clazz != null) (clazz.copy() as KtClass).text else ""
+            },
+            methodName = { method?.name ?: "" },
+            completeSignature = { method?.text?.lines()?.first() ?: "" }, // 获取方法签名（简化处理）
+            className = { clazz?.name ?: "" },
+            methodText = { method?.text ?: "" },
+            // 获取完整的类文本
+            classText = { clazz?.text ?: "" }
         )
 
         PromptContextBuilder.fillCommonField(psiElement, editor, promptContext)
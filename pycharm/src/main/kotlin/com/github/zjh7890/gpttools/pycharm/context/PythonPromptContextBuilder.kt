@@ -28,41 +28,20 @@ class PythonPromptContextBuilder : PromptContextBuilder {
         val pyClass = PsiTreeUtil.getParentOfType(elementAtCaret, PyClass::class.java)
         val pyFunction = PsiTreeUtil.getParentOfType(elementAtCaret, PyFunction::class.java)
 
-        // 初始化上下文变量
-        var methodInfo = ""
-        var simplifyClassText = ""
-        var methodName = ""
-        var completeSignature = ""
-        var className = ""
-        val methodText = pyFunction?.text ?: ""
-
-        if (pyFunction != null) {
-            methodName = pyFunction.name ?: ""
-            // 构建函数签名
-            completeSignature = buildFunctionSignature(pyFunction)
+        // 各字段用到时才计算
+        val promptContext = PromptContext(
             // 这里可以添加获取相关类的逻辑
-            methodInfo = pyFunction.getDocStringValue() ?: ""
-        }
-
-        if (pyClass != null) {
-            className = pyClass.name ?: ""
-            // 获取完整的类文本
-            val classText = pyClass.text ?: ""
-
+            methodInfo = { pyFunction?.getDocStringValue() ?: "" },
             // 简化类文本，只保留当前函数
-            if (pyFunction != null) {
-                simplifyClassText = buildSimplifiedClassText(pyClass, pyFunction)
-            }
-        }
-
-        val promptContext = PromptContext(
-            methodInfo = methodInfo,
-            simplifyClassText = simplifyClassText,
-            methodName = methodName,
-            completeSignature = completeSignature,
-            className = className,
-            methodText = methodText,
-            classText = pyClass?.text ?: ""
+            simplifyClassText = {
+                if (pyClass != null && pyFunction != null) buildSimplifiedClassText(pyClass, pyFunction) else ""
+            },
+            methodName = { pyFunction?.name ?: "" },
+            // 构建函数签名
+            completeSignature = { pyFunction?.let { buildFunctionSignature(it) } ?: "" },
+            className = { pyClass?.name ?: "" },
+            methodText = { pyFunction?.text ?: "" },
+            classText = { pyClass?.text ?: "" }
         )
 
         PromptContextBuilder.fillCommonField(psiElement, editor, promptContext)
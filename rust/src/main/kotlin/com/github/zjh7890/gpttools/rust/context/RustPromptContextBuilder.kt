@@ -29,48 +29,21 @@ class RustPromptContextBuilder : PromptContextBuilder {
         val function = elementAtCaret?.parentOfType<RsFunction>()
         val implItem = elementAtCaret?.parentOfType<RsImplItem>()
 
-        // 初始化上下文变量
-        var methodInfo = ""
-        var simplifyClassText = ""
-        var methodName = ""
-        var completeSignature = ""
-        var className = ""
-        val methodText = function?.text ?: ""
-
-        if (function != null) {
-            methodName = function.name ?: ""
+        // 各字段用到时才计算
+        val promptContext = PromptContext(
+            methodInfo = { "" },
+            // 如果存在函数和实现块，创建简化版本的实现块文本
+            simplifyClassText = {
+                if (function != null && implItem != null) simplifyImplText(implItem, function) else ""
+            },
+            methodName = { function?.name ?: "" },
             // 构建完整的函数签名
-            completeSignature = buildFunctionSignature(function)
-        }
-
-        if (implItem != null) {
+            completeSignature = { function?.let { buildFunctionSignature(it) } ?: "" },
             // 获取实现块的类型名称
-            className = implItem.typeReference?.text ?: ""
-        }
-
-        // 获取完整的实现块文本
-        val classText = implItem?.text ?: ""
-
-        // 如果存在函数和实现块，创建简化版本的实现块文本
-        if (function != null && implItem != null) {
-            val newImpl = implItem.copy() as RsImplItem
-
-            // 移除其他函数，只保留当前函数
-            PsiTreeUtil.findChildrenOfType(newImpl, RsFunction::class.java)
-                .filter { it.name != function.name }
-                .forEach { it.delete() }
-
-            simplifyClassText = newImpl.text
-        }
-
-        val promptContext = PromptContext(
-            methodInfo = methodInfo,
-            simplifyClassText = simplifyClassText,
-            methodName = methodName,
-            completeSignature = completeSignature,
-            className = className,
-            methodText = methodText,
-            classText = classText
+            className = { implItem?.typeReference?.text ?: "" },
+            methodText = { function?.text ?: "" },
+            // 获取完整的实现块文本
+            classText = { implItem?.text ?: "" }
         )
 
         PromptContextBuilder.fillCommonField(psiElement, editor, promptContext)
@@ -88,4 +61,15 @@ class RustPromptContextBuilder : PromptContextBuilder {
 
         return "$visibility fn $name($params)$returnType"
     }
-}
\ No newline at end of file
+
+    private fun simplifyImplText(implItem: RsImplItem, function: RsFunction): String {
+        val newImpl = implItem.copy() as RsImplItem
+
+        // 移除其他函数，只保留当前函数
+        PsiTreeUtil.findChildrenOfType(newImpl, RsFunction::class.java)
+            .filter { it.name != function.name }
+            .forEach { it.delete() }
+
+        return newImpl.text
+    }
+}
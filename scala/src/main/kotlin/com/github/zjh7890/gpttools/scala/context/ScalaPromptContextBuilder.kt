@@ -28,57 +28,41 @@ class ScalaPromptContextBuilder : PromptContextBuilder {
         val clazz = PsiTreeUtil.getParentOfType(elementAtCaret, ScClass::class.java)
         val method = PsiTreeUtil.getParentOfType(elementAtCaret, ScFunction::class.java)
 
-        // 初始化上下文变量
-        var methodInfo = ""
-        var simplifyClassText = ""
-        var methodName = ""
-        var completeSignature = ""
-        var className = ""
-        val methodText = method?.text ?: ""
-
-        if (method != null) {
-            methodName = method.name
-            // 获取方法签名
-            completeSignature = "${method.name}${method.paramClauses() }: ${method.returnType?.presentableText ?: "Unit"}"
-
+        // 各字段用到时才计算
+        val promptContext = PromptContext(
             // TODO: 如果需要，可以实现类似 findClassesFromMethod 的功能
-            methodInfo = ""
-        }
-
-        if (clazz != null) {
-            className = clazz.name ?: ""
-        }
+            methodInfo = { "" },
+            // 简化类文本，只保留当前方法
+            simplifyClassText = {
+                if (method != null && clazz != null) simplifyClassText(clazz, method) else ""
+            },
+            methodName = { method?.name ?: "" },
+            // 获取方法签名
+            completeSignature = {
+                method?.let { "${it.name}${it.paramClauses() }: ${it.returnType?.presentableText ?: "Unit"}" } ?: ""
+            },
+            className = { clazz?.name ?: "" },
+            methodText = { method?.text ?: "" },
+            // 获取完整的类文本
+            classText = { clazz?.text ?: "" }
+        )
 
-        // 获取完整的类文本
-        val classText = clazz?.text ?: ""
+        PromptContextBuilder.fillCommonField(psiElement, editor, promptContext)
+        return promptContext
+    }
 
-        // 简化类文本，只保留当前方法
-        if (method != null && clazz != null) {
-            val newClass = clazz.copy() as ScClass
+    private fun simplifyClassText(clazz: ScClass, method: ScFunction): String {
+        val newClass = clazz.copy() as ScClass
 
-            // 移除其他方法
-            for (function in newClass.functions().filter { it.name != methodName }) {
-                try {
-                    newClass.deleteChildRange(function, function)
-                } catch (ex: Exception) {
-                    // 忽略异常以保持健壮性
-                }
+        // 移除其他方法
+        for (function in newClass.functions().filter { it.name != method.name }) {
+            try {
+                newClass.deleteChildRange(function, function)
+            } catch (ex: Exception) {
+                // 忽略异常以保持健壮性
             }
-
-            simplifyClassText = newClass.text
         }
 
-        val promptContext = PromptContext(
-            methodInfo = methodInfo,
-            simplifyClassText = simplifyClassText,
-            methodName = methodName,
-            completeSignature = completeSignature,
-            className = className,
-            methodText = methodText,
-            classText = classText
-        )
-
-        PromptContextBuilder.fillCommonField(psiElement, editor, promptContext)
-        return promptContext
+        return newClass.text
     }
-}
\ No newline at end of file
+}